@@ -0,0 +1,24 @@
+@echo off
+rem 使用 AppCDS 归档启动 (先运行 mvn -Pcds package)
+rem 归档不存在时先做一次训练运行生成 (程序会显示主界面，几秒后自动退出)
+rem 依赖的 jar 变化后归档会失效，JVM 会自动回退为普通启动，重新 mvn -Pcds package 即可
+setlocal
+
+set "DIR=%~dp0..\target\cds"
+set "JAR=qq-chat-copilot.jar"
+set "JSA=app.jsa"
+set "JAVA=java"
+if defined JAVA_HOME set "JAVA=%JAVA_HOME%\bin\java"
+
+if not exist "%DIR%\%JAR%" (
+    echo 找不到 %DIR%\%JAR%，请先运行: mvn -Pcds package
+    exit /b 1
+)
+
+cd /d "%DIR%"
+if not exist "%JSA%" (
+    echo 正在生成 AppCDS 归档 ^(训练运行^)...
+    "%JAVA%" -XX:ArchiveClassesAtExit=%JSA% -Dqqcopilot.exitAfterStartupMs=3000 -jar %JAR%
+)
+
+"%JAVA%" -XX:SharedArchiveFile=%JSA% -Xshare:auto -jar %JAR% %*
@@ -0,0 +1,23 @@
+#!/usr/bin/env bash
+# 使用 AppCDS 归档启动 (先运行 mvn -Pcds package)
+# 归档不存在或比 jar 旧时，先做一次训练运行重新生成 (程序会显示主界面，几秒后自动退出)
+# 依赖的 jar 变化后归档会失效，JVM 会自动回退为普通启动，重新 mvn -Pcds package 即可
+set -euo pipefail
+
+DIR="$(cd "$(dirname "$0")/.." && pwd)/target/cds"
+JAR="qq-chat-copilot.jar"
+JSA="app.jsa"
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+
+if [ ! -f "$DIR/$JAR" ]; then
+    echo "找不到 $DIR/$JAR，请先运行: mvn -Pcds package" >&2
+    exit 1
+fi
+
+cd "$DIR"
+if [ ! -f "$JSA" ] || [ "$JAR" -nt "$JSA" ]; then
+    echo "正在生成 AppCDS 归档 (训练运行)..."
+    "$JAVA" -XX:ArchiveClassesAtExit="$JSA" -Dqqcopilot.exitAfterStartupMs=3000 -jar "$JAR"
+fi
+
+exec "$JAVA" -XX:SharedArchiveFile="$JSA" -Xshare:auto -jar "$JAR" "$@"
@@ -0,0 +1,53 @@
+#!/usr/bin/env bash
+# 启动耗时对比: 关闭 CDS / JDK 默认 CDS / AppCDS
+# 每种方式启动 RUNS 次 (另加 1 次预热不计入)，程序显示主界面后立即退出，
+# 统计进程总耗时和 StartupTimer 记录的 "主界面" 时间 (距 JVM 启动)，输出中位数
+# 用法: mvn -Pcds package && scripts/startup-benchmark.sh   (RUNS=10 scripts/startup-benchmark.sh)
+# 需要图形界面环境；Bot 连接不影响结果 (主界面不等待 Bot)
+set -euo pipefail
+
+RUNS="${RUNS:-5}"
+DIR="$(cd "$(dirname "$0")/.." && pwd)/target/cds"
+JAR="qq-chat-copilot.jar"
+JSA="app.jsa"
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+STARTUP_LOG="$HOME/.qqcopilot/startup.log"
+
+if [ ! -f "$DIR/$JAR" ] || [ ! -f "$DIR/$JSA" ]; then
+    echo "找不到 $DIR/$JAR 或 $JSA，请先运行: mvn -Pcds package" >&2
+    exit 1
+fi
+cd "$DIR"
+
+median() {
+    sort -n | awk '{ v[NR] = $1 } END { if (NR == 0) print "-"; else if (NR % 2) print v[(NR + 1) / 2]; else print int((v[NR / 2] + v[NR / 2 + 1]) / 2) }'
+}
+
+# 启动一次，输出 "进程总耗时 主界面时间" (毫秒)
+run_once() {
+    local start end main
+    start=$(date +%s%N)
+    "$JAVA" "$@" -Dqqcopilot.exitAfterStartupMs=0 -jar "$JAR" > /dev/null 2>&1 || true
+    end=$(date +%s%N)
+    main=$(grep -o '主界面=[0-9]*' "$STARTUP_LOG" 2>/dev/null | tail -n 1 | cut -d= -f2)
+    echo "$(( (end - start) / 1000000 )) ${main:--}"
+}
+
+measure() {
+    local label="$1"
+    shift
+    run_once "$@" > /dev/null
+    local results=()
+    for ((i = 1; i <= RUNS; i++)); do
+        results+=("$(run_once "$@")")
+    done
+    local wall main
+    wall=$(printf '%s\n' "${results[@]}" | cut -d' ' -f1 | median)
+    main=$(printf '%s\n' "${results[@]}" | cut -d' ' -f2 | grep -v '^-$' | median)
+    printf '%-16s 主界面 %6s ms    进程总耗时 %6s ms\n' "$label" "$main" "$wall"
+}
+
+echo "$("$JAVA" -version 2>&1 | head -n 1), 每种方式 $RUNS 次取中位数"
+measure "关闭 CDS" -Xshare:off
+measure "JDK 默认 CDS" -Xshare:auto
+measure "AppCDS" -XX:SharedArchiveFile="$JSA" -Xshare:auto
@@ -9,6 +9,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 public class ChatCopilotApplication {
 
     public static void main(String[] args) {
+        StartupTimer.mark("JVM启动");
         Application.launch(JavaFxApplication.class, args);
     }
 }
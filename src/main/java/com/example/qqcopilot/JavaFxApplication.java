@@ -1,29 +1,97 @@
 package com.example.qqcopilot;
 
 import atlantafx.base.theme.PrimerLight;
+import com.example.qqcopilot.service.UiTaskExecutor;
+import com.example.qqcopilot.ui.SplashScreen;
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.context.ConfigurableApplicationContext;
 
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 启动顺序:
+ * 1. FX 启动后立即显示启动画面
+ * 2. Spring 容器在后台线程初始化，同时 FX 线程加载主题
+ * 3. 容器就绪后加载主界面并关闭启动画面；Bot 在容器就绪后于后台连接 (见 BotConnectionMonitor)，不阻塞主界面
+ * 各阶段耗时由 StartupTimer 记录
+ */
 public class JavaFxApplication extends Application {
 
-    private ConfigurableApplicationContext context;
+    private static final Logger log = LoggerFactory.getLogger(JavaFxApplication.class);
+    private static final String EXIT_AFTER_STARTUP_PROPERTY = "qqcopilot.exitAfterStartupMs";
 
-    @Override
-    public void init() {
-        context = SpringApplication.run(ChatCopilotApplication.class);
-    }
+    private volatile ConfigurableApplicationContext context;
 
     @Override
-    public void start(Stage stage) throws Exception {
-        // 应用 AtlantaFX 主题 (PrimerLight - 类似 GitHub 风格)
+    public void start(Stage stage) {
+        StartupTimer.mark("FX启动");
+        SplashScreen splash = new SplashScreen();
+        splash.show();
+        StartupTimer.mark("启动画面");
+
+        CompletableFuture<ConfigurableApplicationContext> boot = new CompletableFuture<>();
+        Thread bootThread = new Thread(() -> {
+            try {
+                boot.complete(SpringApplication.run(ChatCopilotApplication.class));
+            } catch (Throwable e) {
+                boot.completeExceptionally(e);
+            }
+        }, "spring-boot");
+        bootThread.setDaemon(true);
+        bootThread.start();
+        splash.setStatus("正在初始化服务...");
+
+        // 应用 AtlantaFX 主题 (PrimerLight - 类似 GitHub 风格)，与 Spring 初始化并行
         Application.setUserAgentStylesheet(new PrimerLight().getUserAgentStylesheet());
-        
+        StartupTimer.mark("主题加载");
+
+        boot.whenComplete((ctx, ex) -> Platform.runLater(() -> {
+            if (ex != null) {
+                log.error("Spring 容器启动失败", ex);
+                splash.showError(ex.getMessage());
+                return;
+            }
+            context = ctx;
+            StartupTimer.mark("Spring容器");
+            try {
+                showMainWindow(stage);
+                splash.close();
+                StartupTimer.mark("主界面");
+                StartupTimer.report();
+                exitAfterStartupIfRequested();
+            } catch (Exception e) {
+                log.error("加载主界面失败", e);
+                splash.showError(e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * 设置了 -Dqqcopilot.exitAfterStartupMs 时，主界面显示后等待指定时间自动退出
+     * 用于 AppCDS 训练运行和启动耗时测试 (scripts/startup-benchmark.sh)
+     */
+    private void exitAfterStartupIfRequested() {
+        Long delayMs = Long.getLong(EXIT_AFTER_STARTUP_PROPERTY);
+        if (delayMs == null) {
+            return;
+        }
+        log.info("{} 已设置，{} ms 后退出", EXIT_AFTER_STARTUP_PROPERTY, delayMs);
+        PauseTransition delay = new PauseTransition(Duration.millis(Math.max(0, delayMs)));
+        delay.setOnFinished(e -> Platform.exit());
+        delay.play();
+    }
+
+    private void showMainWindow(Stage stage) throws Exception {
         FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("/fxml/main-view.fxml"));
         fxmlLoader.setControllerFactory(context::getBean);
         Parent root = fxmlLoader.load();
@@ -31,18 +99,22 @@ public class JavaFxApplication extends Application {
         stage.setTitle("QQ Chat Copilot");
         stage.setScene(scene);
         stage.setAlwaysOnTop(true);
-        
-        // 点击关闭按钮时退出整个应用
-        stage.setOnCloseRequest(event -> {
-            Platform.exit();
-            System.exit(0);
-        });
-        
+
+        // 点击关闭按钮时退出整个应用 (清理在 stop() 中进行)
+        stage.setOnCloseRequest(event -> Platform.exit());
+
         stage.show();
     }
 
     @Override
     public void stop() {
-        context.close();
+        // 启动画面阶段退出时容器可能还没就绪
+        if (context != null) {
+            // 先中断界面发起的后台任务，避免它们在 Spring 容器关闭后还访问 Bean
+            context.getBean(UiTaskExecutor.class).shutdown(2000);
+            context.close();
+        }
+        // Simbot 等组件可能留有非守护线程，确保进程退出
+        System.exit(0);
     }
 }
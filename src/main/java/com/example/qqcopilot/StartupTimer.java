@@ -0,0 +1,100 @@
+package com.example.qqcopilot;
+
+import com.example.qqcopilot.config.AiConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 启动阶段计时
+ * 各阶段调用 mark() 记录距 JVM 启动的时间，主界面显示后 report() 打印各阶段耗时，
+ * 并在 ~/.qqcopilot/startup.log 追加一行，方便对比不同版本、不同启动方式的冷启动时间
+ * Bot 连接在后台进行，连上时单独记录一次
+ */
+public final class StartupTimer {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupTimer.class);
+    private static final String LOG_FILE = AiConfig.CONFIG_DIR + "/startup.log";
+
+    private static final List<Phase> phases = new ArrayList<>();
+    private static boolean reported;
+    private static boolean botReported;
+
+    private StartupTimer() {
+    }
+
+    /**
+     * 记录一个阶段的完成时间
+     */
+    public static synchronized void mark(String phase) {
+        phases.add(new Phase(phase, uptimeMs()));
+    }
+
+    /**
+     * 主界面显示后调用一次，打印各阶段耗时并写入启动日志
+     */
+    public static synchronized void report() {
+        if (reported) {
+            return;
+        }
+        reported = true;
+        StringBuilder table = new StringBuilder("启动耗时:");
+        StringBuilder line = new StringBuilder(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        long previous = 0;
+        for (Phase phase : phases) {
+            table.append(String.format("%n  %-12s +%5d ms  (累计 %5d ms)", phase.name, phase.atMs - previous, phase.atMs));
+            line.append(' ').append(phase.name.replace(' ', '_')).append('=').append(phase.atMs);
+            previous = phase.atMs;
+        }
+        log.info(table.toString());
+        append(line.toString());
+    }
+
+    /**
+     * 第一个 Bot 连上时调用，单独记录 (Bot 连接不阻塞主界面)
+     */
+    public static synchronized void reportBotConnected() {
+        if (botReported) {
+            return;
+        }
+        botReported = true;
+        long at = uptimeMs();
+        log.info("启动后 {} ms 第一个 Bot 已连接", at);
+        append(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) + " Bot已连接=" + at);
+    }
+
+    private static long uptimeMs() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    private static void append(String line) {
+        try {
+            Path path = Paths.get(LOG_FILE);
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, line + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (Exception e) {
+            log.debug("写入启动日志失败: {}", e.getMessage());
+        }
+    }
+
+    private static class Phase {
+        final String name;
+        final long atMs;
+
+        Phase(String name, long atMs) {
+            this.name = name;
+            this.atMs = atMs;
+        }
+    }
+}
@@ -5,24 +5,60 @@ import com.google.gson.GsonBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * AI 配置管理 - 持久化存储
+ * 当前配置是一个不可变的 {@link AiSettings} 快照，通过原子引用发布:
+ * - 读取只需一次 volatile 读，后台分析线程和 FX 线程之间不需要加锁
+ * - 修改时构建新快照整体替换，多项修改用 {@link #update} 一次完成
+ * - 保存在单独线程写临时文件后原子替换，不阻塞 FX 线程，也不会留下写了一半的配置文件
+ * - 监听 ai-config.json，在外部编辑后自动重新加载并发布 {@link AiConfigChangedEvent}
  */
 @Component
 public class AiConfig {
 
     private static final Logger log = LoggerFactory.getLogger(AiConfig.class);
-    private static final String CONFIG_DIR = System.getProperty("user.home") + "/.qqcopilot";
+    public static final String CONFIG_DIR = System.getProperty("user.home") + "/.qqcopilot";
     private static final String CONFIG_FILE = CONFIG_DIR + "/ai-config.json";
+    // 编辑器保存时常连续触发多个文件事件，等这么久没有新事件再重新加载
+    private static final long RELOAD_DEBOUNCE_MS = 300;
 
     private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final ApplicationEventPublisher eventPublisher;
+    private final AtomicReference<AiSettings> current = new AtomicReference<>(AiSettings.DEFAULTS);
+    // 写盘按提交顺序在单线程执行，最后一次保存的内容最终落盘
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ai-config-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    // 最近一次由本程序写入或读到的文件内容，监听到相同内容时不重复加载
+    private volatile String lastFileContent;
+    private WatchService watchService;
 
     // 从 application.yml 读取默认值
     @Value("${ai.api-url:}")
@@ -37,27 +73,68 @@ public class AiConfig {
     @Value("${ai.rate-limit-ms:2000}")
     private long defaultRateLimitMs;
 
+    @Value("${ai.rate-limit-burst:1}")
+    private int defaultRateLimitBurst;
+
     @Value("${ai.system-prompt:}")
     private String defaultSystemPrompt;
 
-    // 配置项
-    private String apiUrl = "";
-    private String apiKey = "";
-    private String model = "";
-    private long rateLimitMs = 2000;
-    private String systemPrompt = "";
+    public AiConfig(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
 
     @PostConstruct
     public void init() {
         // 先设置默认值
-        this.apiUrl = defaultApiUrl;
-        this.apiKey = defaultApiKey;
-        this.model = defaultModel;
-        this.rateLimitMs = defaultRateLimitMs;
-        this.systemPrompt = defaultSystemPrompt != null ? defaultSystemPrompt : "";
-        
+        current.set(AiSettings.builder()
+                .apiUrl(defaultApiUrl)
+                .apiKey(defaultApiKey)
+                .model(defaultModel)
+                .rateLimitMs(defaultRateLimitMs)
+                .rateLimitBurst(defaultRateLimitBurst > 0 ? defaultRateLimitBurst : 1)
+                .systemPrompt(defaultSystemPrompt)
+                .build());
+
         // 然后尝试从文件加载（覆盖默认值）
         load();
+        startWatcher();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("关闭配置文件监听失败: {}", e.getMessage());
+            }
+        }
+        // 等待未完成的保存写完
+        writer.shutdown();
+        try {
+            writer.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 当前配置快照，需要同时读取多个配置项时使用
+     */
+    public AiSettings snapshot() {
+        return current.get();
+    }
+
+    /**
+     * 基于当前快照修改若干配置项，作为一个新快照整体发布
+     * 只修改内存中的配置，持久化需要再调用 {@link #save()}
+     */
+    public AiSettings update(Consumer<AiSettings.Builder> changes) {
+        return current.updateAndGet(settings -> {
+            AiSettings.Builder builder = settings.toBuilder();
+            changes.accept(builder);
+            return builder.build();
+        });
     }
 
     /**
@@ -70,12 +147,10 @@ public class AiConfig {
                 String json = Files.readString(configPath);
                 AiConfigData data = gson.fromJson(json, AiConfigData.class);
                 if (data != null) {
-                    this.apiUrl = data.apiUrl != null ? data.apiUrl : "";
-                    this.apiKey = data.apiKey != null ? data.apiKey : "";
-                    this.model = data.model != null ? data.model : "";
-                    this.rateLimitMs = data.rateLimitMs > 0 ? data.rateLimitMs : 2000;
-                    this.systemPrompt = data.systemPrompt != null ? data.systemPrompt : "";
-                    log.info("AI 配置已加载: URL={}, Model={}", apiUrl, model);
+                    AiSettings settings = data.toSettings();
+                    current.set(settings);
+                    lastFileContent = json;
+                    log.info("AI 配置已加载: URL={}, Model={}", settings.getApiUrl(), settings.getModel());
                 }
             } else {
                 log.info("AI 配置文件不存在，使用默认值");
@@ -87,75 +162,251 @@ public class AiConfig {
 
     /**
      * 保存配置到文件
+     * 在调用线程取快照并序列化，写盘和发布 {@link AiConfigChangedEvent} 在后台线程进行
      */
     public void save() {
+        String json = gson.toJson(AiConfigData.from(current.get()));
+        writer.execute(() -> {
+            try {
+                writeAtomically(json);
+                log.info("AI 配置已保存");
+                eventPublisher.publishEvent(new AiConfigChangedEvent(this));
+            } catch (Exception e) {
+                log.error("保存 AI 配置失败", e);
+            }
+        });
+    }
+
+    /**
+     * 先写同目录下的临时文件再重命名覆盖，读者 (包括外部编辑器) 只会看到旧文件或完整的新文件
+     */
+    private void writeAtomically(String json) throws IOException {
+        Path target = Paths.get(CONFIG_FILE);
+        Path dir = target.getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, "ai-config", ".tmp");
         try {
-            // 确保目录存在
-            Path dirPath = Paths.get(CONFIG_DIR);
-            if (!Files.exists(dirPath)) {
-                Files.createDirectories(dirPath);
+            Files.writeString(temp, json);
+            // 在重命名之前记下，监听线程看到自己写的内容时直接忽略
+            lastFileContent = json;
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
             }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
 
-            AiConfigData data = new AiConfigData();
-            data.apiUrl = this.apiUrl;
-            data.apiKey = this.apiKey;
-            data.model = this.model;
-            data.rateLimitMs = this.rateLimitMs;
-            data.systemPrompt = this.systemPrompt;
-
-            String json = gson.toJson(data);
-            Files.writeString(Paths.get(CONFIG_FILE), json);
-            log.info("AI 配置已保存");
+    private void startWatcher() {
+        try {
+            Path dir = Paths.get(CONFIG_DIR);
+            Files.createDirectories(dir);
+            watchService = dir.getFileSystem().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.warn("无法监听配置文件变化，外部修改需要重启后生效: {}", e.getMessage());
+            return;
+        }
+        Thread thread = new Thread(this::watchLoop, "ai-config-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watchLoop() {
+        Path fileName = Paths.get(CONFIG_FILE).getFileName();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                // 合并短时间内的连续事件
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context())) {
+                            changed = true;
+                        }
+                    }
+                    key.reset();
+                    key = watchService.poll(RELOAD_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+                }
+                if (changed) {
+                    reloadIfChanged();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 程序退出
+        }
+    }
+
+    /**
+     * 配置文件被外部修改后重新加载
+     * 内容和上次读写的一致 (通常是自己保存触发的事件) 时忽略；解析失败时保留当前配置
+     */
+    private void reloadIfChanged() {
+        String json;
+        try {
+            Path configPath = Paths.get(CONFIG_FILE);
+            if (!Files.exists(configPath)) {
+                return;
+            }
+            json = Files.readString(configPath);
+        } catch (IOException e) {
+            log.warn("读取 AI 配置失败: {}", e.getMessage());
+            return;
+        }
+        if (json.equals(lastFileContent)) {
+            return;
+        }
+        AiConfigData data;
+        try {
+            data = gson.fromJson(json, AiConfigData.class);
         } catch (Exception e) {
-            log.error("保存 AI 配置失败", e);
+            log.warn("配置文件格式错误，保留当前配置: {}", e.getMessage());
+            return;
         }
+        if (data == null) {
+            return;
+        }
+        lastFileContent = json;
+        current.set(data.toSettings());
+        log.info("检测到配置文件被修改，已重新加载");
+        eventPublisher.publishEvent(new AiConfigChangedEvent(this));
     }
 
-    // Getters and Setters
+    // Getters (修改配置使用 update，多项修改只发布一个新快照)
     public String getApiUrl() {
-        return apiUrl;
+        return current.get().getApiUrl();
     }
 
-    public void setApiUrl(String apiUrl) {
-        this.apiUrl = apiUrl;
+    public String getApiKey() {
+        return current.get().getApiKey();
     }
 
-    public String getApiKey() {
-        return apiKey;
+    public String getModel() {
+        return current.get().getModel();
     }
 
-    public void setApiKey(String apiKey) {
-        this.apiKey = apiKey;
+    public long getRateLimitMs() {
+        return current.get().getRateLimitMs();
     }
 
-    public String getModel() {
-        return model;
+    public int getRateLimitBurst() {
+        return current.get().getRateLimitBurst();
     }
 
-    public void setModel(String model) {
-        this.model = model;
+    public String getSystemPrompt() {
+        return current.get().getSystemPrompt();
     }
 
-    public long getRateLimitMs() {
-        return rateLimitMs;
+    public Map<String, Integer> getContextWindows() {
+        return current.get().getContextWindows();
     }
 
-    public void setRateLimitMs(long rateLimitMs) {
-        this.rateLimitMs = rateLimitMs;
+    public int getReservedOutputTokens() {
+        return current.get().getReservedOutputTokens();
     }
 
-    public String getSystemPrompt() {
-        return systemPrompt;
+    public int getCacheMaxEntries() {
+        return current.get().getCacheMaxEntries();
+    }
+
+    public long getCacheTtlMinutes() {
+        return current.get().getCacheTtlMinutes();
     }
 
-    public void setSystemPrompt(String systemPrompt) {
-        this.systemPrompt = systemPrompt;
+    public boolean isCachePersistent() {
+        return current.get().isCachePersistent();
+    }
+
+    public boolean isSummaryEnabled() {
+        return current.get().isSummaryEnabled();
+    }
+
+    public int getRecentTailTokens() {
+        return current.get().getRecentTailTokens();
+    }
+
+    public int getSummaryChunkTokens() {
+        return current.get().getSummaryChunkTokens();
+    }
+
+    public int getSummaryMaxTokens() {
+        return current.get().getSummaryMaxTokens();
+    }
+
+    public boolean isSpeculativeEnabled() {
+        return current.get().isSpeculativeEnabled();
+    }
+
+    public long getSpeculativeDebounceMs() {
+        return current.get().getSpeculativeDebounceMs();
+    }
+
+    public int getUiMaxUpdatesPerSecond() {
+        return current.get().getUiMaxUpdatesPerSecond();
+    }
+
+    public List<AiEndpoint> getFallbackEndpoints() {
+        return current.get().getFallbackEndpoints();
+    }
+
+    public boolean isHedgingEnabled() {
+        return current.get().isHedgingEnabled();
+    }
+
+    public long getHedgeMinDelayMs() {
+        return current.get().getHedgeMinDelayMs();
+    }
+
+    public int getCircuitFailureThreshold() {
+        return current.get().getCircuitFailureThreshold();
+    }
+
+    public long getCircuitOpenSeconds() {
+        return current.get().getCircuitOpenSeconds();
+    }
+
+    public int getBatchParallelism() {
+        return current.get().getBatchParallelism();
+    }
+
+    public boolean isRelevanceSelectionEnabled() {
+        return current.get().isRelevanceSelectionEnabled();
+    }
+
+    public double getRecentContextRatio() {
+        return current.get().getRecentContextRatio();
+    }
+
+    public long getDailyTokenLimit() {
+        return current.get().getDailyTokenLimit();
+    }
+
+    public long getDailyRequestLimit() {
+        return current.get().getDailyRequestLimit();
+    }
+
+    public String getBudgetFallbackModel() {
+        return current.get().getBudgetFallbackModel();
+    }
+
+    /**
+     * 按优先顺序返回所有可用接口: 主接口在前，之后是备用接口
+     */
+    public List<AiEndpoint> getEndpoints() {
+        return current.get().getEndpoints();
+    }
+
+    /**
+     * 获取模型的上下文窗口大小 (token)
+     */
+    public int getContextWindow(String modelName) {
+        return current.get().getContextWindow(modelName);
     }
 
     public boolean isConfigured() {
-        return apiUrl != null && !apiUrl.isBlank() 
-                && apiKey != null && !apiKey.isBlank()
-                && model != null && !model.isBlank();
+        return current.get().isConfigured();
     }
 
     /**
@@ -166,6 +417,111 @@ public class AiConfig {
         String apiKey;
         String model;
         long rateLimitMs;
+        int rateLimitBurst;
         String systemPrompt;
+        Map<String, Integer> contextWindows;
+        int reservedOutputTokens;
+        int cacheMaxEntries;
+        long cacheTtlMinutes;
+        boolean cachePersistent;
+        Boolean summaryEnabled;  // 旧配置文件没有这个字段时默认开启
+        int recentTailTokens;
+        int summaryChunkTokens;
+        int summaryMaxTokens;
+        boolean speculativeEnabled;
+        long speculativeDebounceMs;
+        int uiMaxUpdatesPerSecond;
+        List<AiEndpoint> fallbackEndpoints;
+        Boolean hedgingEnabled;
+        long hedgeMinDelayMs;
+        int circuitFailureThreshold;
+        long circuitOpenSeconds;
+        int batchParallelism;
+        Boolean relevanceSelectionEnabled;
+        double recentContextRatio;
+        long dailyTokenLimit;
+        long dailyRequestLimit;
+        String budgetFallbackModel;
+
+        /**
+         * 转换为快照，缺失或不合法的值使用默认值
+         */
+        AiSettings toSettings() {
+            return AiSettings.builder()
+                    .apiUrl(apiUrl)
+                    .apiKey(apiKey)
+                    .model(model)
+                    .rateLimitMs(rateLimitMs > 0 ? rateLimitMs : 2000)
+                    .rateLimitBurst(rateLimitBurst > 0 ? rateLimitBurst : 1)
+                    .systemPrompt(systemPrompt)
+                    .contextWindows(contextWindows)
+                    .reservedOutputTokens(reservedOutputTokens > 0
+                            ? reservedOutputTokens : AiSettings.DEFAULT_RESERVED_OUTPUT_TOKENS)
+                    .cacheMaxEntries(cacheMaxEntries > 0 ? cacheMaxEntries : 64)
+                    .cacheTtlMinutes(cacheTtlMinutes > 0 ? cacheTtlMinutes : 30)
+                    .cachePersistent(cachePersistent)
+                    .summaryEnabled(summaryEnabled == null || summaryEnabled)
+                    .recentTailTokens(recentTailTokens > 0 ? recentTailTokens : 1500)
+                    .summaryChunkTokens(summaryChunkTokens > 0 ? summaryChunkTokens : 1200)
+                    .summaryMaxTokens(summaryMaxTokens > 0 ? summaryMaxTokens : 400)
+                    .speculativeEnabled(speculativeEnabled)
+                    .speculativeDebounceMs(speculativeDebounceMs > 0 ? speculativeDebounceMs : 1500)
+                    .uiMaxUpdatesPerSecond(uiMaxUpdatesPerSecond > 0 ? uiMaxUpdatesPerSecond : 30)
+                    .fallbackEndpoints(fallbackEndpoints)
+                    .hedgingEnabled(hedgingEnabled == null || hedgingEnabled)
+                    .hedgeMinDelayMs(hedgeMinDelayMs > 0 ? hedgeMinDelayMs : 2000)
+                    .circuitFailureThreshold(circuitFailureThreshold > 0 ? circuitFailureThreshold : 3)
+                    .circuitOpenSeconds(circuitOpenSeconds > 0 ? circuitOpenSeconds : 30)
+                    .batchParallelism(batchParallelism > 0 ? batchParallelism : 4)
+                    .relevanceSelectionEnabled(relevanceSelectionEnabled == null || relevanceSelectionEnabled)
+                    .recentContextRatio(recentContextRatio > 0 && recentContextRatio <= 1 ? recentContextRatio : 0.6)
+                    .dailyTokenLimit(Math.max(0, dailyTokenLimit))
+                    .dailyRequestLimit(Math.max(0, dailyRequestLimit))
+                    .budgetFallbackModel(budgetFallbackModel)
+                    .build();
+        }
+
+        static AiConfigData from(AiSettings settings) {
+            AiConfigData data = new AiConfigData();
+            data.apiUrl = settings.getApiUrl();
+            data.apiKey = settings.getApiKey();
+            data.model = settings.getModel();
+            data.rateLimitMs = settings.getRateLimitMs();
+            data.rateLimitBurst = settings.getRateLimitBurst();
+            data.systemPrompt = settings.getSystemPrompt();
+            data.contextWindows = settings.getContextWindows();
+            data.reservedOutputTokens = settings.getReservedOutputTokens();
+            data.cacheMaxEntries = settings.getCacheMaxEntries();
+            data.cacheTtlMinutes = settings.getCacheTtlMinutes();
+            data.cachePersistent = settings.isCachePersistent();
+            data.summaryEnabled = settings.isSummaryEnabled();
+            data.recentTailTokens = settings.getRecentTailTokens();
+            data.summaryChunkTokens = settings.getSummaryChunkTokens();
+            data.summaryMaxTokens = settings.getSummaryMaxTokens();
+            data.speculativeEnabled = settings.isSpeculativeEnabled();
+            data.speculativeDebounceMs = settings.getSpeculativeDebounceMs();
+            data.uiMaxUpdatesPerSecond = settings.getUiMaxUpdatesPerSecond();
+            data.fallbackEndpoints = settings.getFallbackEndpoints();
+            data.hedgingEnabled = settings.isHedgingEnabled();
+            data.hedgeMinDelayMs = settings.getHedgeMinDelayMs();
+            data.circuitFailureThreshold = settings.getCircuitFailureThreshold();
+            data.circuitOpenSeconds = settings.getCircuitOpenSeconds();
+            data.batchParallelism = settings.getBatchParallelism();
+            data.relevanceSelectionEnabled = settings.isRelevanceSelectionEnabled();
+            data.recentContextRatio = settings.getRecentContextRatio();
+            data.dailyTokenLimit = settings.getDailyTokenLimit();
+            data.dailyRequestLimit = settings.getDailyRequestLimit();
+            data.budgetFallbackModel = settings.getBudgetFallbackModel();
+            return data;
+        }
+    }
+
+    /**
+     * 配置保存或被外部修改重新加载后发布
+     */
+    public static class AiConfigChangedEvent extends ApplicationEvent {
+        public AiConfigChangedEvent(AiConfig source) {
+            super(source);
+        }
     }
 }
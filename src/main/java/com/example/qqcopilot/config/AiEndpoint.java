@@ -0,0 +1,50 @@
+package com.example.qqcopilot.config;
+
+/**
+ * 一个 AI 接口地址 (OpenAI 兼容)，不可变，可以直接放进配置快照
+ * 模型为空时沿用主配置的模型
+ */
+public final class AiEndpoint {
+    private final String apiUrl;
+    private final String apiKey;
+    private final String model;
+
+    // 供 Gson 反序列化使用
+    private AiEndpoint() {
+        this(null, null, null);
+    }
+
+    public AiEndpoint(String apiUrl, String apiKey, String model) {
+        this.apiUrl = apiUrl;
+        this.apiKey = apiKey;
+        this.model = model;
+    }
+
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public boolean isConfigured() {
+        return apiUrl != null && !apiUrl.isBlank() && apiKey != null && !apiKey.isBlank();
+    }
+
+    /**
+     * 熔断和延迟统计使用的标识
+     */
+    public String id() {
+        return apiUrl + "|" + (model != null ? model : "");
+    }
+
+    @Override
+    public String toString() {
+        return model != null && !model.isBlank() ? apiUrl + " (" + model + ")" : apiUrl;
+    }
+}
@@ -0,0 +1,515 @@
+package com.example.qqcopilot.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * AI 配置快照 (不可变)
+ * AiConfig 通过原子引用发布当前快照，读取配置只需一次 volatile 读；
+ * 修改时基于旧快照构建新快照整体替换，读线程不会看到改了一半的配置
+ * 需要同时读多个配置项时先取 {@link AiConfig#snapshot()}，保证这些值来自同一版本
+ */
+public final class AiSettings {
+
+    static final int DEFAULT_CONTEXT_WINDOW = 8192;
+    static final int DEFAULT_RESERVED_OUTPUT_TOKENS = 1024;
+
+    // 常见模型的上下文窗口 (token)，按模型名前缀匹配，取最长的前缀
+    private static final Map<String, Integer> DEFAULT_CONTEXT_WINDOWS = new LinkedHashMap<>();
+    static {
+        DEFAULT_CONTEXT_WINDOWS.put("gpt-3.5", 16385);
+        DEFAULT_CONTEXT_WINDOWS.put("gpt-4", 8192);
+        DEFAULT_CONTEXT_WINDOWS.put("gpt-4-turbo", 128000);
+        DEFAULT_CONTEXT_WINDOWS.put("gpt-4o", 128000);
+        DEFAULT_CONTEXT_WINDOWS.put("gpt-4.1", 1000000);
+        DEFAULT_CONTEXT_WINDOWS.put("o1", 200000);
+        DEFAULT_CONTEXT_WINDOWS.put("o3", 200000);
+        DEFAULT_CONTEXT_WINDOWS.put("claude", 200000);
+        DEFAULT_CONTEXT_WINDOWS.put("gemini", 1000000);
+        DEFAULT_CONTEXT_WINDOWS.put("deepseek", 64000);
+        DEFAULT_CONTEXT_WINDOWS.put("qwen", 32768);
+        DEFAULT_CONTEXT_WINDOWS.put("glm", 128000);
+        DEFAULT_CONTEXT_WINDOWS.put("moonshot", 128000);
+    }
+
+    /**
+     * 全部为默认值的快照
+     */
+    public static final AiSettings DEFAULTS = new Builder().build();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final String apiUrl;
+    private final String apiKey;
+    private final String model;
+    private final long rateLimitMs;
+    private final int rateLimitBurst;
+    private final String systemPrompt;
+    // 用户自定义的模型上下文窗口，覆盖内置默认值
+    private final Map<String, Integer> contextWindows;
+    private final int reservedOutputTokens;
+    // 分析结果缓存
+    private final int cacheMaxEntries;
+    private final long cacheTtlMinutes;
+    private final boolean cachePersistent;
+    // 长聊天记录滚动摘要
+    private final boolean summaryEnabled;
+    private final int recentTailTokens;
+    private final int summaryChunkTokens;
+    private final int summaryMaxTokens;
+    // 预分析: 监听中的聊天有新消息时自动在后台分析
+    private final boolean speculativeEnabled;
+    private final long speculativeDebounceMs;
+    // 聊天记录界面每秒最多刷新几次，消息再多也合并到一次刷新
+    private final int uiMaxUpdatesPerSecond;
+    // 备用接口 (按顺序故障转移)、对冲请求和熔断
+    private final List<AiEndpoint> fallbackEndpoints;
+    private final boolean hedgingEnabled;
+    private final long hedgeMinDelayMs;
+    private final int circuitFailureThreshold;
+    private final long circuitOpenSeconds;
+    // 批量分析同时进行的聊天数 (仍受全局限流约束)
+    private final int batchParallelism;
+    // 按相关性挑选上下文: 预算中留给最近消息的比例，其余按与最新消息的相关性挑选更早的消息
+    private final boolean relevanceSelectionEnabled;
+    private final double recentContextRatio;
+    // 每日用量上限 (0 表示不限)，超出后改用降级模型；没有降级模型则停止新的 AI 请求
+    private final long dailyTokenLimit;
+    private final long dailyRequestLimit;
+    private final String budgetFallbackModel;
+
+    private AiSettings(Builder b) {
+        this.apiUrl = b.apiUrl;
+        this.apiKey = b.apiKey;
+        this.model = b.model;
+        this.rateLimitMs = b.rateLimitMs;
+        this.rateLimitBurst = b.rateLimitBurst;
+        this.systemPrompt = b.systemPrompt;
+        this.contextWindows = Collections.unmodifiableMap(new LinkedHashMap<>(b.contextWindows));
+        this.reservedOutputTokens = b.reservedOutputTokens;
+        this.cacheMaxEntries = b.cacheMaxEntries;
+        this.cacheTtlMinutes = b.cacheTtlMinutes;
+        this.cachePersistent = b.cachePersistent;
+        this.summaryEnabled = b.summaryEnabled;
+        this.recentTailTokens = b.recentTailTokens;
+        this.summaryChunkTokens = b.summaryChunkTokens;
+        this.summaryMaxTokens = b.summaryMaxTokens;
+        this.speculativeEnabled = b.speculativeEnabled;
+        this.speculativeDebounceMs = b.speculativeDebounceMs;
+        this.uiMaxUpdatesPerSecond = b.uiMaxUpdatesPerSecond;
+        this.fallbackEndpoints = Collections.unmodifiableList(new ArrayList<>(b.fallbackEndpoints));
+        this.hedgingEnabled = b.hedgingEnabled;
+        this.hedgeMinDelayMs = b.hedgeMinDelayMs;
+        this.circuitFailureThreshold = b.circuitFailureThreshold;
+        this.circuitOpenSeconds = b.circuitOpenSeconds;
+        this.batchParallelism = b.batchParallelism;
+        this.relevanceSelectionEnabled = b.relevanceSelectionEnabled;
+        this.recentContextRatio = b.recentContextRatio;
+        this.dailyTokenLimit = b.dailyTokenLimit;
+        this.dailyRequestLimit = b.dailyRequestLimit;
+        this.budgetFallbackModel = b.budgetFallbackModel;
+    }
+
+    /**
+     * 以当前快照为基础构建新快照
+     */
+    public Builder toBuilder() {
+        Builder b = new Builder();
+        b.apiUrl = apiUrl;
+        b.apiKey = apiKey;
+        b.model = model;
+        b.rateLimitMs = rateLimitMs;
+        b.rateLimitBurst = rateLimitBurst;
+        b.systemPrompt = systemPrompt;
+        b.contextWindows = new LinkedHashMap<>(contextWindows);
+        b.reservedOutputTokens = reservedOutputTokens;
+        b.cacheMaxEntries = cacheMaxEntries;
+        b.cacheTtlMinutes = cacheTtlMinutes;
+        b.cachePersistent = cachePersistent;
+        b.summaryEnabled = summaryEnabled;
+        b.recentTailTokens = recentTailTokens;
+        b.summaryChunkTokens = summaryChunkTokens;
+        b.summaryMaxTokens = summaryMaxTokens;
+        b.speculativeEnabled = speculativeEnabled;
+        b.speculativeDebounceMs = speculativeDebounceMs;
+        b.uiMaxUpdatesPerSecond = uiMaxUpdatesPerSecond;
+        b.fallbackEndpoints = new ArrayList<>(fallbackEndpoints);
+        b.hedgingEnabled = hedgingEnabled;
+        b.hedgeMinDelayMs = hedgeMinDelayMs;
+        b.circuitFailureThreshold = circuitFailureThreshold;
+        b.circuitOpenSeconds = circuitOpenSeconds;
+        b.batchParallelism = batchParallelism;
+        b.relevanceSelectionEnabled = relevanceSelectionEnabled;
+        b.recentContextRatio = recentContextRatio;
+        b.dailyTokenLimit = dailyTokenLimit;
+        b.dailyRequestLimit = dailyRequestLimit;
+        b.budgetFallbackModel = budgetFallbackModel;
+        return b;
+    }
+
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public long getRateLimitMs() {
+        return rateLimitMs;
+    }
+
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public String getSystemPrompt() {
+        return systemPrompt;
+    }
+
+    public Map<String, Integer> getContextWindows() {
+        return contextWindows;
+    }
+
+    public int getReservedOutputTokens() {
+        return reservedOutputTokens;
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public long getCacheTtlMinutes() {
+        return cacheTtlMinutes;
+    }
+
+    public boolean isCachePersistent() {
+        return cachePersistent;
+    }
+
+    public boolean isSummaryEnabled() {
+        return summaryEnabled;
+    }
+
+    public int getRecentTailTokens() {
+        return recentTailTokens;
+    }
+
+    public int getSummaryChunkTokens() {
+        return summaryChunkTokens;
+    }
+
+    public int getSummaryMaxTokens() {
+        return summaryMaxTokens;
+    }
+
+    public boolean isSpeculativeEnabled() {
+        return speculativeEnabled;
+    }
+
+    public long getSpeculativeDebounceMs() {
+        return speculativeDebounceMs;
+    }
+
+    public int getUiMaxUpdatesPerSecond() {
+        return uiMaxUpdatesPerSecond;
+    }
+
+    public List<AiEndpoint> getFallbackEndpoints() {
+        return fallbackEndpoints;
+    }
+
+    public boolean isHedgingEnabled() {
+        return hedgingEnabled;
+    }
+
+    public long getHedgeMinDelayMs() {
+        return hedgeMinDelayMs;
+    }
+
+    public int getCircuitFailureThreshold() {
+        return circuitFailureThreshold;
+    }
+
+    public long getCircuitOpenSeconds() {
+        return circuitOpenSeconds;
+    }
+
+    public int getBatchParallelism() {
+        return batchParallelism;
+    }
+
+    public boolean isRelevanceSelectionEnabled() {
+        return relevanceSelectionEnabled;
+    }
+
+    public double getRecentContextRatio() {
+        return recentContextRatio;
+    }
+
+    public long getDailyTokenLimit() {
+        return dailyTokenLimit;
+    }
+
+    public long getDailyRequestLimit() {
+        return dailyRequestLimit;
+    }
+
+    public String getBudgetFallbackModel() {
+        return budgetFallbackModel;
+    }
+
+    /**
+     * 按优先顺序返回所有可用接口: 主接口在前，之后是备用接口
+     */
+    public List<AiEndpoint> getEndpoints() {
+        List<AiEndpoint> endpoints = new ArrayList<>();
+        // 主接口不指定模型，使用调用方请求的模型
+        AiEndpoint primary = new AiEndpoint(apiUrl, apiKey, null);
+        if (primary.isConfigured()) {
+            endpoints.add(primary);
+        }
+        for (AiEndpoint endpoint : fallbackEndpoints) {
+            if (endpoint != null && endpoint.isConfigured()) {
+                endpoints.add(endpoint);
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * 获取模型的上下文窗口大小 (token)
+     * 先查用户配置，再查内置表，都按最长前缀匹配；"厂商/模型" 形式的名字只看斜杠后面部分
+     */
+    public int getContextWindow(String modelName) {
+        if (modelName == null || modelName.isBlank()) {
+            return DEFAULT_CONTEXT_WINDOW;
+        }
+        String name = modelName.trim().toLowerCase(Locale.ROOT);
+        int slash = name.lastIndexOf('/');
+        if (slash >= 0) {
+            name = name.substring(slash + 1);
+        }
+        Integer window = matchLongestPrefix(contextWindows, name);
+        if (window == null) {
+            window = matchLongestPrefix(DEFAULT_CONTEXT_WINDOWS, name);
+        }
+        return window != null && window > 0 ? window : DEFAULT_CONTEXT_WINDOW;
+    }
+
+    private static Integer matchLongestPrefix(Map<String, Integer> windows, String name) {
+        Integer best = null;
+        int bestLength = -1;
+        for (Map.Entry<String, Integer> entry : windows.entrySet()) {
+            String prefix = entry.getKey().toLowerCase(Locale.ROOT);
+            if (name.startsWith(prefix) && prefix.length() > bestLength) {
+                best = entry.getValue();
+                bestLength = prefix.length();
+            }
+        }
+        return best;
+    }
+
+    public boolean isConfigured() {
+        return apiUrl != null && !apiUrl.isBlank()
+                && apiKey != null && !apiKey.isBlank()
+                && model != null && !model.isBlank();
+    }
+
+    /**
+     * 快照构建器，未设置的项为默认值
+     */
+    public static final class Builder {
+        private String apiUrl = "";
+        private String apiKey = "";
+        private String model = "";
+        private long rateLimitMs = 2000;
+        private int rateLimitBurst = 1;
+        private String systemPrompt = "";
+        private Map<String, Integer> contextWindows = new LinkedHashMap<>();
+        private int reservedOutputTokens = DEFAULT_RESERVED_OUTPUT_TOKENS;
+        private int cacheMaxEntries = 64;
+        private long cacheTtlMinutes = 30;
+        private boolean cachePersistent = false;
+        private boolean summaryEnabled = true;
+        private int recentTailTokens = 1500;
+        private int summaryChunkTokens = 1200;
+        private int summaryMaxTokens = 400;
+        private boolean speculativeEnabled = false;
+        private long speculativeDebounceMs = 1500;
+        private int uiMaxUpdatesPerSecond = 30;
+        private List<AiEndpoint> fallbackEndpoints = new ArrayList<>();
+        private boolean hedgingEnabled = true;
+        private long hedgeMinDelayMs = 2000;
+        private int circuitFailureThreshold = 3;
+        private long circuitOpenSeconds = 30;
+        private int batchParallelism = 4;
+        private boolean relevanceSelectionEnabled = true;
+        private double recentContextRatio = 0.6;
+        private long dailyTokenLimit = 0;
+        private long dailyRequestLimit = 0;
+        private String budgetFallbackModel = "";
+
+        private Builder() {
+        }
+
+        public Builder apiUrl(String apiUrl) {
+            this.apiUrl = apiUrl != null ? apiUrl : "";
+            return this;
+        }
+
+        public Builder apiKey(String apiKey) {
+            this.apiKey = apiKey != null ? apiKey : "";
+            return this;
+        }
+
+        public Builder model(String model) {
+            this.model = model != null ? model : "";
+            return this;
+        }
+
+        public Builder rateLimitMs(long rateLimitMs) {
+            this.rateLimitMs = rateLimitMs;
+            return this;
+        }
+
+        public Builder rateLimitBurst(int rateLimitBurst) {
+            this.rateLimitBurst = rateLimitBurst;
+            return this;
+        }
+
+        public Builder systemPrompt(String systemPrompt) {
+            this.systemPrompt = systemPrompt != null ? systemPrompt : "";
+            return this;
+        }
+
+        public Builder contextWindows(Map<String, Integer> contextWindows) {
+            this.contextWindows = contextWindows != null ? new LinkedHashMap<>(contextWindows) : new LinkedHashMap<>();
+            return this;
+        }
+
+        public Builder reservedOutputTokens(int reservedOutputTokens) {
+            this.reservedOutputTokens = reservedOutputTokens;
+            return this;
+        }
+
+        public Builder cacheMaxEntries(int cacheMaxEntries) {
+            this.cacheMaxEntries = cacheMaxEntries;
+            return this;
+        }
+
+        public Builder cacheTtlMinutes(long cacheTtlMinutes) {
+            this.cacheTtlMinutes = cacheTtlMinutes;
+            return this;
+        }
+
+        public Builder cachePersistent(boolean cachePersistent) {
+            this.cachePersistent = cachePersistent;
+            return this;
+        }
+
+        public Builder summaryEnabled(boolean summaryEnabled) {
+            this.summaryEnabled = summaryEnabled;
+            return this;
+        }
+
+        public Builder recentTailTokens(int recentTailTokens) {
+            this.recentTailTokens = recentTailTokens;
+            return this;
+        }
+
+        public Builder summaryChunkTokens(int summaryChunkTokens) {
+            this.summaryChunkTokens = summaryChunkTokens;
+            return this;
+        }
+
+        public Builder summaryMaxTokens(int summaryMaxTokens) {
+            this.summaryMaxTokens = summaryMaxTokens;
+            return this;
+        }
+
+        public Builder speculativeEnabled(boolean speculativeEnabled) {
+            this.speculativeEnabled = speculativeEnabled;
+            return this;
+        }
+
+        public Builder speculativeDebounceMs(long speculativeDebounceMs) {
+            this.speculativeDebounceMs = speculativeDebounceMs;
+            return this;
+        }
+
+        public Builder uiMaxUpdatesPerSecond(int uiMaxUpdatesPerSecond) {
+            this.uiMaxUpdatesPerSecond = uiMaxUpdatesPerSecond;
+            return this;
+        }
+
+        public Builder fallbackEndpoints(List<AiEndpoint> fallbackEndpoints) {
+            this.fallbackEndpoints = fallbackEndpoints != null ? new ArrayList<>(fallbackEndpoints) : new ArrayList<>();
+            return this;
+        }
+
+        public Builder hedgingEnabled(boolean hedgingEnabled) {
+            this.hedgingEnabled = hedgingEnabled;
+            return this;
+        }
+
+        public Builder hedgeMinDelayMs(long hedgeMinDelayMs) {
+            this.hedgeMinDelayMs = hedgeMinDelayMs;
+            return this;
+        }
+
+        public Builder circuitFailureThreshold(int circuitFailureThreshold) {
+            this.circuitFailureThreshold = circuitFailureThreshold;
+            return this;
+        }
+
+        public Builder circuitOpenSeconds(long circuitOpenSeconds) {
+            this.circuitOpenSeconds = circuitOpenSeconds;
+            return this;
+        }
+
+        public Builder batchParallelism(int batchParallelism) {
+            this.batchParallelism = batchParallelism;
+            return this;
+        }
+
+        public Builder relevanceSelectionEnabled(boolean relevanceSelectionEnabled) {
+            this.relevanceSelectionEnabled = relevanceSelectionEnabled;
+            return this;
+        }
+
+        public Builder recentContextRatio(double recentContextRatio) {
+            this.recentContextRatio = recentContextRatio;
+            return this;
+        }
+
+        public Builder dailyTokenLimit(long dailyTokenLimit) {
+            this.dailyTokenLimit = dailyTokenLimit;
+            return this;
+        }
+
+        public Builder dailyRequestLimit(long dailyRequestLimit) {
+            this.dailyRequestLimit = dailyRequestLimit;
+            return this;
+        }
+
+        public Builder budgetFallbackModel(String budgetFallbackModel) {
+            this.budgetFallbackModel = budgetFallbackModel != null ? budgetFallbackModel : "";
+            return this;
+        }
+
+        public AiSettings build() {
+            return new AiSettings(this);
+        }
+    }
+}
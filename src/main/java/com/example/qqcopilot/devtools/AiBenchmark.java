@@ -0,0 +1,331 @@
+package com.example.qqcopilot.devtools;
+
+import com.example.qqcopilot.config.AiConfig;
+import com.example.qqcopilot.config.AiEndpoint;
+import com.example.qqcopilot.config.HttpClientConfig;
+import com.example.qqcopilot.model.AnalysisResult;
+import com.example.qqcopilot.service.AiAnalysisService;
+import com.example.qqcopilot.service.AiClient;
+import com.example.qqcopilot.service.AiMetrics;
+import com.example.qqcopilot.service.AiRequestScheduler;
+import com.example.qqcopilot.service.AiResponseCache;
+import com.example.qqcopilot.service.BotRegistry;
+import com.example.qqcopilot.service.ChatSummaryService;
+import com.example.qqcopilot.service.ContextSelector;
+import com.example.qqcopilot.service.GroupMemoryService;
+import com.example.qqcopilot.service.MessageSanitizer;
+import com.example.qqcopilot.service.ModelFetchService;
+import com.example.qqcopilot.service.TokenEstimator;
+import com.example.qqcopilot.service.Tracer;
+import com.example.qqcopilot.service.UsageStore;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI 调用链路基准测试 (无需网络和真实 AI 接口)
+ * 启动 {@link MockAiServer}，直接组装服务对象 (不启动 Spring 和 Bot)，依次测量:
+ * - 拉取模型列表
+ * - 客户端自身开销 (服务端零延迟时的往返耗时)
+ * - 不同并发下的吞吐和延迟分位数
+ * - 经过调度器、限流和上下文裁剪的完整分析链路
+ * - 错误注入下的故障转移
+ * - 卡住的请求被取消后多快释放
+ * - 流式响应的首 token 延迟和输出速度
+ *
+ * 运行: java -cp app.jar com.example.qqcopilot.devtools.AiBenchmark
+ * 配置目录指向临时目录，不会改动 ~/.qqcopilot 下的配置和用量记录
+ */
+public class AiBenchmark {
+
+    private final MockAiServer primary;
+    private final MockAiServer backup;
+    private final AiConfig aiConfig;
+    private final AiMetrics metrics;
+    private final OkHttpClient httpClient;
+    private final AiClient aiClient;
+    private final AiRequestScheduler scheduler;
+    private final GroupMemoryService groupMemoryService;
+    private final AiAnalysisService analysisService;
+    private final ModelFetchService modelFetchService;
+
+    private AiBenchmark() throws Exception {
+        primary = new MockAiServer(0).start();
+        backup = new MockAiServer(0).start();
+
+        aiConfig = new AiConfig(event -> { });
+        aiConfig.update(b -> b
+                .apiUrl(primary.getBaseUrl())
+                .apiKey("mock")
+                .model("mock-fast")
+                .rateLimitMs(0)
+                .summaryEnabled(false)
+                .hedgingEnabled(false));
+
+        metrics = new AiMetrics();
+        TokenEstimator tokenEstimator = new TokenEstimator();
+        UsageStore usageStore = new UsageStore(aiConfig);
+        httpClient = new HttpClientConfig().okHttpClient();
+        aiClient = new AiClient(aiConfig, metrics, usageStore, tokenEstimator, httpClient);
+        scheduler = new AiRequestScheduler(aiConfig, metrics);
+        scheduler.start();
+        Tracer tracer = new Tracer();
+        groupMemoryService = new GroupMemoryService(new MessageSanitizer(), event -> { }, new BotRegistry(), tracer);
+        ChatSummaryService summaryService = new ChatSummaryService(aiConfig, aiClient, scheduler, tokenEstimator,
+                groupMemoryService, usageStore);
+        analysisService = new AiAnalysisService(aiConfig, aiClient, scheduler, new AiResponseCache(aiConfig),
+                summaryService, tokenEstimator, metrics, groupMemoryService, new ContextSelector(tokenEstimator),
+                usageStore, tracer);
+        modelFetchService = new ModelFetchService(httpClient);
+    }
+
+    public static void main(String[] args) throws Exception {
+        // 必须在加载 AiConfig 之前设置，CONFIG_DIR 在类初始化时确定
+        Path home = Files.createTempDirectory("qqcopilot-bench");
+        System.setProperty("user.home", home.toString());
+
+        AiBenchmark benchmark = new AiBenchmark();
+        try {
+            benchmark.run();
+        } finally {
+            benchmark.close();
+        }
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        benchModels();
+        benchClientOverhead();
+        benchConcurrency();
+        benchAnalysisPipeline();
+        benchFailover();
+        benchCancellation();
+        benchStreaming();
+        System.out.println();
+        System.out.println("AiMetrics: " + metrics);
+    }
+
+    private void close() {
+        scheduler.stop();
+        primary.stop();
+        backup.stop();
+    }
+
+    private void benchModels() {
+        section("拉取模型列表");
+        long start = System.nanoTime();
+        List<String> models = modelFetchService.fetchModels(primary.getBaseUrl(), "mock");
+        System.out.printf("获取 %d 个模型, %d ms%n", models.size(), elapsedMs(start));
+    }
+
+    /**
+     * 服务端不做任何等待，客户端测得的耗时几乎都是自身开销 (序列化、连接池、解析)
+     */
+    private void benchClientOverhead() throws Exception {
+        section("客户端开销 (服务端零延迟)");
+        primary.setTtftMs(0).setTokensPerSecond(0);
+        for (int i = 0; i < 20; i++) {
+            aiClient.complete(null, "mock-fast", "system", "warm up " + i);
+        }
+        primary.resetStats();
+        List<Long> latencies = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            long start = System.nanoTime();
+            aiClient.complete(null, "mock-fast", "system", "hello " + i);
+            latencies.add(elapsedMicros(start));
+        }
+        System.out.printf("300 次串行请求: p50 %.2f ms, p95 %.2f ms, p99 %.2f ms (服务端平均 %d ms)%n",
+                percentile(latencies, 50) / 1000.0, percentile(latencies, 95) / 1000.0,
+                percentile(latencies, 99) / 1000.0, primary.getAvgServerTimeMs());
+    }
+
+    /**
+     * 固定首 token 延迟和输出速度，观察并发提高时吞吐是否线性增长
+     */
+    private void benchConcurrency() throws Exception {
+        section("并发吞吐 (首 token 300 ms, 100 token/s)");
+        primary.setTtftMs(300).setTokensPerSecond(100);
+        int total = 64;
+        for (int concurrency : new int[]{1, 4, 16, 32}) {
+            primary.resetStats();
+            Semaphore permits = new Semaphore(concurrency);
+            List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < total; i++) {
+                permits.acquire();
+                long requestStart = System.nanoTime();
+                CompletableFuture<String> future = aiClient.completeAsync(null, "mock-fast", "system", "req " + i);
+                future.whenComplete((content, ex) -> {
+                    latencies.add(elapsedMs(requestStart));
+                    permits.release();
+                });
+                futures.add(future);
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            long elapsed = elapsedMs(start);
+            System.out.printf("并发 %2d: %d 个请求 %5d ms, %.1f req/s, p50 %d ms, p95 %d ms, 服务端最大并发 %d%n",
+                    concurrency, total, elapsed, total * 1000.0 / elapsed,
+                    percentile(latencies, 50), percentile(latencies, 95), primary.getMaxConcurrent());
+        }
+    }
+
+    /**
+     * 经过缓存、调度器 (在途上限)、上下文选择和结果解析的完整链路
+     */
+    private void benchAnalysisPipeline() {
+        section("完整分析链路 (32 个聊天, 不限流)");
+        primary.setTtftMs(300).setTokensPerSecond(100).setEcho(true);
+        List<String> chatKeys = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            String chatKey = GroupMemoryService.groupKey(String.valueOf(100000 + i));
+            List<String> history = new ArrayList<>();
+            for (int j = 0; j < 99; j++) {
+                history.add("[成员" + (j % 7) + "]: 第 " + j + " 条消息，今天聊点什么好呢");
+            }
+            groupMemoryService.mergeExternalHistory(chatKey, history);
+            chatKeys.add(chatKey);
+        }
+
+        long start = System.nanoTime();
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<AnalysisResult>> futures = new ArrayList<>();
+        for (String chatKey : chatKeys) {
+            futures.add(analysisService.submitAnalysis(chatKey, groupMemoryService.getHistory(chatKey),
+                    AiRequestScheduler.Priority.USER, true).whenComplete((result, ex) -> {
+                        if (result != null) {
+                            latencies.add(result.getQueueWaitMs() + result.getLatencyMs());
+                        }
+                    }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(ex -> null).join();
+        long elapsed = elapsedMs(start);
+        System.out.printf("%d 个分析 %d ms, %.1f 个/s, 排队+响应 p50 %d ms, p95 %d ms%n",
+                latencies.size(), elapsed, latencies.size() * 1000.0 / elapsed,
+                percentile(latencies, 50), percentile(latencies, 95));
+        primary.setEcho(false);
+    }
+
+    /**
+     * 主接口一半请求失败，备用接口正常
+     */
+    private void benchFailover() {
+        section("故障转移 (主接口 50% 返回 500)");
+        primary.setTtftMs(50).setTokensPerSecond(0).setErrorRate(0.5);
+        backup.setTtftMs(50).setTokensPerSecond(0);
+        aiConfig.update(b -> b.fallbackEndpoints(List.of(new AiEndpoint(backup.getBaseUrl(), "mock", null))));
+        primary.resetStats();
+        backup.resetStats();
+        long failoversBefore = metrics.getFailovers();
+
+        int total = 50;
+        int succeeded = 0;
+        for (int i = 0; i < total; i++) {
+            try {
+                aiClient.complete(null, "mock-fast", "system", "failover " + i);
+                succeeded++;
+            } catch (Exception e) {
+                // 计入失败
+            }
+        }
+        System.out.printf("成功 %d/%d, 故障转移 %d 次, 主接口收到 %d 个 (注入错误 %d), 备用接口收到 %d 个%n",
+                succeeded, total, metrics.getFailovers() - failoversBefore,
+                primary.getRequests(), primary.getInjectedErrors(), backup.getRequests());
+        primary.setErrorRate(0);
+        aiConfig.update(b -> b.fallbackEndpoints(List.of()));
+    }
+
+    /**
+     * 服务端卡住不响应，取消后 future 应立即结束并断开连接
+     */
+    private void benchCancellation() throws Exception {
+        section("取消卡住的请求");
+        primary.setTtftMs(0).setStall(1.0, 60_000);
+        List<Long> releaseMs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<String> future = aiClient.completeAsync(null, "mock-fast", "system", "stall " + i);
+            TimeUnit.MILLISECONDS.sleep(200);
+            long start = System.nanoTime();
+            future.cancel(true);
+            try {
+                future.join();
+            } catch (Exception e) {
+                // 预期: 已取消
+            }
+            releaseMs.add(elapsedMicros(start));
+        }
+        System.out.printf("取消后释放耗时: p50 %.2f ms, 最大 %.2f ms (服务端卡住 60 s)%n",
+                percentile(releaseMs, 50) / 1000.0, Collections.max(releaseMs) / 1000.0);
+        primary.setStall(0, 0);
+    }
+
+    /**
+     * 流式响应: 客户端观测到的首 token 延迟和输出速度
+     */
+    private void benchStreaming() throws Exception {
+        section("流式响应 (首 token 300 ms, 50 token/s)");
+        primary.setTtftMs(300).setTokensPerSecond(50);
+        String body = "{\"model\":\"mock-fast\",\"stream\":true,\"messages\":[{\"role\":\"user\",\"content\":\"hi\"}]}";
+        Request request = new Request.Builder()
+                .url(primary.getBaseUrl() + "/chat/completions")
+                .post(RequestBody.create(body, MediaType.get("application/json")))
+                .build();
+        long start = System.nanoTime();
+        long firstTokenMs = -1;
+        int chunks = 0;
+        try (Response response = httpClient.newCall(request).execute()) {
+            BufferedSource source = response.body().source();
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                if (!line.startsWith("data: ") || line.contains("[DONE]")) {
+                    continue;
+                }
+                if (line.contains("\"delta\"")) {
+                    if (firstTokenMs < 0) {
+                        firstTokenMs = elapsedMs(start);
+                    }
+                    chunks++;
+                }
+            }
+        }
+        long totalMs = elapsedMs(start);
+        double tokensPerSecond = totalMs > firstTokenMs ? (chunks - 1) * 1000.0 / (totalMs - firstTokenMs) : 0;
+        System.out.printf("首 token %d ms, 共 %d 个 chunk, 总耗时 %d ms, %.1f token/s%n",
+                firstTokenMs, chunks, totalMs, tokensPerSecond);
+    }
+
+    private static void section(String title) {
+        System.out.println();
+        System.out.println("== " + title + " ==");
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static long elapsedMicros(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
+    private static long percentile(List<Long> values, double percentile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+}
@@ -0,0 +1,375 @@
+package com.example.qqcopilot.devtools;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地 OpenAI 兼容模拟服务，用于离线调试和压测 AI 调用链路
+ * 实现 GET /v1/models 和 POST /v1/chat/completions (支持 stream)
+ * 可配置: 首 token 延迟、输出速度、错误注入、卡住不响应 (超时测试)、固定回复或回显
+ *
+ * 单独运行: java -cp app.jar com.example.qqcopilot.devtools.MockAiServer --port=7861 --ttft=300 --tps=40 --error-rate=0.1 --echo
+ * 然后把 API 地址设为 http://127.0.0.1:7861/v1 即可
+ */
+public class MockAiServer {
+
+    private static final Logger log = LoggerFactory.getLogger(MockAiServer.class);
+
+    private static final String DEFAULT_REPLY = "[\"哈哈哈确实\", \"这个我熟，展开说说\", \"你们聊，我先潜水了\"]";
+
+    private final Gson gson = new Gson();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // 行为参数，运行中可随时修改
+    private volatile long ttftMs = 200;
+    private volatile double tokensPerSecond = 50;
+    private volatile double errorRate = 0;
+    private volatile int errorStatus = 500;
+    private volatile double stallRate = 0;
+    private volatile long stallMs = 600_000;
+    private volatile boolean echo = false;
+    private volatile String cannedReply = DEFAULT_REPLY;
+    private volatile List<String> models = List.of("mock-fast", "mock-slow", "mock-echo");
+
+    // 统计
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong serverTimeNanos = new AtomicLong();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    /**
+     * @param port 0 表示随机端口
+     */
+    public MockAiServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        AtomicInteger index = new AtomicInteger();
+        // 每个请求会 sleep 模拟生成耗时，需要足够多的线程
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "mock-ai-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/v1/models", this::handleModels);
+        server.createContext("/v1/chat/completions", this::handleCompletions);
+    }
+
+    public MockAiServer start() {
+        server.start();
+        log.info("Mock AI 服务已启动: {}", getBaseUrl());
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * 供客户端使用的 API 地址，如 http://127.0.0.1:7861/v1
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+    }
+
+    private void handleModels(HttpExchange exchange) throws IOException {
+        JsonArray data = new JsonArray();
+        for (String model : models) {
+            JsonObject item = new JsonObject();
+            item.addProperty("id", model);
+            item.addProperty("object", "model");
+            data.add(item);
+        }
+        JsonObject root = new JsonObject();
+        root.addProperty("object", "list");
+        root.add("data", data);
+        sendJson(exchange, 200, gson.toJson(root));
+    }
+
+    private void handleCompletions(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        requests.incrementAndGet();
+        maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+        try {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                // 连接预热
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            JsonObject request = JsonParser.parseString(
+                    new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+            String model = request.has("model") ? request.get("model").getAsString() : "mock";
+            boolean stream = request.has("stream") && request.get("stream").getAsBoolean();
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < stallRate) {
+                // 卡住不响应，测试客户端超时和取消
+                TimeUnit.MILLISECONDS.sleep(stallMs);
+            }
+            if (random.nextDouble() < errorRate) {
+                injectedErrors.incrementAndGet();
+                TimeUnit.MILLISECONDS.sleep(ttftMs);
+                sendJson(exchange, errorStatus, "{\"error\":{\"message\":\"injected error\",\"type\":\"mock\"}}");
+                return;
+            }
+
+            String reply = echo ? echoReply(request) : cannedReply;
+            List<String> chunks = chunk(reply);
+            int promptTokens = estimatePromptTokens(request);
+
+            TimeUnit.MILLISECONDS.sleep(ttftMs);
+            if (stream) {
+                streamReply(exchange, model, chunks, promptTokens);
+            } else {
+                TimeUnit.MILLISECONDS.sleep(generationMs(chunks.size()));
+                sendJson(exchange, 200, gson.toJson(completion(model, reply, promptTokens, chunks.size())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // 客户端取消或超时断开
+            log.debug("客户端断开: {}", e.getMessage());
+        } finally {
+            concurrent.decrementAndGet();
+            serverTimeNanos.addAndGet(System.nanoTime() - start);
+            exchange.close();
+        }
+    }
+
+    private void streamReply(HttpExchange exchange, String model, List<String> chunks, int promptTokens)
+            throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        long intervalMs = tokensPerSecond > 0 ? (long) (1000 / tokensPerSecond) : 0;
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int i = 0; i < chunks.size(); i++) {
+                if (i > 0 && intervalMs > 0) {
+                    TimeUnit.MILLISECONDS.sleep(intervalMs);
+                }
+                JsonObject delta = new JsonObject();
+                delta.addProperty("content", chunks.get(i));
+                JsonObject choice = new JsonObject();
+                choice.addProperty("index", 0);
+                choice.add("delta", delta);
+                JsonObject event = new JsonObject();
+                event.addProperty("object", "chat.completion.chunk");
+                event.addProperty("model", model);
+                JsonArray choices = new JsonArray();
+                choices.add(choice);
+                event.add("choices", choices);
+                writeEvent(out, gson.toJson(event));
+            }
+            JsonObject last = new JsonObject();
+            last.addProperty("object", "chat.completion.chunk");
+            last.add("choices", new JsonArray());
+            last.add("usage", usage(promptTokens, chunks.size()));
+            writeEvent(out, gson.toJson(last));
+            writeEvent(out, "[DONE]");
+        }
+    }
+
+    private static void writeEvent(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private JsonObject completion(String model, String reply, int promptTokens, int completionTokens) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        message.addProperty("content", reply);
+        JsonObject choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("message", message);
+        choice.addProperty("finish_reason", "stop");
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject root = new JsonObject();
+        root.addProperty("object", "chat.completion");
+        root.addProperty("model", model);
+        root.add("choices", choices);
+        root.add("usage", usage(promptTokens, completionTokens));
+        return root;
+    }
+
+    private static JsonObject usage(int promptTokens, int completionTokens) {
+        JsonObject usage = new JsonObject();
+        usage.addProperty("prompt_tokens", promptTokens);
+        usage.addProperty("completion_tokens", completionTokens);
+        usage.addProperty("total_tokens", promptTokens + completionTokens);
+        return usage;
+    }
+
+    /**
+     * 回显: 把最后一条用户消息的最后一行包装成 JSON 数组，分析结果可直接解析
+     */
+    private String echoReply(JsonObject request) {
+        String lastLine = "";
+        for (JsonElement element : request.getAsJsonArray("messages")) {
+            JsonObject message = element.getAsJsonObject();
+            if ("user".equals(message.get("role").getAsString())) {
+                String content = message.get("content").getAsString().trim();
+                lastLine = content.substring(content.lastIndexOf('\n') + 1);
+            }
+        }
+        JsonArray reply = new JsonArray();
+        reply.add("echo: " + lastLine);
+        return gson.toJson(reply);
+    }
+
+    /**
+     * 按每 2 个字符一个 token 切分回复 (流式输出的粒度)
+     */
+    private static List<String> chunk(String reply) {
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < reply.length(); i += 2) {
+            chunks.add(reply.substring(i, Math.min(reply.length(), i + 2)));
+        }
+        return chunks;
+    }
+
+    private static int estimatePromptTokens(JsonObject request) {
+        int chars = 0;
+        for (JsonElement element : request.getAsJsonArray("messages")) {
+            chars += element.getAsJsonObject().get("content").getAsString().length();
+        }
+        return Math.max(1, chars / 2);
+    }
+
+    private long generationMs(int tokens) {
+        return tokensPerSecond > 0 ? (long) (tokens * 1000 / tokensPerSecond) : 0;
+    }
+
+    private void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // ============ 行为参数 ============
+
+    public MockAiServer setTtftMs(long ttftMs) {
+        this.ttftMs = ttftMs;
+        return this;
+    }
+
+    public MockAiServer setTokensPerSecond(double tokensPerSecond) {
+        this.tokensPerSecond = tokensPerSecond;
+        return this;
+    }
+
+    public MockAiServer setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public MockAiServer setErrorStatus(int errorStatus) {
+        this.errorStatus = errorStatus;
+        return this;
+    }
+
+    /**
+     * @param stallRate 卡住不响应的概率
+     * @param stallMs 卡住的时长
+     */
+    public MockAiServer setStall(double stallRate, long stallMs) {
+        this.stallRate = stallRate;
+        this.stallMs = stallMs;
+        return this;
+    }
+
+    public MockAiServer setEcho(boolean echo) {
+        this.echo = echo;
+        return this;
+    }
+
+    public MockAiServer setCannedReply(String cannedReply) {
+        this.cannedReply = cannedReply;
+        return this;
+    }
+
+    public MockAiServer setModels(List<String> models) {
+        this.models = List.copyOf(models);
+        return this;
+    }
+
+    // ============ 统计 ============
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent.get();
+    }
+
+    /**
+     * 服务端处理 (含模拟的生成耗时) 的平均时间
+     */
+    public long getAvgServerTimeMs() {
+        long n = requests.get();
+        return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(serverTimeNanos.get() / n);
+    }
+
+    public void resetStats() {
+        requests.set(0);
+        injectedErrors.set(0);
+        serverTimeNanos.set(0);
+        maxConcurrent.set(concurrent.get());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 7861;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring(7));
+            }
+        }
+        MockAiServer mock = new MockAiServer(port);
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            switch (kv[0]) {
+                case "--ttft" -> mock.setTtftMs(Long.parseLong(kv[1]));
+                case "--tps" -> mock.setTokensPerSecond(Double.parseDouble(kv[1]));
+                case "--error-rate" -> mock.setErrorRate(Double.parseDouble(kv[1]));
+                case "--error-status" -> mock.setErrorStatus(Integer.parseInt(kv[1]));
+                case "--stall-rate" -> mock.setStall(Double.parseDouble(kv[1]), 600_000);
+                case "--echo" -> mock.setEcho(true);
+                case "--reply" -> mock.setCannedReply(kv[1]);
+                default -> {
+                }
+            }
+        }
+        mock.start();
+        System.out.println("Mock AI 服务: " + mock.getBaseUrl() + " (Ctrl+C 退出)");
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.qqcopilot.model;
+
+import java.util.List;
+
+/**
+ * 一次 AI 分析的结果及耗时
+ * 排队等待时间和 AI 接口耗时分开统计
+ */
+public class AnalysisResult {
+    private final List<String> suggestions;
+    private final long queueWaitMs;
+    private final long latencyMs;
+    private final boolean cached;
+
+    public AnalysisResult(List<String> suggestions, long queueWaitMs, long latencyMs) {
+        this(suggestions, queueWaitMs, latencyMs, false);
+    }
+
+    public AnalysisResult(List<String> suggestions, long queueWaitMs, long latencyMs, boolean cached) {
+        this.suggestions = suggestions;
+        this.queueWaitMs = queueWaitMs;
+        this.latencyMs = latencyMs;
+        this.cached = cached;
+    }
+
+    /**
+     * 命中缓存的结果
+     */
+    public static AnalysisResult fromCache(List<String> suggestions) {
+        return new AnalysisResult(suggestions, 0, 0, true);
+    }
+
+    public List<String> getSuggestions() {
+        return suggestions;
+    }
+
+    public long getQueueWaitMs() {
+        return queueWaitMs;
+    }
+
+    public long getLatencyMs() {
+        return latencyMs;
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    @Override
+    public String toString() {
+        if (cached) {
+            return "命中缓存";
+        }
+        return String.format("排队 %d ms, AI 响应 %d ms", queueWaitMs, latencyMs);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.qqcopilot.model;
+
+/**
+ * Bot 连接健康状况快照
+ * 由 BotConnectionMonitor 定期生成，用于界面显示和日志
+ */
+public class BotHealth {
+
+    public enum State {
+        CONNECTING("连接中"),
+        CONNECTED("已连接"),
+        DEGRADED("延迟较高"),
+        STALLED("疑似卡住"),
+        RECONNECTING("重连中"),
+        DISCONNECTED("已断开");
+
+        private final String label;
+
+        State(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final State state;
+    private final int botCount;
+    private final long rttMs;
+    private final long lagP50Ms;
+    private final long lagP95Ms;
+    private final String lagHistogram;
+    private final long eventsReceived;
+    private final long lastEventAgoMs;
+    private final long reconnects;
+    private final String detail;
+
+    public BotHealth(State state, int botCount, long rttMs, long lagP50Ms, long lagP95Ms, String lagHistogram,
+                     long eventsReceived, long lastEventAgoMs, long reconnects, String detail) {
+        this.state = state;
+        this.botCount = botCount;
+        this.rttMs = rttMs;
+        this.lagP50Ms = lagP50Ms;
+        this.lagP95Ms = lagP95Ms;
+        this.lagHistogram = lagHistogram;
+        this.eventsReceived = eventsReceived;
+        this.lastEventAgoMs = lastEventAgoMs;
+        this.reconnects = reconnects;
+        this.detail = detail;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getBotCount() {
+        return botCount;
+    }
+
+    /**
+     * NapCat 接口往返耗时，未知时为 -1
+     */
+    public long getRttMs() {
+        return rttMs;
+    }
+
+    /**
+     * 最近事件的延迟 (事件 time 到收到的时间)，没有事件时为 -1
+     */
+    public long getLagP50Ms() {
+        return lagP50Ms;
+    }
+
+    public long getLagP95Ms() {
+        return lagP95Ms;
+    }
+
+    /**
+     * 启动以来的事件延迟分布
+     */
+    public String getLagHistogram() {
+        return lagHistogram;
+    }
+
+    public long getEventsReceived() {
+        return eventsReceived;
+    }
+
+    /**
+     * 距上一个事件的时间，还没收到过事件时为 -1
+     */
+    public long getLastEventAgoMs() {
+        return lastEventAgoMs;
+    }
+
+    public long getReconnects() {
+        return reconnects;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    /**
+     * 状态栏显示的简短文字
+     */
+    public String toShortString() {
+        StringBuilder sb = new StringBuilder("Bot ").append(state.getLabel());
+        if (rttMs >= 0) {
+            sb.append(" · RTT ").append(rttMs).append(" ms");
+        }
+        if (lagP95Ms >= 0) {
+            sb.append(" · 事件延迟 p95 ").append(lagP95Ms / 1000).append(" s");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, Bot %d 个, RTT %d ms, 事件延迟 p50 %d ms / p95 %d ms, 事件 %d 个 (%s), 重连 %d 次%s",
+                state.getLabel(), botCount, rttMs, lagP50Ms, lagP95Ms, eventsReceived, lagHistogram, reconnects,
+                detail == null || detail.isEmpty() ? "" : ", " + detail);
+    }
+}
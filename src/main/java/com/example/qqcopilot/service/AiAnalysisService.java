@@ -1,11 +1,10 @@
 package com.example.qqcopilot.service;
 
 import com.example.qqcopilot.config.AiConfig;
-import com.google.gson.Gson;
+import com.example.qqcopilot.config.AiSettings;
+import com.example.qqcopilot.model.AnalysisResult;
 import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import okhttp3.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -13,59 +12,293 @@ import org.springframework.stereotype.Service;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class AiAnalysisService {
 
     private static final Logger log = LoggerFactory.getLogger(AiAnalysisService.class);
 
+    // 每条消息之间的换行及消息包装的额外开销
+    static final int PER_MESSAGE_OVERHEAD_TOKENS = 1;
+    private static final int PROMPT_OVERHEAD_TOKENS = 32;
+
+    static final String PARSE_ERROR_MESSAGE = "解析 AI 响应失败，请检查日志。";
+
     private final AiConfig aiConfig;
-    private final OkHttpClient client;
-    private final Gson gson;
-    private final AtomicLong lastRequestTime;
+    private final AiClient aiClient;
+    private final AiRequestScheduler scheduler;
+    private final AiResponseCache responseCache;
+    private final ChatSummaryService chatSummaryService;
+    private final TokenEstimator tokenEstimator;
+    private final AiMetrics metrics;
+    private final GroupMemoryService groupMemoryService;
+    private final ContextSelector contextSelector;
+    private final UsageStore usageStore;
+    private final Tracer tracer;
 
-    public AiAnalysisService(AiConfig aiConfig) {
+    public AiAnalysisService(AiConfig aiConfig, AiClient aiClient, AiRequestScheduler scheduler,
+                             AiResponseCache responseCache, ChatSummaryService chatSummaryService,
+                             TokenEstimator tokenEstimator, AiMetrics metrics,
+                             GroupMemoryService groupMemoryService, ContextSelector contextSelector,
+                             UsageStore usageStore, Tracer tracer) {
         this.aiConfig = aiConfig;
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(60, TimeUnit.SECONDS)
-                .readTimeout(180, TimeUnit.SECONDS)  // 3分钟读取超时，AI 可能需要较长时间
-                .writeTimeout(60, TimeUnit.SECONDS)
-                .build();
-        this.gson = new Gson();
-        this.lastRequestTime = new AtomicLong(0);
+        this.aiClient = aiClient;
+        this.scheduler = scheduler;
+        this.responseCache = responseCache;
+        this.chatSummaryService = chatSummaryService;
+        this.tokenEstimator = tokenEstimator;
+        this.metrics = metrics;
+        this.groupMemoryService = groupMemoryService;
+        this.contextSelector = contextSelector;
+        this.usageStore = usageStore;
+        this.tracer = tracer;
     }
 
-    public List<String> analyze(List<String> history) throws IOException {
-        // 检查配置
-        if (!aiConfig.isConfigured()) {
-            throw new IOException("请先在设置中配置 AI API");
+    /**
+     * 提交一次聊天分析 (经过缓存、排队和限流)
+     * @param chatKey 聊天Key (group_xxx 或 friend_xxx)，同一聊天排队中的请求会被合并
+     * @param history 聊天记录
+     * @param priority 优先级
+     * @param bypassCache true 时忽略缓存强制重新生成
+     */
+    public CompletableFuture<AnalysisResult> submitAnalysis(String chatKey, List<String> history,
+                                                            AiRequestScheduler.Priority priority,
+                                                            boolean bypassCache) {
+        return submitAnalysis(chatKey, history, priority, bypassCache, tracer.start(Tracer.ANALYSIS, chatKey));
+    }
+
+    /**
+     * 提交一次聊天分析，各阶段 (构建上下文、排队、HTTP、解析) 记录到调用方的 trace 中
+     * 调用方可以在结果显示后继续记录界面阶段
+     */
+    public CompletableFuture<AnalysisResult> submitAnalysis(String chatKey, List<String> history,
+                                                            AiRequestScheduler.Priority priority,
+                                                            boolean bypassCache, Tracer.Trace trace) {
+        return submitAnalysis("analyze:" + chatKey, chatKey, history, priority, bypassCache, trace);
+    }
+
+    /**
+     * 提交一次预分析
+     * 使用单独的排队 Key，不会和用户发起的分析合并: 合并后任务会被换成另一份聊天记录，结果就对不上预分析记录的聊天记录了
+     */
+    CompletableFuture<AnalysisResult> submitSpeculative(String chatKey, List<String> history) {
+        return submitAnalysis("pre-analyze:" + chatKey, chatKey, history, AiRequestScheduler.Priority.BACKGROUND,
+                false, tracer.start(Tracer.ANALYSIS, chatKey));
+    }
+
+    private CompletableFuture<AnalysisResult> submitAnalysis(String requestKey, String chatKey, List<String> history,
+                                                             AiRequestScheduler.Priority priority,
+                                                             boolean bypassCache, Tracer.Trace trace) {
+        if (history == null || history.isEmpty()) {
+            trace.mark("无聊天记录");
+            return CompletableFuture.completedFuture(new AnalysisResult(analyzeEmptyHistory(), 0, 0));
         }
 
-        String apiUrl = buildChatCompletionsUrl(aiConfig.getApiUrl());
-        String apiKey = aiConfig.getApiKey();
-        String model = aiConfig.getModel();
+        AiSettings settings = aiConfig.snapshot();
+        PreparedRequest primary;
+        try {
+            primary = prepare(chatKey, history, settings, settings.getModel());
+        } catch (Exception e) {
+            trace.fail("构建上下文", e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+        trace.mark("构建上下文");
+
+        // 命中缓存时不排队、不消耗限流令牌，也不消耗用量，所以先查缓存再检查每日上限
+        AnalysisResult cachedResult = bypassCache ? null : lookupCache(chatKey, primary, trace);
+        if (cachedResult != null) {
+            return CompletableFuture.completedFuture(cachedResult);
+        }
+        PreparedRequest prepared = primary;
+        if (usageStore.isOverBudget()) {
+            try {
+                prepared = prepareOverBudget(chatKey, history, settings);
+            } catch (Exception e) {
+                trace.fail("用量上限", e.getMessage());
+                return CompletableFuture.failedFuture(e);
+            }
+            trace.mark("降级模型");
+            cachedResult = bypassCache ? null : lookupCache(chatKey, prepared, trace);
+            if (cachedResult != null) {
+                return CompletableFuture.completedFuture(cachedResult);
+            }
+        }
+        PreparedRequest request = prepared;
 
-        log.info("AI 请求 URL: {}, Model: {}", apiUrl, model);
+        CompletableFuture<AnalysisResult> future = scheduler.submit(requestKey, priority, queueWaitMs -> {
+            trace.mark("排队");
+            long start = System.nanoTime();
+            CompletableFuture<String> response = aiClient.completeAsync(request.getChatKey(), request.getModel(),
+                    request.getSystemPrompt(), request.getUserPrompt());
+            return Futures.thenApply(response, content -> {
+                trace.mark("HTTP");
+                List<String> suggestions = parseSuggestions(content);
+                trace.mark("解析");
+                long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                metrics.recordCompleted(queueWaitMs, latencyMs);
+                log.info("AI 分析完成 {}: 排队 {} ms, AI 响应 {} ms", chatKey, queueWaitMs, latencyMs);
+                if (isCacheable(suggestions)) {
+                    responseCache.put(request.getCacheKey(), suggestions);
+                }
+                return new AnalysisResult(suggestions, queueWaitMs, latencyMs);
+            });
+        });
+        // 不能返回 whenComplete 派生的 future，取消要作用在调度器的 future 上才会中止请求
+        future.whenComplete((result, ex) -> {
+            if (ex == null) {
+                return;
+            }
+            Throwable cause = unwrap(ex);
+            if (cause instanceof CancellationException) {
+                trace.mark("已取消");
+            } else {
+                trace.fail("失败", cause.getMessage());
+            }
+        });
+        return future;
+    }
 
+    /**
+     * 批量分析多个聊天
+     * 最多同时进行 batchParallelism 个，完成一个再补上一个；每个请求仍经过缓存、排队和全局限流
+     * @param chatKeys 聊天Key 列表，重复的只分析一次
+     * @param listener 每个聊天完成时回调
+     */
+    public BatchAnalysis analyzeBatch(List<String> chatKeys, BatchAnalysis.Listener listener) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(chatKeys));
+        BatchAnalysis batch = new BatchAnalysis(distinct, listener);
+        if (distinct.isEmpty()) {
+            batch.finish();
+            return batch;
+        }
+
+        Queue<String> pending = new ConcurrentLinkedQueue<>(distinct);
+        int parallelism = Math.max(1, Math.min(aiConfig.getBatchParallelism(), distinct.size()));
+        log.info("开始批量分析 {} 个聊天，并发 {}", distinct.size(), parallelism);
+        batch.getCompletion().thenRun(() -> log.info("批量分析结束: {}", batch));
+
+        for (int i = 0; i < parallelism; i++) {
+            launchNext(batch, pending);
+        }
+        return batch;
+    }
+
+    private void launchNext(BatchAnalysis batch, Queue<String> pending) {
+        String chatKey = pending.poll();
+        if (chatKey == null) {
+            return;
+        }
+        if (batch.isCancelled()) {
+            batch.skip(chatKey);
+            launchNext(batch, pending);
+            return;
+        }
+        List<String> history = groupMemoryService.getHistory(chatKey);
+        if (history.isEmpty()) {
+            batch.record(chatKey, null, new IOException("暂无聊天记录"));
+            launchNext(batch, pending);
+            return;
+        }
+        CompletableFuture<AnalysisResult> future = submitAnalysis(chatKey, history, AiRequestScheduler.Priority.USER, false);
+        batch.track(chatKey, future);
+        if (batch.isCancelled()) {
+            future.cancel(true);
+        }
+        future.whenComplete((result, ex) -> {
+            batch.record(chatKey, result, ex != null ? unwrap(ex) : null);
+            launchNext(batch, pending);
+        });
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
+    /**
+     * 直接调用 AI 接口分析聊天记录
+     * 不经过缓存、限流和排队，界面和后台任务应使用 {@link #submitAnalysis}
+     */
+    public List<String> analyze(String chatKey, List<String> history) throws IOException {
         if (history == null || history.isEmpty()) {
-            return Collections.singletonList("当前没有聊天记录，无法分析。");
+            return analyzeEmptyHistory();
         }
+        AiSettings settings = aiConfig.snapshot();
+        return execute(usageStore.isOverBudget()
+                ? prepareOverBudget(chatKey, history, settings)
+                : prepare(chatKey, history, settings, settings.getModel()));
+    }
 
-        // 2. Token Protection (Simple char count)
-        // Max chars approx 5000 to be safe
-        List<String> safeHistory = new ArrayList<>(history);
-        while (calculateTotalLength(safeHistory) > 5000 && !safeHistory.isEmpty()) {
-            safeHistory.remove(0);
+    /**
+     * 查询缓存，命中时记录指标
+     * @return 未命中返回 null
+     */
+    private AnalysisResult lookupCache(String chatKey, PreparedRequest prepared, Tracer.Trace trace) {
+        List<String> cached = responseCache.get(prepared.getCacheKey());
+        if (cached == null) {
+            return null;
+        }
+        metrics.recordCacheHit();
+        trace.mark("命中缓存");
+        log.info("AI 分析命中缓存 {}", chatKey);
+        return AnalysisResult.fromCache(cached);
+    }
+
+    /**
+     * 超过每日用量上限时改用降级模型重新构建 (上下文窗口可能不同)，没有配置降级模型则拒绝
+     */
+    private PreparedRequest prepareOverBudget(String chatKey, List<String> history, AiSettings settings)
+            throws IOException {
+        String fallbackModel = settings.getBudgetFallbackModel();
+        if (fallbackModel == null || fallbackModel.isBlank()) {
+            throw new IOException("今日 AI 用量已达上限，可在设置中调整上限或配置降级模型");
+        }
+        log.info("今日 AI 用量已达上限，改用降级模型 {}", fallbackModel);
+        return prepare(chatKey, history, settings, fallbackModel);
+    }
+
+    List<String> analyzeEmptyHistory() {
+        return Collections.singletonList("当前没有聊天记录，无法分析。");
+    }
+
+    /**
+     * 解析失败的占位结果不能进缓存
+     */
+    boolean isCacheable(List<String> suggestions) {
+        return !suggestions.isEmpty()
+                && !(suggestions.size() == 1 && PARSE_ERROR_MESSAGE.equals(suggestions.get(0)));
+    }
+
+    /**
+     * 用主模型构建提示词并裁剪上下文，但不发起请求，也不检查每日用量上限
+     */
+    public PreparedRequest prepare(String chatKey, List<String> history) throws IOException {
+        AiSettings settings = aiConfig.snapshot();
+        return prepare(chatKey, history, settings, settings.getModel());
+    }
+
+    /**
+     * 构建提示词并裁剪上下文，整个构建过程使用同一份配置快照
+     * 结果中的 cacheKey 由模型、系统提示词、完整的原始聊天记录和实际发送的最近聊天记录决定，不含摘要正文:
+     * 摘要在后台随分析更新，同一份聊天记录沿用第一次分析的结果，重复查看仍能命中缓存
+     */
+    private PreparedRequest prepare(String chatKey, List<String> history, AiSettings settings, String model)
+            throws IOException {
+        // 检查配置
+        if (!settings.isConfigured()) {
+            throw new IOException("请先在设置中配置 AI API");
         }
-        
-        String contextBlock = String.join("\n", safeHistory);
 
-        // 3. Construct Request
+        // 1. Construct System Prompt
         // 如果用户设置了自定义提示词，使用自定义的；否则使用默认提示词
-        String customPrompt = aiConfig.getSystemPrompt();
+        String customPrompt = settings.getSystemPrompt();
         String systemPrompt;
         if (customPrompt != null && !customPrompt.isBlank()) {
             // 用户自定义提示词 + 固定的格式要求
@@ -80,103 +313,112 @@ public class AiAnalysisService {
                     "请严格只返回一个 JSON 字符串数组，格式如：[\"建议1\", \"建议2\", \"建议3\"]。不要包含任何 Markdown 标记或其他解释性文字。";
         }
 
-        String userPrompt = "聊天记录：\n" + contextBlock;
-
-        JsonObject requestBody = new JsonObject();
-        requestBody.addProperty("model", model);
-        requestBody.addProperty("stream", false);
-        
-        JsonArray messages = new JsonArray();
-        JsonObject systemMsg = new JsonObject();
-        systemMsg.addProperty("role", "system");
-        systemMsg.addProperty("content", systemPrompt);
-        messages.add(systemMsg);
-
-        JsonObject userMsg = new JsonObject();
-        userMsg.addProperty("role", "user");
-        userMsg.addProperty("content", userPrompt);
-        messages.add(userMsg);
-
-        requestBody.add("messages", messages);
-
-        Request request = new Request.Builder()
-                .url(apiUrl)
-                .addHeader("Authorization", "Bearer " + apiKey)
-                .addHeader("Content-Type", "application/json")
-                .post(RequestBody.create(gson.toJson(requestBody), MediaType.get("application/json")))
-                .build();
-
-        // 4. Execute
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("AI 请求失败: " + response.code() + " " + response.message());
-            }
-            
-            ResponseBody body = response.body();
-            if (body == null) {
-                 throw new IOException("AI 响应为空");
+        // 2. 更早聊天的滚动摘要
+        String summary = settings.isSummaryEnabled() ? chatSummaryService.getSummary(chatKey) : "";
+        String userPromptPrefix = summary.isEmpty()
+                ? "聊天记录：\n"
+                : "更早的聊天摘要：\n" + summary + "\n\n最近的聊天记录：\n";
+
+        // 3. Token Protection - 按模型上下文窗口裁剪
+        int budget = settings.getContextWindow(model)
+                - settings.getReservedOutputTokens()
+                - tokenEstimator.estimateUncached(systemPrompt)
+                - tokenEstimator.estimateUncached(userPromptPrefix)
+                - PROMPT_OVERHEAD_TOKENS;
+        if (settings.isSummaryEnabled()) {
+            // 开启摘要后只保留最近的一段，更早的交给摘要
+            budget = Math.min(budget, settings.getRecentTailTokens());
+        }
+        List<String> safeHistory;
+        int olderCount;
+        if (settings.isRelevanceSelectionEnabled()) {
+            // 保留最近的消息，剩余预算按与最新消息的相关性挑选更早的消息
+            ContextSelector.Selection selection =
+                    contextSelector.select(history, budget, settings.getRecentContextRatio());
+            safeHistory = selection.getMessages();
+            olderCount = selection.getRecentStart();
+        } else {
+            safeHistory = trimToBudget(history, budget);
+            olderCount = history.size() - safeHistory.size();
+        }
+        log.debug("上下文预算 {} tokens, 保留 {}/{} 条消息", budget, safeHistory.size(), history.size());
+
+        if (olderCount > 0 && settings.isSummaryEnabled()) {
+            // 只能用这次构建提示词的那份聊天记录定位序号: 期间来了新消息时重新读内存，
+            // 已经作为最近消息原文发送的内容也会被摘要，之后的提示词里就重复了
+            GroupMemoryService.HistoryWindow window = groupMemoryService.getHistoryWindow(chatKey);
+            long firstSequence = window.locate(history);
+            if (firstSequence != GroupMemoryService.HistoryWindow.NOT_FOUND) {
+                chatSummaryService.offer(chatKey, firstSequence, history.subList(0, olderCount));
             }
-            String responseBody = body.string();
-            return parseResponse(responseBody);
         }
+
+        String contextBlock = String.join("\n", safeHistory);
+        String userPrompt = userPromptPrefix + contextBlock;
+
+        // 摘要覆盖的就是完整聊天记录里较早的部分，聊天记录不变时摘要的内容也不变
+        // 逐条送进摘要算法，不再把整段聊天记录拼成一个大字符串
+        List<String> keyParts = new ArrayList<>(history.size() + 2);
+        keyParts.add(settings.isSummaryEnabled() ? "summary" : "");
+        keyParts.addAll(history);
+        keyParts.add(contextBlock);
+        return new PreparedRequest(chatKey, model, systemPrompt, userPrompt,
+                AiResponseCache.fingerprint(model, systemPrompt, keyParts));
     }
 
     /**
-     * 构建完整的 chat/completions URL
-     * 支持多种输入格式:
-     * - http://xxx/v1 -> http://xxx/v1/chat/completions
-     * - http://xxx/v1/chat/completions -> 保持不变
-     * - http://xxx -> http://xxx/v1/chat/completions
+     * 发送已构建好的请求 (阻塞)
      */
-    private String buildChatCompletionsUrl(String baseUrl) {
-        if (baseUrl == null || baseUrl.isBlank()) {
-            return "";
-        }
-
-        String url = baseUrl.trim();
-        
-        // 去除末尾斜杠
-        if (url.endsWith("/")) {
-            url = url.substring(0, url.length() - 1);
-        }
-
-        // 如果已经包含 chat/completions，直接返回
-        if (url.endsWith("/chat/completions")) {
-            return url;
-        }
+    public List<String> execute(PreparedRequest prepared) throws IOException {
+        String content = aiClient.complete(prepared.getChatKey(), prepared.getModel(),
+                prepared.getSystemPrompt(), prepared.getUserPrompt());
+        return parseSuggestions(content);
+    }
 
-        // 如果以 /v1 结尾，追加 /chat/completions
-        if (url.endsWith("/v1")) {
-            return url + "/chat/completions";
-        }
+    /**
+     * 发送已构建好的请求 (异步)
+     * 取消返回的 future 会立即中止底层 HTTP 请求
+     */
+    public CompletableFuture<List<String>> executeAsync(PreparedRequest prepared) {
+        return Futures.thenApply(
+                aiClient.completeAsync(prepared.getChatKey(), prepared.getModel(),
+                        prepared.getSystemPrompt(), prepared.getUserPrompt()),
+                this::parseSuggestions);
+    }
 
-        // 如果包含 /v1 但后面还有其他路径，尝试修正
-        if (url.contains("/v1/")) {
-            // 可能是 /v1/models 之类的，替换为 /v1/chat/completions
-            int idx = url.indexOf("/v1/");
-            return url.substring(0, idx) + "/v1/chat/completions";
+    /**
+     * 从最新的消息往前单次遍历，保留预算内尽可能多的消息
+     * 最新的一条消息无论如何都会保留
+     */
+    private List<String> trimToBudget(List<String> history, int budgetTokens) {
+        int used = 0;
+        int start = history.size();
+        for (int i = history.size() - 1; i >= 0; i--) {
+            int cost = tokenEstimator.estimate(history.get(i)) + PER_MESSAGE_OVERHEAD_TOKENS;
+            if (used + cost > budgetTokens && start < history.size()) {
+                break;
+            }
+            used += cost;
+            start = i;
         }
-
-        // 其他情况，假设需要追加完整路径
-        return url + "/v1/chat/completions";
+        return history.subList(start, history.size());
     }
 
-    private int calculateTotalLength(List<String> list) {
-        int len = 0;
-        for (String s : list) {
-            len += s.length();
+    private List<String> parseSuggestions(String content) {
+        List<String> result = parseJsonArray(content);
+        if (result == null) {
+            log.error("Failed to parse AI response: {}", content);
+            return Collections.singletonList(PARSE_ERROR_MESSAGE);
         }
-        return len;
+        return result;
     }
 
-    private List<String> parseResponse(String jsonResponse) {
+    /**
+     * 解析模型返回的 JSON 字符串数组 (允许包在 markdown 代码块里)
+     * @return 不是合法的字符串数组时返回 null
+     */
+    static List<String> parseJsonArray(String content) {
         try {
-            // Parse OpenAI/DeepSeek format
-            // { "choices": [ { "message": { "content": "[\"opt1\", ...]" } } ] }
-            JsonObject root = JsonParser.parseString(jsonResponse).getAsJsonObject();
-            String content = root.getAsJsonArray("choices").get(0).getAsJsonObject()
-                    .getAsJsonObject("message").get("content").getAsString();
-
             // Clean up markdown code blocks if present
             content = content.replaceAll("```json", "").replaceAll("```", "").trim();
 
@@ -185,8 +427,46 @@ public class AiAnalysisService {
             optionsArray.forEach(e -> result.add(e.getAsString()));
             return result;
         } catch (Exception e) {
-            log.error("Failed to parse AI response", e);
-            return Collections.singletonList("解析 AI 响应失败，请检查日志。");
+            return null;
+        }
+    }
+
+    /**
+     * 构建好的 AI 请求
+     */
+    public static class PreparedRequest {
+        private final String chatKey;
+        private final String model;
+        private final String systemPrompt;
+        private final String userPrompt;
+        private final String cacheKey;
+
+        PreparedRequest(String chatKey, String model, String systemPrompt, String userPrompt, String cacheKey) {
+            this.chatKey = chatKey;
+            this.model = model;
+            this.systemPrompt = systemPrompt;
+            this.userPrompt = userPrompt;
+            this.cacheKey = cacheKey;
+        }
+
+        public String getChatKey() {
+            return chatKey;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public String getSystemPrompt() {
+            return systemPrompt;
+        }
+
+        public String getUserPrompt() {
+            return userPrompt;
+        }
+
+        public String getCacheKey() {
+            return cacheKey;
         }
     }
 }
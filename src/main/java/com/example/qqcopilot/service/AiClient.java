@@ -0,0 +1,475 @@
+package com.example.qqcopilot.service;
+
+import com.example.qqcopilot.config.AiConfig;
+import com.example.qqcopilot.config.AiEndpoint;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import jakarta.annotation.PreDestroy;
+import okhttp3.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenAI 兼容 chat/completions 接口调用
+ * 只负责发请求和取出回复文本，提示词构建和结果解析由调用方处理
+ *
+ * 配置了多个接口时按顺序故障转移，并做请求对冲:
+ * 第一个请求超过该接口 p95 耗时仍未返回时，向下一个接口 (只有一个接口时向同一接口) 再发一次，
+ * 先拿到有效回复的胜出，另一个请求立即取消。每个接口各自熔断，连续失败后暂时跳过
+ */
+@Service
+public class AiClient {
+
+    private static final Logger log = LoggerFactory.getLogger(AiClient.class);
+
+    // 样本太少时 p95 不可信，先不对冲，避免前几次请求成本翻倍
+    private static final int MIN_SAMPLES_FOR_HEDGE = 20;
+    private static final int LATENCY_WINDOW = 200;
+
+    private final AiConfig aiConfig;
+    private final AiMetrics metrics;
+    private final UsageStore usageStore;
+    private final TokenEstimator tokenEstimator;
+    private final OkHttpClient client;
+    private final Gson gson;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService hedgeTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ai-hedge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public AiClient(AiConfig aiConfig, AiMetrics metrics, UsageStore usageStore, TokenEstimator tokenEstimator,
+                    OkHttpClient httpClient) {
+        this.aiConfig = aiConfig;
+        this.metrics = metrics;
+        this.usageStore = usageStore;
+        this.tokenEstimator = tokenEstimator;
+        // 派生的客户端共享连接池和调度器
+        this.client = httpClient.newBuilder()
+                .readTimeout(180, TimeUnit.SECONDS)  // 3分钟读取超时，AI 可能需要较长时间
+                .build();
+        this.gson = new Gson();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hedgeTimer.shutdownNow();
+    }
+
+    /**
+     * 发送一次对话请求 (阻塞)，线程被中断时取消进行中的 HTTP 请求
+     * @param chatKey 用量统计归属的聊天，没有时传 null
+     * @return 模型回复的文本内容
+     */
+    public String complete(String chatKey, String model, String systemPrompt, String userPrompt) throws IOException {
+        CompletableFuture<String> future = completeAsync(chatKey, model, systemPrompt, userPrompt);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("AI 请求已取消");
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("AI 请求已取消");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 发送一次对话请求 (异步)
+     * 取消返回的 future 会取消所有进行中的 HTTP 请求
+     * @param chatKey 用量统计归属的聊天，没有时传 null
+     */
+    public CompletableFuture<String> completeAsync(String chatKey, String model, String systemPrompt, String userPrompt) {
+        List<AiEndpoint> endpoints = new ArrayList<>();
+        // 这里只挑选候选，探测名额在真正发出请求时才占用，没用上的备用接口不会一直占着半开名额
+        for (AiEndpoint endpoint : aiConfig.getEndpoints()) {
+            if (!breaker(endpoint).isOpen()) {
+                endpoints.add(endpoint);
+            } else {
+                log.debug("接口已熔断，跳过: {}", endpoint);
+            }
+        }
+        if (endpoints.isEmpty()) {
+            return CompletableFuture.failedFuture(new IOException(aiConfig.getEndpoints().isEmpty()
+                    ? "请先在设置中配置 AI API" : "所有 AI 接口均已熔断，请稍后再试"));
+        }
+        HedgedCall call = new HedgedCall(chatKey, endpoints, model, systemPrompt, userPrompt);
+        call.start();
+        return call.result;
+    }
+
+    private CircuitBreaker breaker(AiEndpoint endpoint) {
+        return breakers.computeIfAbsent(endpoint.id(), id -> new CircuitBreaker(
+                aiConfig::getCircuitFailureThreshold,
+                () -> aiConfig.getCircuitOpenSeconds() * 1000));
+    }
+
+    private LatencyTracker latency(AiEndpoint endpoint) {
+        return latencies.computeIfAbsent(endpoint.id(), id -> new LatencyTracker(LATENCY_WINDOW));
+    }
+
+    /**
+     * 对冲延迟: 第一个接口的 p95 耗时，不低于配置的下限
+     * @return 样本不足或关闭对冲时返回 -1
+     */
+    private long hedgeDelayMs(AiEndpoint endpoint) {
+        if (!aiConfig.isHedgingEnabled()) {
+            return -1;
+        }
+        LatencyTracker tracker = latency(endpoint);
+        if (tracker.size() < MIN_SAMPLES_FOR_HEDGE) {
+            return -1;
+        }
+        return Math.max(aiConfig.getHedgeMinDelayMs(), tracker.percentile(95));
+    }
+
+    private Request buildRequest(AiEndpoint endpoint, String model, String systemPrompt, String userPrompt) {
+        String apiUrl = buildChatCompletionsUrl(endpoint.getApiUrl());
+
+        log.info("AI 请求 URL: {}, Model: {}", apiUrl, model);
+
+        JsonObject requestBody = new JsonObject();
+        requestBody.addProperty("model", model);
+        requestBody.addProperty("stream", false);
+
+        JsonArray messages = new JsonArray();
+        JsonObject systemMsg = new JsonObject();
+        systemMsg.addProperty("role", "system");
+        systemMsg.addProperty("content", systemPrompt);
+        messages.add(systemMsg);
+
+        JsonObject userMsg = new JsonObject();
+        userMsg.addProperty("role", "user");
+        userMsg.addProperty("content", userPrompt);
+        messages.add(userMsg);
+
+        requestBody.add("messages", messages);
+
+        return new Request.Builder()
+                .url(apiUrl)
+                .addHeader("Authorization", "Bearer " + endpoint.getApiKey())
+                .addHeader("Content-Type", "application/json")
+                .post(RequestBody.create(gson.toJson(requestBody), MediaType.get("application/json")))
+                .build();
+    }
+
+    /**
+     * 只有网络错误、限流和服务端错误计入熔断，其余 4xx 是请求或配置问题
+     */
+    private static boolean isEndpointFault(IOException e) {
+        if (e instanceof HttpStatusException status) {
+            return status.code == 429 || status.code >= 500;
+        }
+        return true;
+    }
+
+    /**
+     * 一次逻辑请求: 按顺序在多个接口上尝试，可能同时有两个请求在途
+     */
+    private class HedgedCall {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        private final String chatKey;
+        private final List<AiEndpoint> endpoints;
+        private final String model;
+        private final String systemPrompt;
+        private final String userPrompt;
+
+        // 以下状态只在 this 锁内读写
+        private final List<Call> calls = new ArrayList<>();
+        private int nextEndpoint;
+        private int inFlight;
+        private boolean hedged;
+        private IOException lastError;
+        private ScheduledFuture<?> hedgeTask;
+
+        HedgedCall(String chatKey, List<AiEndpoint> endpoints, String model, String systemPrompt, String userPrompt) {
+            this.chatKey = chatKey;
+            this.endpoints = endpoints;
+            this.model = model;
+            this.systemPrompt = systemPrompt;
+            this.userPrompt = userPrompt;
+        }
+
+        void start() {
+            // 结束 (成功、失败或被取消) 后取消所有还在途的请求
+            result.whenComplete((content, ex) -> {
+                List<Call> toCancel;
+                synchronized (this) {
+                    if (hedgeTask != null) {
+                        hedgeTask.cancel(false);
+                    }
+                    toCancel = new ArrayList<>(calls);
+                }
+                toCancel.forEach(Call::cancel);
+            });
+
+            boolean launched;
+            IOException error;
+            synchronized (this) {
+                launched = launchNext();
+                if (launched) {
+                    // 按实际发出的接口计算，前面被熔断跳过的接口的 p95 与这次请求无关
+                    long delay = hedgeDelayMs(endpoints.get(nextEndpoint - 1));
+                    if (delay > 0) {
+                        hedgeTask = hedgeTimer.schedule(this::hedge, delay, TimeUnit.MILLISECONDS);
+                    }
+                }
+                error = lastError != null ? lastError : new IOException("所有 AI 接口均已熔断，请稍后再试");
+            }
+            if (!launched) {
+                result.completeExceptionally(error);
+            }
+        }
+
+        private synchronized void hedge() {
+            if (result.isDone() || hedged) {
+                return;
+            }
+            hedged = true;
+            // 只有一个接口时向同一接口再发一次，换一条连接往往就能避开慢请求
+            if (nextEndpoint < endpoints.size()) {
+                if (launchNext()) {
+                    log.info("AI 请求超过 p95 未返回，对冲到: {}", endpoints.get(nextEndpoint - 1));
+                    metrics.recordHedged();
+                }
+            } else if (launch(endpoints.get(0))) {
+                log.info("AI 请求超过 p95 未返回，对冲到: {}", endpoints.get(0));
+                metrics.recordHedged();
+            }
+        }
+
+        /**
+         * 按顺序向下一个放行的接口发出请求，期间被熔断的接口直接跳过
+         * @return 没有可用的接口时返回 false
+         */
+        private boolean launchNext() {
+            while (nextEndpoint < endpoints.size()) {
+                if (launch(endpoints.get(nextEndpoint++))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return 接口地址无效，或熔断器不放行 (挑选候选之后才熔断，或半开名额已被占用) 时返回 false
+         */
+        private boolean launch(AiEndpoint endpoint) {
+            String requestModel = endpoint.getModel() != null && !endpoint.getModel().isBlank()
+                    ? endpoint.getModel() : model;
+            // 先构建请求再占熔断名额: 地址写错 (缺少 http:// 等) 时 OkHttp 抛 IllegalArgumentException，
+            // 这里可能在 HTTP 回调或对冲定时线程上，异常漏出去 result 就永远不会结束
+            Request request;
+            try {
+                request = buildRequest(endpoint, requestModel, systemPrompt, userPrompt);
+            } catch (IllegalArgumentException e) {
+                log.warn("AI 接口地址无效，跳过 {}: {}", endpoint, e.getMessage());
+                lastError = new IOException("AI 接口地址无效: " + endpoint.getApiUrl(), e);
+                return false;
+            }
+            CircuitBreaker.Permit permit = breaker(endpoint).allowRequest();
+            if (permit == CircuitBreaker.Permit.DENIED) {
+                log.debug("接口已熔断，跳过: {}", endpoint);
+                return false;
+            }
+            Call call = client.newCall(request);
+            calls.add(call);
+            inFlight++;
+            long startedAt = System.currentTimeMillis();
+            call.enqueue(new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (response) {
+                        if (!response.isSuccessful()) {
+                            throw new HttpStatusException(response.code(), response.message());
+                        }
+                        ResponseBody body = response.body();
+                        if (body == null) {
+                            throw new IOException("AI 响应为空");
+                        }
+                        Completion completion = parseCompletion(body.string());
+                        // 2xx 但没有内容的回复不能算胜出，按失败处理，让另一个请求或下一个接口有机会返回
+                        if (completion.content.isBlank()) {
+                            throw new IOException("AI 响应内容为空");
+                        }
+                        onSuccess(endpoint, requestModel, System.currentTimeMillis() - startedAt, completion);
+                    } catch (IOException e) {
+                        HedgedCall.this.onFailure(endpoint, permit, call, e);
+                    }
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    HedgedCall.this.onFailure(endpoint, permit, call, e);
+                }
+            });
+            return true;
+        }
+
+        private void onSuccess(AiEndpoint endpoint, String requestModel, long latencyMs, Completion completion) {
+            breaker(endpoint).recordSuccess();
+            latency(endpoint).record(latencyMs);
+            if (result.complete(completion.content)) {
+                // 只统计胜出的请求；接口没返回 usage 时用估算值
+                long promptTokens = completion.promptTokens >= 0 ? completion.promptTokens
+                        : tokenEstimator.estimateUncached(systemPrompt) + tokenEstimator.estimateUncached(userPrompt);
+                long completionTokens = completion.completionTokens >= 0 ? completion.completionTokens
+                        : tokenEstimator.estimateUncached(completion.content);
+                usageStore.record(chatKey, requestModel, promptTokens, completionTokens, latencyMs);
+            }
+        }
+
+        private void onFailure(AiEndpoint endpoint, CircuitBreaker.Permit permit, Call call, IOException e) {
+            CircuitBreaker breaker = breaker(endpoint);
+            if (call.isCanceled()) {
+                breaker.recordIgnored(permit);
+            } else if (isEndpointFault(e)) {
+                if (breaker.recordFailure()) {
+                    log.warn("AI 接口连续失败，暂时熔断 {} 秒: {}", aiConfig.getCircuitOpenSeconds(), endpoint);
+                }
+            } else {
+                breaker.recordIgnored(permit);
+            }
+
+            boolean allFailed;
+            synchronized (this) {
+                inFlight--;
+                if (result.isDone()) {
+                    return;
+                }
+                lastError = e;
+                log.warn("AI 请求失败 {}: {}", endpoint, e.getMessage());
+                // 立即故障转移到下一个接口
+                if (launchNext()) {
+                    metrics.recordFailover();
+                    return;
+                }
+                allFailed = inFlight == 0;
+            }
+            // 在锁外完成，避免下游回调持有本锁
+            if (allFailed) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 回复文本及接口返回的 token 用量 (没有时为 -1)
+     */
+    private static class Completion {
+        final String content;
+        final long promptTokens;
+        final long completionTokens;
+
+        Completion(String content, long promptTokens, long completionTokens) {
+            this.content = content;
+            this.promptTokens = promptTokens;
+            this.completionTokens = completionTokens;
+        }
+    }
+
+    /**
+     * 非 2xx 响应
+     */
+    private static class HttpStatusException extends IOException {
+        final int code;
+
+        HttpStatusException(int code, String message) {
+            super("AI 请求失败: " + code + " " + message);
+            this.code = code;
+        }
+    }
+
+    /**
+     * 取出回复文本
+     * OpenAI/DeepSeek 格式: { "choices": [ { "message": { "content": "..." } } ] }
+     */
+    private Completion parseCompletion(String jsonResponse) throws IOException {
+        try {
+            JsonObject root = JsonParser.parseString(jsonResponse).getAsJsonObject();
+            String content = root.getAsJsonArray("choices").get(0).getAsJsonObject()
+                    .getAsJsonObject("message").get("content").getAsString();
+            // { "usage": { "prompt_tokens": 123, "completion_tokens": 45 } }，部分中转不返回
+            long promptTokens = -1;
+            long completionTokens = -1;
+            if (root.has("usage") && root.get("usage").isJsonObject()) {
+                JsonObject usage = root.getAsJsonObject("usage");
+                if (usage.has("prompt_tokens")) {
+                    promptTokens = usage.get("prompt_tokens").getAsLong();
+                }
+                if (usage.has("completion_tokens")) {
+                    completionTokens = usage.get("completion_tokens").getAsLong();
+                }
+            }
+            return new Completion(content, promptTokens, completionTokens);
+        } catch (Exception e) {
+            log.error("Failed to parse AI response: {}", jsonResponse, e);
+            throw new IOException("AI 响应格式错误", e);
+        }
+    }
+
+    /**
+     * 构建完整的 chat/completions URL
+     * 支持多种输入格式:
+     * - http://xxx/v1 -> http://xxx/v1/chat/completions
+     * - http://xxx/v1/chat/completions -> 保持不变
+     * - http://xxx -> http://xxx/v1/chat/completions
+     */
+    static String buildChatCompletionsUrl(String baseUrl) {
+        if (baseUrl == null || baseUrl.isBlank()) {
+            return "";
+        }
+
+        String url = baseUrl.trim();
+
+        // 去除末尾斜杠
+        if (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+
+        // 如果已经包含 chat/completions，直接返回
+        if (url.endsWith("/chat/completions")) {
+            return url;
+        }
+
+        // 如果以 /v1 结尾，追加 /chat/completions
+        if (url.endsWith("/v1")) {
+            return url + "/chat/completions";
+        }
+
+        // 如果包含 /v1 但后面还有其他路径，尝试修正
+        if (url.contains("/v1/")) {
+            // 可能是 /v1/models 之类的，替换为 /v1/chat/completions
+            int idx = url.indexOf("/v1/");
+            return url.substring(0, idx) + "/v1/chat/completions";
+        }
+
+        // 其他情况，假设需要追加完整路径
+        return url + "/v1/chat/completions";
+    }
+}
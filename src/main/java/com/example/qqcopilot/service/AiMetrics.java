@@ -0,0 +1,119 @@
+package com.example.qqcopilot.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI 请求统计 (进程内计数，不持久化)
+ */
+@Component
+public class AiMetrics {
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+    private final AtomicLong totalQueueWaitMs = new AtomicLong();
+    private final AtomicLong totalLatencyMs = new AtomicLong();
+
+    public void recordSubmitted() {
+        submitted.incrementAndGet();
+    }
+
+    /**
+     * 排队中的同一聊天请求被合并
+     */
+    public void recordCollapsed() {
+        collapsed.incrementAndGet();
+    }
+
+    public void recordCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public void recordCompleted(long queueWaitMs, long latencyMs) {
+        completed.incrementAndGet();
+        totalQueueWaitMs.addAndGet(queueWaitMs);
+        totalLatencyMs.addAndGet(latencyMs);
+    }
+
+    public void recordFailed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * 请求在排队或进行中被取消 (进行中的 HTTP 连接会被断开)
+     */
+    public void recordCancelled() {
+        cancelled.incrementAndGet();
+    }
+
+    /**
+     * 超过 p95 未返回，发出了对冲请求
+     */
+    public void recordHedged() {
+        hedged.incrementAndGet();
+    }
+
+    /**
+     * 请求失败后转到下一个接口
+     */
+    public void recordFailover() {
+        failovers.incrementAndGet();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getCollapsed() {
+        return collapsed.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    public long getAvgQueueWaitMs() {
+        long n = completed.get();
+        return n == 0 ? 0 : totalQueueWaitMs.get() / n;
+    }
+
+    public long getAvgLatencyMs() {
+        long n = completed.get();
+        return n == 0 ? 0 : totalLatencyMs.get() / n;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("提交 %d, 合并 %d, 缓存命中 %d, 完成 %d, 失败 %d, 取消 %d, 对冲 %d, 故障转移 %d, 平均排队 %d ms, 平均响应 %d ms",
+                getSubmitted(), getCollapsed(), getCacheHits(), getCompleted(), getFailed(), getCancelled(),
+                getHedged(), getFailovers(),
+                getAvgQueueWaitMs(), getAvgLatencyMs());
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.qqcopilot.service;
+
+import com.example.qqcopilot.config.AiConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AI 请求调度器
+ * - 所有 AI 请求先进入优先队列，用户主动发起的请求排在后台请求前面
+ * - 出队前经过令牌桶限流 (ai.rate-limit-ms / ai.rate-limit-burst)
+ * - 同一个 key 在队列中只保留一个请求，后到的覆盖先到的并共享结果
+ *   每个提交方拿到各自的 Future 视图，全部提交方都取消后才真正取消请求
+ * - 任务是异步的，取消会一直传到底层 HTTP 请求，立即断开连接
+ */
+@Service
+public class AiRequestScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(AiRequestScheduler.class);
+
+    // 同时在途的 AI 请求上限
+    private static final int MAX_IN_FLIGHT = 4;
+
+    /**
+     * 请求优先级，声明顺序即优先顺序
+     */
+    public enum Priority {
+        USER,
+        BACKGROUND
+    }
+
+    /**
+     * 被调度执行的 AI 任务 (异步)
+     */
+    @FunctionalInterface
+    public interface AiJob<T> {
+        /**
+         * 发起请求后立即返回，不能阻塞调度线程
+         * @param queueWaitMs 在队列中等待的时间 (含限流等待)
+         * @return 请求结果；调度器取消它时应中止底层请求
+         */
+        CompletableFuture<T> start(long queueWaitMs) throws Exception;
+    }
+
+    private final AiMetrics metrics;
+    private final TokenBucketRateLimiter rateLimiter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final PriorityQueue<ScheduledRequest<?>> queue = new PriorityQueue<>(
+            Comparator.<ScheduledRequest<?>, Priority>comparing(r -> r.priority).thenComparingLong(r -> r.sequence));
+    private final Map<String, ScheduledRequest<?>> pending = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    private Thread dispatcher;
+    private volatile boolean running = true;
+
+    public AiRequestScheduler(AiConfig aiConfig, AiMetrics metrics) {
+        this.metrics = metrics;
+        this.rateLimiter = new TokenBucketRateLimiter(aiConfig::getRateLimitMs, aiConfig::getRateLimitBurst);
+    }
+
+    @PostConstruct
+    public void start() {
+        dispatcher = new Thread(this::dispatchLoop, "ai-scheduler");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+    }
+
+    /**
+     * 提交 AI 任务
+     * @param key 去重 Key，队列中已有相同 Key 的请求时用新任务替换旧任务，共享同一个结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(String key, Priority priority, AiJob<T> job) {
+        metrics.recordSubmitted();
+        lock.lock();
+        try {
+            ScheduledRequest<T> existing = (ScheduledRequest<T>) pending.get(key);
+            // 订阅方已全部取消的请求马上会被取消，不能再合并进去
+            if (existing != null && !existing.future.isDone() && existing.subscribers > 0) {
+                // 合并: 用最新的任务 (最新的聊天记录) 覆盖，优先级取两者中较高的
+                existing.job = job;
+                if (priority.compareTo(existing.priority) < 0) {
+                    queue.remove(existing);
+                    existing.priority = priority;
+                    queue.add(existing);
+                }
+                metrics.recordCollapsed();
+                log.debug("合并排队中的 AI 请求: {}", key);
+                return existing.subscribe();
+            }
+            if (existing != null) {
+                queue.remove(existing);
+            }
+
+            ScheduledRequest<T> request = new ScheduledRequest<>(key, priority, sequence.incrementAndGet(), job);
+            pending.put(key, request);
+            queue.add(request);
+            notEmpty.signal();
+            return request.subscribe();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前排队中的请求数
+     */
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            try {
+                awaitNotEmpty();
+                inFlight.acquire();
+                try {
+                    rateLimiter.acquire();
+                } catch (InterruptedException e) {
+                    inFlight.release();
+                    throw e;
+                }
+
+                // 拿到令牌后再出队，保证等待令牌期间新到的用户请求能插队
+                ScheduledRequest<?> next = pollNext();
+                if (next == null) {
+                    rateLimiter.refund();
+                    inFlight.release();
+                    continue;
+                }
+                next.start();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("AI 调度异常", e);
+            }
+        }
+    }
+
+    private void awaitNotEmpty() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ScheduledRequest<?> pollNext() {
+        lock.lock();
+        try {
+            ScheduledRequest<?> next;
+            while ((next = queue.poll()) != null) {
+                pending.remove(next.key, next);
+                if (!next.future.isDone()) {
+                    return next;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private class ScheduledRequest<T> {
+        final String key;
+        final long sequence;
+        final long enqueuedNanos = System.nanoTime();
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        Priority priority;
+        volatile AiJob<T> job;
+        private int subscribers;
+
+        ScheduledRequest(String key, Priority priority, long sequence, AiJob<T> job) {
+            this.key = key;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.job = job;
+        }
+
+        /**
+         * 为提交方创建一个结果视图，取消视图只减少引用计数
+         */
+        CompletableFuture<T> subscribe() {
+            subscribers++;
+            CompletableFuture<T> view = future.copy();
+            view.whenComplete((value, ex) -> {
+                if (view.isCancelled()) {
+                    release();
+                }
+            });
+            return view;
+        }
+
+        private void release() {
+            boolean lastSubscriber;
+            lock.lock();
+            try {
+                lastSubscriber = --subscribers <= 0;
+            } finally {
+                lock.unlock();
+            }
+            // 在锁外取消，取消回调会一路传到 HTTP 请求
+            if (lastSubscriber && future.cancel(true)) {
+                metrics.recordCancelled();
+                log.debug("AI 请求已取消: {}", key);
+            }
+        }
+
+        /**
+         * 在调度线程上发起任务，占用的在途名额在结束 (完成、失败或取消) 时归还
+         */
+        void start() {
+            future.whenComplete((value, ex) -> inFlight.release());
+            if (future.isDone()) {
+                return;
+            }
+            long queueWaitMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueuedNanos);
+            CompletableFuture<T> started;
+            try {
+                started = job.start(queueWaitMs);
+            } catch (Exception e) {
+                metrics.recordFailed();
+                future.completeExceptionally(e);
+                return;
+            }
+            // 请求被取消时中止底层调用
+            future.whenComplete((value, ex) -> {
+                if (future.isCancelled()) {
+                    started.cancel(true);
+                }
+            });
+            started.whenComplete((value, ex) -> {
+                if (ex == null) {
+                    future.complete(value);
+                } else if (!(ex instanceof CancellationException)) {
+                    metrics.recordFailed();
+                    future.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null
+                            ? ex.getCause() : ex);
+                } else {
+                    future.cancel(true);
+                }
+            });
+        }
+    }
+}
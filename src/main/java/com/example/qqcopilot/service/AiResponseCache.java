@@ -0,0 +1,208 @@
+package com.example.qqcopilot.service;
+
+import com.example.qqcopilot.config.AiConfig;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * AI 分析结果缓存
+ * Key 为 模型 + 系统提示词 + 聊天内容 的 SHA-256 (分析时包含哪些内容见 AiAnalysisService#prepare)，按 LRU 和 TTL 淘汰
+ * 开启 cachePersistent 后缓存写入 ~/.qqcopilot/ai-cache.json，重启后仍可命中；
+ * 写盘在后台线程合并进行，先写临时文件再原子替换
+ */
+@Component
+public class AiResponseCache {
+
+    private static final Logger log = LoggerFactory.getLogger(AiResponseCache.class);
+    private static final String CACHE_FILE = AiConfig.CONFIG_DIR + "/ai-cache.json";
+
+    private final AiConfig aiConfig;
+    private final Gson gson = new Gson();
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    // 持久化写盘放到单独线程，避免阻塞分析线程
+    private final AtomicBoolean savePending = new AtomicBoolean();
+    private final ExecutorService persistExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ai-cache-persist");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public AiResponseCache(AiConfig aiConfig) {
+        this.aiConfig = aiConfig;
+    }
+
+    /**
+     * 计算缓存 Key
+     * @param parts 决定结果的其余内容，逐条计入摘要，不需要先拼接成一个字符串
+     */
+    public static String fingerprint(String model, String systemPrompt, List<String> parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(systemPrompt.getBytes(StandardCharsets.UTF_8));
+            for (String part : parts) {
+                digest.update((byte) 0);
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 查询缓存，过期条目直接移除
+     * @return 命中返回建议列表，否则返回 null
+     */
+    public synchronized List<String> get(String key) {
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (isExpired(entry)) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.suggestions;
+    }
+
+    public void put(String key, List<String> suggestions) {
+        synchronized (this) {
+            entries.put(key, new CacheEntry(new ArrayList<>(suggestions), System.currentTimeMillis()));
+            evict();
+        }
+        // 连续写入只排一次写盘，写盘时取最新内容
+        if (aiConfig.isCachePersistent() && savePending.compareAndSet(false, true)) {
+            persistExecutor.execute(() -> {
+                savePending.set(false);
+                save();
+            });
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!aiConfig.isCachePersistent()) {
+            return;
+        }
+        try {
+            Path path = Paths.get(CACHE_FILE);
+            if (!Files.exists(path)) {
+                return;
+            }
+            Map<String, CacheEntry> loaded = gson.fromJson(Files.readString(path),
+                    new TypeToken<LinkedHashMap<String, CacheEntry>>() {}.getType());
+            if (loaded != null) {
+                synchronized (this) {
+                    loaded.forEach((key, entry) -> {
+                        if (entry != null && entry.suggestions != null && !isExpired(entry)) {
+                            entries.put(key, entry);
+                        }
+                    });
+                    evict();
+                }
+                log.info("已加载 {} 条 AI 缓存", size());
+            }
+        } catch (Exception e) {
+            log.warn("加载 AI 缓存失败: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        persistExecutor.shutdown();
+        if (aiConfig.isCachePersistent()) {
+            save();
+        }
+    }
+
+    private void save() {
+        try {
+            String json;
+            synchronized (this) {
+                json = gson.toJson(entries);
+            }
+            writeAtomically(json);
+        } catch (Exception e) {
+            log.warn("保存 AI 缓存失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 先写同目录下的临时文件再重命名覆盖，中途退出也不会留下写了一半的缓存文件
+     */
+    private void writeAtomically(String json) throws IOException {
+        Path target = Paths.get(CACHE_FILE);
+        Path dir = target.getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, "ai-cache", ".tmp");
+        try {
+            Files.writeString(temp, json);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void evict() {
+        long maxEntries = Math.max(1, aiConfig.getCacheMaxEntries());
+        entries.values().removeIf(this::isExpired);
+        var it = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private boolean isExpired(CacheEntry entry) {
+        long ttlMs = TimeUnit.MINUTES.toMillis(aiConfig.getCacheTtlMinutes());
+        return System.currentTimeMillis() - entry.createdAt > ttlMs;
+    }
+
+    private static class CacheEntry {
+        List<String> suggestions;
+        long createdAt;
+
+        CacheEntry(List<String> suggestions, long createdAt) {
+            this.suggestions = suggestions;
+            this.createdAt = createdAt;
+        }
+    }
+}
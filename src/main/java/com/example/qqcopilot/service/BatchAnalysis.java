@@ -0,0 +1,143 @@
+package com.example.qqcopilot.service;
+
+import com.example.qqcopilot.model.AnalysisResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次进行中的批量分析
+ * 每个聊天完成 (成功、失败或取消) 时立即回调，全部结束后 {@link #getCompletion()} 完成
+ */
+public class BatchAnalysis {
+
+    /**
+     * 单个聊天的结果回调 (在后台线程调用)
+     */
+    public interface Listener {
+        /**
+         * @param result 失败或取消时为 null
+         * @param error 成功时为 null
+         */
+        void onResult(String chatKey, AnalysisResult result, Throwable error);
+    }
+
+    private final List<String> chatKeys;
+    private final Listener listener;
+    private final Map<String, CompletableFuture<AnalysisResult>> running = new ConcurrentHashMap<>();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong totalLatencyMs = new AtomicLong();
+    private volatile long finishedNanos;
+    private volatile boolean cancelled;
+
+    BatchAnalysis(List<String> chatKeys, Listener listener) {
+        this.chatKeys = new ArrayList<>(chatKeys);
+        this.listener = listener;
+    }
+
+    public List<String> getChatKeys() {
+        return chatKeys;
+    }
+
+    /**
+     * 全部聊天结束后完成
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * 取消还没开始和进行中的分析，已完成的结果保留
+     */
+    public void cancel() {
+        cancelled = true;
+        new ArrayList<>(running.values()).forEach(f -> f.cancel(true));
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int size() {
+        return chatKeys.size();
+    }
+
+    public int getSucceededCount() {
+        return succeeded.get();
+    }
+
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    public int getFinishedCount() {
+        return succeeded.get() + failed.get();
+    }
+
+    public long getElapsedMs() {
+        long end = finishedNanos != 0 ? finishedNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    /**
+     * 吞吐: 每分钟完成的聊天数
+     */
+    public double getThroughputPerMinute() {
+        long elapsed = getElapsedMs();
+        return elapsed == 0 ? 0 : getSucceededCount() * 60_000.0 / elapsed;
+    }
+
+    public long getAvgLatencyMs() {
+        int n = succeeded.get();
+        return n == 0 ? 0 : totalLatencyMs.get() / n;
+    }
+
+    void track(String chatKey, CompletableFuture<AnalysisResult> future) {
+        running.put(chatKey, future);
+    }
+
+    void record(String chatKey, AnalysisResult result, Throwable error) {
+        running.remove(chatKey);
+        if (error == null) {
+            succeeded.incrementAndGet();
+            totalLatencyMs.addAndGet(result.getLatencyMs());
+        } else {
+            failed.incrementAndGet();
+        }
+        listener.onResult(chatKey, result, error);
+        if (getFinishedCount() >= chatKeys.size()) {
+            finish();
+        }
+    }
+
+    /**
+     * 取消后还没开始的聊天直接记为失败
+     */
+    void skip(String chatKey) {
+        record(chatKey, null, new CancellationException("批量分析已取消"));
+    }
+
+    void finish() {
+        if (finishedNanos == 0) {
+            finishedNanos = System.nanoTime();
+        }
+        completion.complete(null);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("完成 %d/%d, 失败 %d, 用时 %.1f s, 吞吐 %.1f 个/分钟, 平均响应 %d ms",
+                getSucceededCount(), size(), getFailedCount(), getElapsedMs() / 1000.0,
+                getThroughputPerMinute(), getAvgLatencyMs());
+    }
+}
@@ -1,31 +1,87 @@
 package com.example.qqcopilot.service;
 
+import com.example.qqcopilot.StartupTimer;
+import com.example.qqcopilot.model.BotHealth;
 import love.forte.simbot.application.Application;
 import love.forte.simbot.bot.Bot;
 import love.forte.simbot.component.onebot.v11.core.bot.OneBotBot;
+import love.forte.simbot.component.onebot.v11.core.event.message.OneBotFriendMessageEvent;
+import love.forte.simbot.component.onebot.v11.core.event.message.OneBotNormalGroupMessageEvent;
 import love.forte.simbot.event.BotStartedEvent;
 import love.forte.simbot.quantcat.common.annotations.Listener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Bot 连接健康监控
+ * - 每 15 秒检查 Bot 是否在线，并调用 NapCat get_status 测量接口往返耗时
+ * - 收到的每个消息事件按 OneBot 的 time 字段计算事件延迟，记入直方图
+ * - Bot 不在线、接口连续失败、或事件流长时间静默时判定为卡住，按指数退避重启 Bot 重连
+ * - 每次检查后发布 {@link BotHealthEvent}，界面据此显示连接状态
+ */
 @Service
 public class BotConnectionMonitor {
 
     private static final Logger log = LoggerFactory.getLogger(BotConnectionMonitor.class);
 
+    private static final long PROBE_INTERVAL_SECONDS = 15;
+    // 接口连续失败这么多次判定为卡住
+    private static final int STALL_PROBE_FAILURES = 3;
+    // 接口正常但这么久没有收到任何事件，认为事件推送 (WebSocket) 已断开
+    // 设得比较长，避免深夜群里本来就没人说话时反复重连
+    private static final long EVENT_SILENCE_MS = TimeUnit.MINUTES.toMillis(30);
+    // 超过这些阈值显示为延迟较高
+    private static final long DEGRADED_RTT_MS = 2_000;
+    private static final long DEGRADED_LAG_MS = 10_000;
+    private static final long BACKOFF_INITIAL_MS = 2_000;
+    private static final long BACKOFF_MAX_MS = TimeUnit.MINUTES.toMillis(5);
+
     private final Application application;
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ChatHistoryService chatHistoryService;
+    private final BotRegistry botRegistry;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "bot-monitor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final EventLagHistogram lagHistogram = new EventLagHistogram();
+    // 最近的事件延迟，用于判断当前是否延迟较高
+    private final LatencyTracker recentLag = new LatencyTracker(200);
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private volatile long lastEventAt;
+
+    // 以下状态只在 bot-monitor 线程读写
+    private BotHealth.State state = BotHealth.State.CONNECTING;
+    private boolean firstCheck = true;
+    private int probeFailures;
+    private long backoffMs = BACKOFF_INITIAL_MS;
+    private long nextReconnectAt;
+    private long reconnects;
+    private volatile BotHealth latest = new BotHealth(BotHealth.State.CONNECTING, 0, -1, -1, -1, "无事件", 0, -1, 0, "");
 
-    public BotConnectionMonitor(Application application) {
+    public BotConnectionMonitor(Application application, ChatHistoryService chatHistoryService,
+                                BotRegistry botRegistry, ApplicationEventPublisher eventPublisher) {
         this.application = application;
+        this.chatHistoryService = chatHistoryService;
+        this.botRegistry = botRegistry;
+        this.eventPublisher = eventPublisher;
     }
 
     /**
@@ -38,71 +94,254 @@ public class BotConnectionMonitor {
         log.info("✅ Bot 已成功连接并启动!");
         log.info("   Bot ID: {}", bot.getId());
         log.info("   Bot 类型: {}", bot.getClass().getSimpleName());
-        
+
         if (bot instanceof OneBotBot oneBotBot) {
             log.info("   QQ 号: {}", oneBotBot.getId());
             log.info("   OneBot 组件已成功连接到 NapCat!");
         }
         log.info("═══════════════════════════════════════════════════════════");
+        // 重新连上后从现在开始计算事件静默时间
+        lastEventAt = System.currentTimeMillis();
+        StartupTimer.reportBotConnected();
+    }
+
+    /**
+     * 群消息事件: 只记录事件延迟，消息内容由 GroupMemoryService 处理
+     */
+    @Listener
+    public void onGroupMessage(OneBotNormalGroupMessageEvent event) {
+        recordEvent(event.getSourceEvent().getTime());
+    }
+
+    @Listener
+    public void onFriendMessage(OneBotFriendMessageEvent event) {
+        recordEvent(event.getSourceEvent().getTime());
     }
 
     /**
-     * Spring 应用启动完成后检查 Bot 状态
+     * Spring 应用启动完成后在后台启动 Bot (配置中关闭了自动启动)，并开始定期检查 Bot 状态
      */
     @EventListener(ApplicationReadyEvent.class)
     public void onApplicationReady() {
-        log.info("Spring 应用已启动，开始检查 Simbot 连接状态...");
-        
-        // 延迟 5 秒检查，给 Bot 连接一些时间
-        scheduler.schedule(this::checkBotConnection, 5, TimeUnit.SECONDS);
+        log.info("Spring 应用已启动，开始连接 Bot 并监控 Simbot 连接状态...");
+        scheduler.execute(this::startBots);
+
+        // 延迟 5 秒开始，给 Bot 连接一些时间
+        scheduler.scheduleWithFixedDelay(this::checkSafely, 5, PROBE_INTERVAL_SECONDS, TimeUnit.SECONDS);
     }
 
-    private void checkBotConnection() {
-        log.info("══════════════ Simbot 连接状态检查 ══════════════");
-        
-        int botManagerCount = 0;
-        int botCount = 0;
-        
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 最近一次检查的结果
+     */
+    public BotHealth getHealth() {
+        return latest;
+    }
+
+    /**
+     * @param eventTimeSeconds OneBot 事件的 time 字段 (Unix 秒)
+     */
+    void recordEvent(long eventTimeSeconds) {
+        long now = System.currentTimeMillis();
+        lastEventAt = now;
+        eventsReceived.incrementAndGet();
+        if (eventTimeSeconds > 0) {
+            long lagMs = Math.max(0, now - eventTimeSeconds * 1000);
+            lagHistogram.record(lagMs);
+            recentLag.record(lagMs);
+        }
+    }
+
+    private void checkSafely() {
         try {
-            for (var botManager : application.getBotManagers()) {
-                botManagerCount++;
-                log.info("BotManager #{}: {}", botManagerCount, botManager.getClass().getSimpleName());
-                
-                for (Bot bot : botManager.allToList()) {
-                    botCount++;
-                    log.info("  └─ Bot #{}: ID={}, 类型={}", 
-                        botCount, bot.getId(), bot.getClass().getSimpleName());
-                    
-                    if (bot instanceof OneBotBot oneBotBot) {
-                        log.info("     ├─ QQ号: {}", oneBotBot.getId());
-                        log.info("     └─ 状态: 已连接 ✅");
-                    }
-                }
+            check();
+        } catch (Exception e) {
+            log.error("❌ 检查 Bot 连接状态时发生错误: {}", e.getMessage(), e);
+        }
+    }
+
+    private void check() {
+        List<Bot> bots = listBots();
+        // 补上错过启动事件的 Bot，移除已消失的
+        botRegistry.sync(bots);
+        if (firstCheck) {
+            firstCheck = false;
+            logStartupDiagnostics(bots);
+        }
+
+        long now = System.currentTimeMillis();
+        boolean allActive = !bots.isEmpty() && bots.stream().allMatch(Bot::isActive);
+
+        // 接口往返耗时
+        long rttMs = -1;
+        Boolean online = null;
+        long start = System.nanoTime();
+        try {
+            online = chatHistoryService.fetchOnlineStatus();
+            rttMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            probeFailures = 0;
+        } catch (IOException e) {
+            probeFailures++;
+            log.debug("NapCat 状态检查失败 ({} 次): {}", probeFailures, e.getMessage());
+        }
+
+        long silenceMs = lastEventAt > 0 ? now - lastEventAt : -1;
+        long lagP95 = recentLag.percentile(95);
+
+        BotHealth.State newState;
+        String detail;
+        boolean needReconnect = false;
+        if (bots.isEmpty()) {
+            newState = BotHealth.State.DISCONNECTED;
+            detail = "没有已连接的 Bot";
+        } else if (!allActive) {
+            newState = BotHealth.State.DISCONNECTED;
+            detail = "Bot 已停止";
+            needReconnect = true;
+        } else if (probeFailures >= STALL_PROBE_FAILURES) {
+            newState = BotHealth.State.STALLED;
+            detail = "NapCat 接口连续 " + probeFailures + " 次无响应";
+            needReconnect = true;
+        } else if (rttMs >= 0 && silenceMs > EVENT_SILENCE_MS) {
+            newState = BotHealth.State.STALLED;
+            detail = "已 " + TimeUnit.MILLISECONDS.toMinutes(silenceMs) + " 分钟没有收到事件";
+            needReconnect = true;
+        } else if (Boolean.FALSE.equals(online)) {
+            // QQ 掉线需要在 NapCat 重新登录，重连 WebSocket 没有用
+            newState = BotHealth.State.DISCONNECTED;
+            detail = "NapCat 报告 QQ 已离线";
+        } else if (rttMs > DEGRADED_RTT_MS || lagP95 > DEGRADED_LAG_MS) {
+            newState = BotHealth.State.DEGRADED;
+            detail = "";
+        } else {
+            newState = probeFailures > 0 ? state : BotHealth.State.CONNECTED;
+            detail = "";
+        }
+
+        if (needReconnect) {
+            if (now >= nextReconnectAt) {
+                reconnect(bots, detail);
+                newState = BotHealth.State.RECONNECTING;
             }
-            
-            if (botManagerCount == 0) {
-                log.error("❌ 未找到任何 BotManager!");
-                log.error("   请检查 OneBot 组件是否正确配置");
-            } else if (botCount == 0) {
-                log.warn("⚠️ BotManager 已加载，但没有任何 Bot 连接");
-                log.warn("   可能原因:");
-                log.warn("   1. simbot-bots/*.bot.json 配置文件格式错误");
-                log.warn("   2. NapCat 未运行或连接地址错误");
-                log.warn("   3. Token 验证失败");
-                log.warn("   请检查上方日志中的错误信息");
+        } else if (newState == BotHealth.State.CONNECTED || newState == BotHealth.State.DEGRADED) {
+            backoffMs = BACKOFF_INITIAL_MS;
+            nextReconnectAt = 0;
+        }
+
+        if (newState != state) {
+            if (newState == BotHealth.State.CONNECTED) {
+                log.info("Bot 连接状态: {} -> {}", state.getLabel(), newState.getLabel());
             } else {
-                log.info("✅ 共找到 {} 个 BotManager, {} 个 Bot 已连接", botManagerCount, botCount);
+                log.warn("Bot 连接状态: {} -> {} {}", state.getLabel(), newState.getLabel(), detail);
             }
-            
-        } catch (Exception e) {
-            log.error("❌ 检查 Bot 连接状态时发生错误: {}", e.getMessage(), e);
+            state = newState;
+        }
+
+        BotHealth health = new BotHealth(state, bots.size(), rttMs, recentLag.percentile(50), lagP95,
+                lagHistogram.toString(), eventsReceived.get(), silenceMs, reconnects, detail);
+        latest = health;
+        log.debug("Bot 健康检查: {}", health);
+        eventPublisher.publishEvent(new BotHealthEvent(this, health));
+    }
+
+    /**
+     * 重启所有 Bot，下一次允许重连的时间按指数退避
+     */
+    private void reconnect(List<Bot> bots, String reason) {
+        reconnects++;
+        log.warn("Bot 连接异常 ({})，第 {} 次尝试重连，下次最早 {} 秒后", reason, reconnects, backoffMs / 1000);
+        for (Bot bot : bots) {
+            try {
+                bot.startAsync().whenComplete((v, ex) -> {
+                    if (ex != null) {
+                        log.warn("Bot {} 重连失败: {}", bot.getId(), ex.getMessage());
+                    }
+                });
+            } catch (Exception e) {
+                log.warn("Bot {} 重连失败: {}", bot.getId(), e.getMessage());
+            }
+        }
+        nextReconnectAt = System.currentTimeMillis() + backoffMs;
+        backoffMs = Math.min(backoffMs * 2, BACKOFF_MAX_MS);
+        probeFailures = 0;
+        // 给重连留出时间，避免立即再次判定为静默
+        lastEventAt = System.currentTimeMillis();
+    }
+
+    private void startBots() {
+        for (Bot bot : listBots()) {
+            if (bot.isStarted()) {
+                continue;
+            }
+            try {
+                bot.startAsync().whenComplete((v, ex) -> {
+                    if (ex != null) {
+                        log.warn("Bot {} 启动失败: {}", bot.getId(), ex.getMessage());
+                    }
+                });
+            } catch (Exception e) {
+                log.warn("Bot {} 启动失败: {}", bot.getId(), e.getMessage());
+            }
+        }
+    }
+
+    private List<Bot> listBots() {
+        List<Bot> bots = new ArrayList<>();
+        for (var botManager : application.getBotManagers()) {
+            bots.addAll(botManager.allToList());
+        }
+        return bots;
+    }
+
+    private void logStartupDiagnostics(List<Bot> bots) {
+        log.info("══════════════ Simbot 连接状态检查 ══════════════");
+        int botManagerCount = 0;
+        for (var botManager : application.getBotManagers()) {
+            botManagerCount++;
+            log.info("BotManager #{}: {}", botManagerCount, botManager.getClass().getSimpleName());
+        }
+        for (Bot bot : bots) {
+            log.info("  └─ Bot: ID={}, 类型={}, 状态={}", bot.getId(), bot.getClass().getSimpleName(),
+                    bot.isActive() ? "已连接 ✅" : "未连接");
+        }
+        if (botManagerCount == 0) {
+            log.error("❌ 未找到任何 BotManager!");
+            log.error("   请检查 OneBot 组件是否正确配置");
+        } else if (bots.isEmpty()) {
+            log.warn("⚠️ BotManager 已加载，但没有任何 Bot 连接");
+            log.warn("   可能原因:");
+            log.warn("   1. simbot-bots/*.bot.json 配置文件格式错误");
+            log.warn("   2. NapCat 未运行或连接地址错误");
+            log.warn("   3. Token 验证失败");
+            log.warn("   请检查上方日志中的错误信息");
+        } else {
+            log.info("✅ 共找到 {} 个 BotManager, {} 个 Bot", botManagerCount, bots.size());
         }
-        
         log.info("═══════════════════════════════════════════════════════════");
     }
 
     @PostConstruct
     public void init() {
-        log.info("BotConnectionMonitor 已初始化，将在应用启动后监控 Bot 连接状态");
+        log.info("BotConnectionMonitor 已初始化，将在应用启动后持续监控 Bot 连接状态");
+    }
+
+    /**
+     * 每次健康检查后发布 (在 bot-monitor 线程)
+     */
+    public static class BotHealthEvent extends ApplicationEvent {
+        private final BotHealth health;
+
+        public BotHealthEvent(Object source, BotHealth health) {
+            super(source);
+            this.health = health;
+        }
+
+        public BotHealth getHealth() {
+            return health;
+        }
     }
 }
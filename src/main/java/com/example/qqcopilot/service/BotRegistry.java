@@ -0,0 +1,146 @@
+package com.example.qqcopilot.service;
+
+import love.forte.simbot.bot.Bot;
+import love.forte.simbot.component.onebot.v11.core.bot.OneBotBot;
+import love.forte.simbot.event.BotStartedEvent;
+import love.forte.simbot.quantcat.common.annotations.Listener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 多账号 Bot 注册表和聊天路由
+ * - Bot 启动时登记 (BotStartedEvent)，BotConnectionMonitor 每次检查时再同步一次，补上错过的启动事件并移除已消失的 Bot
+ * - 每条消息记录它是哪个账号收到的，发送时按聊天直接查到对应账号，不再每次遍历所有 BotManager
+ * - 同一个群里有多个账号时，由最先收到该群消息的账号负责，其他账号收到的重复事件不再记录；
+ *   负责的账号掉线后由下一个收到消息的账号接管
+ * 聊天 Key 不区分账号，不同账号与同一个好友的私聊会合并显示，回复走最近收到消息的账号
+ */
+@Service
+public class BotRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(BotRegistry.class);
+
+    // Bot ID -> Bot
+    private final Map<String, OneBotBot> bots = new ConcurrentHashMap<>();
+    // 聊天 Key -> 负责的 Bot ID
+    private final Map<String, String> routes = new ConcurrentHashMap<>();
+
+    /**
+     * 监听 Simbot 的 Bot 启动事件 (包括重连后的再次启动)
+     */
+    @Listener
+    public void onBotStarted(BotStartedEvent event) {
+        register(event.getBot());
+    }
+
+    /**
+     * 登记一个 Bot，同一 ID 的旧实例被替换
+     */
+    public void register(Bot bot) {
+        if (bot instanceof OneBotBot oneBotBot) {
+            OneBotBot previous = bots.put(idOf(bot), oneBotBot);
+            if (previous == null) {
+                log.info("已登记 Bot {} (共 {} 个)", idOf(bot), bots.size());
+            }
+        }
+    }
+
+    /**
+     * 与 BotManager 中的当前 Bot 列表同步: 新的登记，消失的移除 (连同指向它的路由)
+     */
+    public void sync(Collection<Bot> current) {
+        Set<String> ids = new HashSet<>();
+        for (Bot bot : current) {
+            if (bot instanceof OneBotBot) {
+                ids.add(idOf(bot));
+                register(bot);
+            }
+        }
+        for (String id : new ArrayList<>(bots.keySet())) {
+            if (!ids.contains(id)) {
+                bots.remove(id);
+                routes.values().removeIf(id::equals);
+                log.info("Bot {} 已移除", id);
+            }
+        }
+    }
+
+    /**
+     * 群消息到达时调用，记录路由并判断是否由这个账号负责记录
+     * @return 这个账号负责该群时返回 true；其他账号在负责时返回 false (重复事件)
+     */
+    public boolean claimGroup(String chatKey, Bot receiver) {
+        if (receiver == null) {
+            return true;
+        }
+        String receiverId = idOf(receiver);
+        register(receiver);
+        String owner = routes.compute(chatKey, (key, current) ->
+                current == null || current.equals(receiverId) || !isActive(bots.get(current)) ? receiverId : current);
+        return owner.equals(receiverId);
+    }
+
+    /**
+     * 私聊消息到达时调用，回复走最近收到消息的账号
+     */
+    public void recordFriend(String chatKey, Bot receiver) {
+        if (receiver == null) {
+            return;
+        }
+        register(receiver);
+        routes.put(chatKey, idOf(receiver));
+    }
+
+    /**
+     * 查找负责该聊天的 Bot，只返回在线的 Bot
+     * 没有路由或负责的 Bot 已停止 (掉线、被取消，还没等到 BotConnectionMonitor 同步移除) 时返回任意一个在线的 Bot
+     * @return 没有在线的 Bot 时返回 null
+     */
+    public OneBotBot route(String chatKey) {
+        String botId = chatKey != null ? routes.get(chatKey) : null;
+        if (botId != null) {
+            OneBotBot bot = bots.get(botId);
+            if (isActive(bot)) {
+                return bot;
+            }
+        }
+        return anyActive();
+    }
+
+    /**
+     * 是否登记过 Bot (不论是否在线)，用于区分 "从未连接" 和 "暂时掉线"
+     */
+    public boolean hasBots() {
+        return !bots.isEmpty();
+    }
+
+    public List<OneBotBot> getBots() {
+        return new ArrayList<>(bots.values());
+    }
+
+    private OneBotBot anyActive() {
+        for (OneBotBot bot : bots.values()) {
+            if (isActive(bot)) {
+                return bot;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isActive(Bot bot) {
+        return bot != null && bot.isActive();
+    }
+
+    private static String idOf(Bot bot) {
+        return bot.getId().toString();
+    }
+}
@@ -4,19 +4,22 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 通过 OneBot HTTP API 获取群聊历史消息
@@ -30,14 +33,57 @@ public class ChatHistoryService {
     private static final String API_HOST = "http://localhost:6199";
     private static final String ACCESS_TOKEN = "*#Aki#@c1F4S$#{R";
 
-    private final HttpClient httpClient;
+    private final OkHttpClient httpClient;
     private final Gson gson;
+    private final Tracer tracer;
 
-    public ChatHistoryService() {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
+    public ChatHistoryService(OkHttpClient httpClient, Tracer tracer) {
+        // 派生的客户端共享连接池和调度器
+        this.httpClient = httpClient.newBuilder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .callTimeout(15, TimeUnit.SECONDS)
                 .build();
         this.gson = new Gson();
+        this.tracer = tracer;
+    }
+
+    /**
+     * 调用 NapCat HTTP API
+     * @return 响应体；HTTP 状态非 200 时返回 null
+     */
+    private String callApi(String action, Map<String, Object> requestMap) throws IOException {
+        Request request = new Request.Builder()
+                .url(API_HOST + "/" + action)
+                .header("Authorization", "Bearer " + ACCESS_TOKEN)
+                .post(RequestBody.create(gson.toJson(requestMap), MediaType.get("application/json")))
+                .build();
+
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.code() != 200) {
+                log.warn("HTTP 请求失败: {}", response.code());
+                return null;
+            }
+            ResponseBody body = response.body();
+            return body != null ? body.string() : null;
+        }
+    }
+
+    /**
+     * 查询 NapCat 的在线状态 (get_status)，用于连接健康检查
+     * @return QQ 是否在线；响应格式不对时返回 null
+     * @throws IOException 接口不可达或返回非 200
+     */
+    public Boolean fetchOnlineStatus() throws IOException {
+        String responseBody = callApi("get_status", Map.of());
+        if (responseBody == null) {
+            throw new IOException("get_status 请求失败");
+        }
+        JsonObject root = gson.fromJson(responseBody, JsonObject.class);
+        if (root == null || !root.has("data") || !root.get("data").isJsonObject()) {
+            return null;
+        }
+        JsonObject data = root.getAsJsonObject("data");
+        return data.has("online") ? data.get("online").getAsBoolean() : null;
     }
 
     /**
@@ -47,6 +93,13 @@ public class ChatHistoryService {
      * @return 格式化的消息列表
      */
     public List<String> fetchGroupHistory(String groupId, int count) {
+        return fetchGroupHistory(groupId, count, tracer.start(Tracer.HISTORY, GroupMemoryService.groupKey(groupId)));
+    }
+
+    /**
+     * 获取群聊历史消息，请求和解析的耗时记录到 trace 中
+     */
+    public List<String> fetchGroupHistory(String groupId, int count, Tracer.Trace trace) {
         List<String> messages = new ArrayList<>();
 
         try {
@@ -55,21 +108,12 @@ public class ChatHistoryService {
             requestMap.put("group_id", Long.parseLong(groupId));
             requestMap.put("message_seq", 0); // 0 表示获取最新消息
             requestMap.put("count", count);
-            
-            String requestBody = gson.toJson(requestMap);
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(API_HOST + "/get_group_msg_history"))
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + ACCESS_TOKEN)
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .timeout(Duration.ofSeconds(15))
-                    .build();
+            String responseBody = callApi("get_group_msg_history", requestMap);
+            trace.mark("HTTP");
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                JsonObject root = gson.fromJson(response.body(), JsonObject.class);
+            if (responseBody != null) {
+                JsonObject root = gson.fromJson(responseBody, JsonObject.class);
                 
                 // 检查返回状态
                 if (root.has("retcode") && root.get("retcode").getAsInt() == 0) {
@@ -84,16 +128,17 @@ public class ChatHistoryService {
                             }
                         }
                     }
+                    trace.mark("解析", messages.size() + " 条");
                 } else {
                     String errMsg = root.has("message") ? root.get("message").getAsString() : "未知错误";
                     log.warn("获取群历史消息失败: {}", errMsg);
+                    trace.fail("解析", errMsg);
                 }
-            } else {
-                log.warn("HTTP 请求失败: {}", response.statusCode());
             }
 
         } catch (Exception e) {
             log.error("获取群历史消息异常", e);
+            trace.fail("请求失败", e.getMessage());
         }
 
         return messages;
@@ -194,6 +239,13 @@ public class ChatHistoryService {
      * @return 格式化的消息列表
      */
     public List<String> fetchFriendHistory(String friendId, int count) {
+        return fetchFriendHistory(friendId, count, tracer.start(Tracer.HISTORY, GroupMemoryService.friendKey(friendId)));
+    }
+
+    /**
+     * 获取好友私聊历史消息，请求和解析的耗时记录到 trace 中
+     */
+    public List<String> fetchFriendHistory(String friendId, int count, Tracer.Trace trace) {
         List<String> messages = new ArrayList<>();
 
         try {
@@ -202,23 +254,14 @@ public class ChatHistoryService {
             requestMap.put("user_id", Long.parseLong(friendId));
             requestMap.put("message_seq", 0); // 0 表示获取最新消息
             requestMap.put("count", count);
-            
-            String requestBody = gson.toJson(requestMap);
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(API_HOST + "/get_friend_msg_history"))
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + ACCESS_TOKEN)
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .timeout(Duration.ofSeconds(15))
-                    .build();
+            String responseBody = callApi("get_friend_msg_history", requestMap);
+            trace.mark("HTTP");
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            
-            log.debug("好友历史消息响应: {}", response.body());
+            log.debug("好友历史消息响应: {}", responseBody);
 
-            if (response.statusCode() == 200) {
-                JsonObject root = gson.fromJson(response.body(), JsonObject.class);
+            if (responseBody != null) {
+                JsonObject root = gson.fromJson(responseBody, JsonObject.class);
                 
                 // 检查返回状态
                 if (root.has("retcode") && root.get("retcode").getAsInt() == 0) {
@@ -233,17 +276,18 @@ public class ChatHistoryService {
                             }
                         }
                     }
+                    trace.mark("解析", messages.size() + " 条");
                     log.info("获取好友 {} 历史消息成功，共 {} 条", friendId, messages.size());
                 } else {
                     String errMsg = root.has("message") ? root.get("message").getAsString() : "未知错误";
                     log.warn("获取好友历史消息失败: {}", errMsg);
+                    trace.fail("解析", errMsg);
                 }
-            } else {
-                log.warn("HTTP 请求失败: {}", response.statusCode());
             }
 
         } catch (Exception e) {
             log.error("获取好友历史消息异常", e);
+            trace.fail("请求失败", e.getMessage());
         }
 
         return messages;
@@ -0,0 +1,255 @@
+package com.example.qqcopilot.service;
+
+import com.example.qqcopilot.config.AiConfig;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 长聊天记录滚动摘要
+ * 超出最近上下文窗口的旧消息 (被裁剪或被挤出内存的) 按块在后台压缩:
+ * - map: 每块旧消息单独摘要
+ * - reduce: 已有摘要 + 新的块摘要合并成新的滚动摘要
+ * 分析时只发送 摘要 + 最近的消息，提示词大小基本恒定
+ * 只为分析过的聊天做摘要，避免给所有群都花 AI 调用
+ */
+@Service
+public class ChatSummaryService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatSummaryService.class);
+
+    // 摘要失败时回填的待处理消息上限 (按块数)
+    private static final int MAX_PENDING_CHUNKS = 4;
+
+    private static final String MAP_PROMPT =
+            "你是聊天记录整理助手。请用简洁的中文概括下面这段聊天记录，保留关键人物、话题、事件、情绪和没有结论的问题。" +
+            "忽略 (图片)、(表情) 等占位符。不超过 200 字，只输出摘要正文。";
+    private static final String REDUCE_PROMPT =
+            "你是聊天记录整理助手。下面是一段聊天的已有背景摘要和之后新增的片段摘要。" +
+            "请把它们合并成一份按时间顺序、连贯的背景摘要，保留长期有用的信息（人物关系、持续的话题、约定、梗），删去过时的细节。" +
+            "不超过 %d 字，只输出摘要正文。";
+
+    private final AiConfig aiConfig;
+    private final AiClient aiClient;
+    private final AiRequestScheduler scheduler;
+    private final TokenEstimator tokenEstimator;
+    private final GroupMemoryService groupMemoryService;
+    private final UsageStore usageStore;
+
+    private final Map<String, SummaryState> states = new ConcurrentHashMap<>();
+    private final AtomicLong jobSequence = new AtomicLong();
+
+    public ChatSummaryService(AiConfig aiConfig, AiClient aiClient, AiRequestScheduler scheduler,
+                              TokenEstimator tokenEstimator, GroupMemoryService groupMemoryService,
+                              UsageStore usageStore) {
+        this.aiConfig = aiConfig;
+        this.aiClient = aiClient;
+        this.scheduler = scheduler;
+        this.tokenEstimator = tokenEstimator;
+        this.groupMemoryService = groupMemoryService;
+        this.usageStore = usageStore;
+    }
+
+    @PostConstruct
+    public void init() {
+        // 被挤出内存的消息也进入摘要 (只针对已经分析过的聊天)
+        groupMemoryService.registerEvictionCallback((chatKey, sequence, message) -> {
+            if (states.containsKey(chatKey)) {
+                offer(chatKey, sequence, List.of(message));
+            }
+        });
+    }
+
+    /**
+     * 获取聊天当前的滚动摘要
+     * @return 没有摘要时返回空字符串
+     */
+    public String getSummary(String chatKey) {
+        SummaryState state = states.get(chatKey);
+        if (state == null) {
+            return "";
+        }
+        synchronized (state) {
+            return state.summary;
+        }
+    }
+
+    /**
+     * 提交不再进入上下文的旧消息，攒够一块后在后台摘要
+     * 按序号记录已经提交到哪里，同一位置的消息只摘要一次；内容相同的不同消息 ("+1"、"好的") 各算一条
+     * @param firstSequence 第一条消息的序号 (见 {@link GroupMemoryService#getHistoryWindow})
+     * @param olderMessages 按时间顺序排列的连续旧消息
+     */
+    public void offer(String chatKey, long firstSequence, List<String> olderMessages) {
+        if (!aiConfig.isSummaryEnabled()) {
+            return;
+        }
+        SummaryState state = states.computeIfAbsent(chatKey, k -> new SummaryState());
+        boolean shouldRun;
+        synchronized (state) {
+            for (int i = 0; i < olderMessages.size(); i++) {
+                long sequence = firstSequence + i;
+                if (sequence < state.offeredUntil) {
+                    continue;
+                }
+                String message = olderMessages.get(i);
+                state.pending.addLast(message);
+                state.pendingTokens += tokenEstimator.estimate(message);
+                state.offeredUntil = sequence + 1;
+            }
+            // 超过每日用量上限时暂停摘要，旧消息先攒着
+            shouldRun = !state.running && state.pendingTokens >= aiConfig.getSummaryChunkTokens()
+                    && !usageStore.isOverBudget();
+            if (shouldRun) {
+                state.running = true;
+            }
+        }
+        if (shouldRun) {
+            runSummary(chatKey, state);
+        }
+    }
+
+    private void runSummary(String chatKey, SummaryState state) {
+        List<List<String>> chunks;
+        String previous;
+        synchronized (state) {
+            chunks = drainChunks(state);
+            previous = state.summary;
+        }
+        String model = aiConfig.getModel();
+
+        // map: 每块单独摘要，各自经过调度器限流
+        List<CompletableFuture<String>> partials = new ArrayList<>();
+        for (List<String> chunk : chunks) {
+            String input = String.join("\n", chunk);
+            partials.add(scheduler.submit("summary-map:" + chatKey + ":" + jobSequence.incrementAndGet(),
+                    AiRequestScheduler.Priority.BACKGROUND,
+                    queueWaitMs -> aiClient.completeAsync(chatKey, model, MAP_PROMPT, input)));
+        }
+
+        // reduce: 合并已有摘要和新的块摘要
+        CompletableFuture.allOf(partials.toArray(new CompletableFuture[0]))
+                .thenCompose(v -> {
+                    List<String> parts = new ArrayList<>();
+                    partials.forEach(f -> parts.add(f.join().trim()));
+                    if (previous.isEmpty() && parts.size() == 1) {
+                        return CompletableFuture.completedFuture(parts.get(0));
+                    }
+                    String input = buildReduceInput(previous, parts);
+                    String prompt = String.format(REDUCE_PROMPT, aiConfig.getSummaryMaxTokens());
+                    return scheduler.submit("summary-reduce:" + chatKey + ":" + jobSequence.incrementAndGet(),
+                            AiRequestScheduler.Priority.BACKGROUND,
+                            queueWaitMs -> Futures.thenApply(aiClient.completeAsync(chatKey, model, prompt, input), String::trim));
+                })
+                .whenComplete((summary, ex) -> {
+                    boolean again;
+                    synchronized (state) {
+                        if (ex == null) {
+                            state.summary = clip(summary);
+                            log.info("聊天 {} 摘要已更新 ({} tokens)", chatKey, tokenEstimator.estimateUncached(state.summary));
+                        } else {
+                            log.warn("聊天 {} 摘要失败: {}", chatKey, ex.getMessage());
+                            requeue(state, chunks);
+                        }
+                        state.running = false;
+                        again = ex == null && state.pendingTokens >= aiConfig.getSummaryChunkTokens()
+                                && !usageStore.isOverBudget();
+                        if (again) {
+                            state.running = true;
+                        }
+                    }
+                    if (again) {
+                        runSummary(chatKey, state);
+                    }
+                });
+    }
+
+    /**
+     * 按 summaryChunkTokens 把待处理消息切块
+     */
+    private List<List<String>> drainChunks(SummaryState state) {
+        int chunkTokens = aiConfig.getSummaryChunkTokens();
+        List<List<String>> chunks = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int currentTokens = 0;
+        while (!state.pending.isEmpty()) {
+            String message = state.pending.pollFirst();
+            int tokens = tokenEstimator.estimate(message);
+            if (!current.isEmpty() && currentTokens + tokens > chunkTokens) {
+                chunks.add(current);
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            current.add(message);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        state.pendingTokens = 0;
+        return chunks;
+    }
+
+    /**
+     * 失败的块放回待处理队列头部，超过上限时丢弃最旧的
+     */
+    private void requeue(SummaryState state, List<List<String>> chunks) {
+        int maxTokens = aiConfig.getSummaryChunkTokens() * MAX_PENDING_CHUNKS;
+        for (int i = chunks.size() - 1; i >= 0; i--) {
+            List<String> chunk = chunks.get(i);
+            for (int j = chunk.size() - 1; j >= 0; j--) {
+                state.pending.addFirst(chunk.get(j));
+                state.pendingTokens += tokenEstimator.estimate(chunk.get(j));
+            }
+        }
+        while (state.pendingTokens > maxTokens && !state.pending.isEmpty()) {
+            state.pendingTokens -= tokenEstimator.estimate(state.pending.pollFirst());
+        }
+    }
+
+    private String buildReduceInput(String previous, List<String> parts) {
+        StringBuilder sb = new StringBuilder();
+        if (!previous.isEmpty()) {
+            sb.append("已有摘要：\n").append(previous).append("\n\n");
+        }
+        sb.append("新增片段摘要：\n");
+        for (int i = 0; i < parts.size(); i++) {
+            sb.append(i + 1).append(". ").append(parts.get(i)).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 模型不听话写长了就截断，保证提示词大小稳定
+     */
+    private String clip(String summary) {
+        int maxTokens = aiConfig.getSummaryMaxTokens();
+        if (tokenEstimator.estimateUncached(summary) <= maxTokens) {
+            return summary;
+        }
+        int end = summary.length();
+        while (end > 0 && tokenEstimator.estimateUncached(summary.substring(0, end)) > maxTokens) {
+            end = end * 3 / 4;
+        }
+        return summary.substring(0, end) + "…";
+    }
+
+    private static class SummaryState {
+        String summary = "";
+        final Deque<String> pending = new ArrayDeque<>();
+        int pendingTokens;
+        boolean running;
+        // 序号小于它的消息已经提交过 (在待处理队列里或已摘要)；合并进来的更早的外部历史也不会再补进摘要
+        long offeredUntil = Long.MIN_VALUE;
+    }
+}
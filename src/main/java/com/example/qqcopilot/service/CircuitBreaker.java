@@ -0,0 +1,102 @@
+package com.example.qqcopilot.service;
+
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * 单个接口的熔断器
+ * - 关闭: 正常放行，连续失败达到阈值后打开
+ * - 打开: 直接拒绝，冷却时间过后进入半开
+ * - 半开: 只放行一个探测请求，成功则关闭，失败则重新打开
+ */
+class CircuitBreaker {
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    /**
+     * 放行结果: 半开状态下放行的那一个请求是 PROBE，只有它结束时才释放探测名额
+     */
+    enum Permit {DENIED, ALLOWED, PROBE}
+
+    private final IntSupplier failureThreshold;
+    private final LongSupplier openMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    CircuitBreaker(IntSupplier failureThreshold, LongSupplier openMs) {
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+    }
+
+    /**
+     * 只查看状态，不占用探测名额，用于挑选候选接口
+     * @return 当前发起请求一定会被拒绝时返回 true (打开且未冷却完，或半开且探测请求在途)
+     */
+    synchronized boolean isOpen() {
+        if (state == State.OPEN) {
+            return System.currentTimeMillis() - openedAt < openMs.getAsLong();
+        }
+        return state == State.HALF_OPEN && probeInFlight;
+    }
+
+    /**
+     * 真正发起请求前调用
+     * @return 是否允许发起请求；半开状态下放行的请求就是探测请求 (PROBE)
+     */
+    synchronized Permit allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMs.getAsLong()) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        switch (state) {
+            case CLOSED:
+                return Permit.ALLOWED;
+            case HALF_OPEN:
+                if (probeInFlight) {
+                    return Permit.DENIED;
+                }
+                probeInFlight = true;
+                return Permit.PROBE;
+            default:
+                return Permit.DENIED;
+        }
+    }
+
+    synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    /**
+     * @return 这次失败是否让熔断器打开
+     */
+    synchronized boolean recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold.getAsInt()) {
+            boolean opened = state != State.OPEN;
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            probeInFlight = false;
+            return opened;
+        }
+        return false;
+    }
+
+    /**
+     * 请求被取消 (对冲中输掉的一方) 不算成功也不算失败；它是探测请求时释放探测名额
+     * 关闭状态下放行的请求 (普通请求、对冲请求) 结束时不能动名额，否则半开期间会放进第二个探测请求
+     */
+    synchronized void recordIgnored(Permit permit) {
+        if (permit == Permit.PROBE) {
+            probeInFlight = false;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.qqcopilot.service;
+
+import com.example.qqcopilot.config.AiConfig;
+import com.example.qqcopilot.config.AiEndpoint;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 连接预热
+ * 启动完成和配置变更后，在后台向每个 AI 接口发一个 HEAD 请求，
+ * 提前完成 DNS 解析、TCP 和 TLS 握手，连接留在共享连接池里，第一次分析不再付建连的开销
+ */
+@Component
+public class ConnectionWarmer {
+
+    private static final Logger log = LoggerFactory.getLogger(ConnectionWarmer.class);
+
+    private final AiConfig aiConfig;
+    private final OkHttpClient client;
+
+    public ConnectionWarmer(AiConfig aiConfig, OkHttpClient client) {
+        this.aiConfig = aiConfig;
+        this.client = client;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        warmUp();
+    }
+
+    @EventListener(AiConfig.AiConfigChangedEvent.class)
+    public void onConfigChanged() {
+        warmUp();
+    }
+
+    /**
+     * 异步预热所有已配置的接口，不阻塞调用方
+     */
+    public void warmUp() {
+        Set<String> urls = new LinkedHashSet<>();
+        for (AiEndpoint endpoint : aiConfig.getEndpoints()) {
+            String url = AiClient.buildChatCompletionsUrl(endpoint.getApiUrl());
+            if (!url.isEmpty()) {
+                urls.add(url);
+            }
+        }
+        for (String url : urls) {
+            Request request;
+            try {
+                // HEAD 不带鉴权也不产生费用，服务端返回 404/405 也无妨，目的只是建好连接
+                request = new Request.Builder().url(url).head().build();
+            } catch (IllegalArgumentException e) {
+                log.debug("跳过无效的接口地址: {}", url);
+                continue;
+            }
+            long start = System.nanoTime();
+            client.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                    log.info("连接预热完成 {} ({} ms, {})", url, (System.nanoTime() - start) / 1_000_000, response.protocol());
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    log.debug("连接预热失败 {}: {}", url, e.getMessage());
+                }
+            });
+        }
+    }
+}
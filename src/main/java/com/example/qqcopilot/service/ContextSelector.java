@@ -0,0 +1,267 @@
+package com.example.qqcopilot.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按相关性挑选上下文
+ * 预算装不下全部聊天记录时:
+ * 1. 先从最新往前保留一段最近消息 (占预算的 recentContextRatio)
+ * 2. 以最新几条消息为查询，用 BM25 给更早的消息打分 (中文按字二元组切词，英文按单词)，
+ *    按分数从高到低放入剩余预算
+ * 3. 还有剩余预算时按时间从近到远补齐
+ * 最终按原来的时间顺序输出
+ * 每个聊天最多保留 99 条消息，每次选择时现建索引，分词结果按消息缓存
+ */
+@Component
+public class ContextSelector {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // 作为查询的最新消息条数
+    private static final int QUERY_MESSAGES = 3;
+    private static final int CACHE_SIZE = 4096;
+
+    // 消息格式: "[昵称]: 内容"
+    private static final Pattern SENDER = Pattern.compile("^\\[([^\\]]*)\\]:\\s*");
+    // (图片)、(表情) 等占位符不参与打分
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\([^()]{1,8}\\)");
+
+    private final TokenEstimator tokenEstimator;
+
+    private final Map<String, List<String>> termCache = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    public ContextSelector(TokenEstimator tokenEstimator) {
+        this.tokenEstimator = tokenEstimator;
+    }
+
+    /**
+     * 在预算内挑选消息
+     * @param history 按时间顺序排列的聊天记录
+     * @param budgetTokens token 预算，最新的一条消息无论如何都会保留
+     * @param recentRatio 预算中留给最近消息的比例 (0~1]
+     */
+    public Selection select(List<String> history, int budgetTokens, double recentRatio) {
+        int n = history.size();
+        int[] costs = new int[n];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            costs[i] = tokenEstimator.estimate(history.get(i)) + AiAnalysisService.PER_MESSAGE_OVERHEAD_TOKENS;
+            total += costs[i];
+        }
+        if (total <= budgetTokens) {
+            return new Selection(history, 0);
+        }
+
+        // 1. 最近的消息
+        int tailBudget = (int) (budgetTokens * Math.max(0.0, Math.min(1.0, recentRatio)));
+        int used = 0;
+        int tailStart = n;
+        for (int i = n - 1; i >= 0; i--) {
+            if (used + costs[i] > tailBudget && tailStart < n) {
+                break;
+            }
+            used += costs[i];
+            tailStart = i;
+        }
+        boolean[] selected = new boolean[n];
+        Arrays.fill(selected, tailStart, n, true);
+
+        // 2. 相关性
+        if (tailStart > 0 && used < budgetTokens) {
+            double[] scores = score(history, tailStart);
+            List<Integer> candidates = new ArrayList<>();
+            for (int i = 0; i < tailStart; i++) {
+                if (scores[i] > 0) {
+                    candidates.add(i);
+                }
+            }
+            candidates.sort((a, b) -> Double.compare(scores[b], scores[a]));
+            for (int i : candidates) {
+                if (used + costs[i] <= budgetTokens) {
+                    selected[i] = true;
+                    used += costs[i];
+                }
+            }
+        }
+
+        // 3. 按时间从近到远补齐
+        for (int i = tailStart - 1; i >= 0 && used < budgetTokens; i--) {
+            if (!selected[i] && used + costs[i] <= budgetTokens) {
+                selected[i] = true;
+                used += costs[i];
+            }
+        }
+
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (selected[i]) {
+                messages.add(history.get(i));
+            }
+        }
+        return new Selection(messages, tailStart);
+    }
+
+    /**
+     * 以最新几条消息为查询，对 [0, end) 范围内的消息计算 BM25 分数
+     */
+    private double[] score(List<String> history, int end) {
+        int n = history.size();
+        List<List<String>> docs = new ArrayList<>(n);
+        Map<String, Integer> documentFrequency = new HashMap<>();
+        long totalLength = 0;
+        for (String message : history) {
+            List<String> terms = terms(message);
+            docs.add(terms);
+            totalLength += terms.size();
+            for (String term : new HashSet<>(terms)) {
+                documentFrequency.merge(term, 1, Integer::sum);
+            }
+        }
+        double avgLength = Math.max(1.0, (double) totalLength / n);
+
+        Set<String> query = new HashSet<>();
+        for (int i = Math.max(0, n - QUERY_MESSAGES); i < n; i++) {
+            query.addAll(docs.get(i));
+        }
+
+        double[] scores = new double[end];
+        for (int i = 0; i < end; i++) {
+            List<String> doc = docs.get(i);
+            if (doc.isEmpty()) {
+                continue;
+            }
+            Map<String, Integer> tf = new HashMap<>();
+            for (String term : doc) {
+                if (query.contains(term)) {
+                    tf.merge(term, 1, Integer::sum);
+                }
+            }
+            double score = 0;
+            double norm = K1 * (1 - B + B * doc.size() / avgLength);
+            for (Map.Entry<String, Integer> entry : tf.entrySet()) {
+                int df = documentFrequency.get(entry.getKey());
+                double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+                int f = entry.getValue();
+                score += idf * f * (K1 + 1) / (f + norm);
+            }
+            scores[i] = score;
+        }
+        return scores;
+    }
+
+    /**
+     * 分词: 发送者作为一个词，连续的汉字/假名/谚文切成二元组 (单字保留单字)，字母数字按单词小写
+     */
+    List<String> terms(String message) {
+        synchronized (termCache) {
+            List<String> cached = termCache.get(message);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        List<String> terms = new ArrayList<>();
+        String body = message;
+        Matcher sender = SENDER.matcher(message);
+        if (sender.find()) {
+            terms.add("@" + sender.group(1));
+            body = message.substring(sender.end());
+        }
+        body = PLACEHOLDER.matcher(body).replaceAll(" ");
+
+        StringBuilder cjk = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < body.length(); ) {
+            int cp = body.codePointAt(i);
+            i += Character.charCount(cp);
+            if (isCjk(cp)) {
+                flushWord(word, terms);
+                cjk.appendCodePoint(cp);
+            } else if (Character.isLetterOrDigit(cp)) {
+                flushCjk(cjk, terms);
+                word.appendCodePoint(Character.toLowerCase(cp));
+            } else {
+                flushWord(word, terms);
+                flushCjk(cjk, terms);
+            }
+        }
+        flushWord(word, terms);
+        flushCjk(cjk, terms);
+
+        List<String> result = Collections.unmodifiableList(terms);
+        synchronized (termCache) {
+            termCache.put(message, result);
+        }
+        return result;
+    }
+
+    private static void flushWord(StringBuilder word, List<String> terms) {
+        if (word.length() > 0) {
+            terms.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static void flushCjk(StringBuilder run, List<String> terms) {
+        int[] codePoints = run.codePoints().toArray();
+        if (codePoints.length == 1) {
+            terms.add(run.toString());
+        } else {
+            for (int i = 0; i + 1 < codePoints.length; i++) {
+                terms.add(new String(codePoints, i, 2));
+            }
+        }
+        run.setLength(0);
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    /**
+     * 选择结果
+     */
+    public static class Selection {
+        private final List<String> messages;
+        private final int recentStart;
+
+        Selection(List<String> messages, int recentStart) {
+            this.messages = messages;
+            this.recentStart = recentStart;
+        }
+
+        /**
+         * 选中的消息，按时间顺序
+         */
+        public List<String> getMessages() {
+            return messages;
+        }
+
+        /**
+         * 必定保留的最近消息在原记录中的起始下标，之前的消息只有部分 (按相关性) 被选中
+         */
+        public int getRecentStart() {
+            return recentStart;
+        }
+    }
+}
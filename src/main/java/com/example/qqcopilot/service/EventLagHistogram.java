@@ -0,0 +1,70 @@
+package com.example.qqcopilot.service;
+
+/**
+ * 事件延迟直方图 (固定分桶，累计计数)
+ * OneBot 事件的 time 字段精确到秒，所以分桶从 1 秒起
+ */
+class EventLagHistogram {
+
+    // 各桶上界 (毫秒)，最后一个桶收所有更大的值
+    private static final long[] BOUNDS_MS = {1_000, 2_000, 5_000, 10_000, 30_000, 60_000, Long.MAX_VALUE};
+    private static final String[] LABELS = {"<1s", "1-2s", "2-5s", "5-10s", "10-30s", "30-60s", ">60s"};
+
+    private final long[] counts = new long[BOUNDS_MS.length];
+    private long total;
+    private long maxMs;
+
+    synchronized void record(long lagMs) {
+        long lag = Math.max(0, lagMs);
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            if (lag < BOUNDS_MS[i]) {
+                counts[i]++;
+                break;
+            }
+        }
+        total++;
+        maxMs = Math.max(maxMs, lag);
+    }
+
+    synchronized long getTotal() {
+        return total;
+    }
+
+    synchronized long getMaxMs() {
+        return maxMs;
+    }
+
+    /**
+     * 按分桶估算分位数，返回所在桶的上界 (最后一个桶返回最大值)
+     * @param percentile 0~100
+     * @return 没有样本时返回 -1
+     */
+    synchronized long percentile(double percentile) {
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return BOUNDS_MS[i] == Long.MAX_VALUE ? maxMs : BOUNDS_MS[i];
+            }
+        }
+        return maxMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(LABELS[i]).append(": ").append(counts[i]);
+            }
+        }
+        return sb.length() == 0 ? "无事件" : sb.toString();
+    }
+}
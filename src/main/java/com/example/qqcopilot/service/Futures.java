@@ -0,0 +1,27 @@
+package com.example.qqcopilot.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * CompletableFuture 工具
+ * JDK 的 thenApply 派生出的 future 被取消时不会取消上游，这里补上取消的传递
+ */
+final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * 同 {@link CompletableFuture#thenApply}，但取消返回的 future 会一并取消 source
+     */
+    static <T, R> CompletableFuture<R> thenApply(CompletableFuture<T> source, Function<? super T, ? extends R> fn) {
+        CompletableFuture<R> derived = source.thenApply(fn);
+        derived.whenComplete((value, ex) -> {
+            if (derived.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return derived;
+    }
+}
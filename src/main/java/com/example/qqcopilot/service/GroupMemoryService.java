@@ -15,6 +15,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 @Service
 public class GroupMemoryService {
@@ -23,6 +24,8 @@ public class GroupMemoryService {
 
     private final MessageSanitizer sanitizer;
     private final ApplicationEventPublisher eventPublisher;
+    private final BotRegistry botRegistry;
+    private final Tracer tracer;
 
     // Map<ChatId, Deque<MessageString>> - ChatId 可以是群号或好友QQ号 (前缀区分: "group_xxx" 或 "friend_xxx")
     private final Map<String, LinkedBlockingDeque<String>> chatHistory = new ConcurrentHashMap<>();
@@ -35,10 +38,20 @@ public class GroupMemoryService {
 
     // 消息更新回调列表 - 用于通知 UI 更新 (chatKey, message)
     private final List<BiConsumer<String, String>> messageCallbacks = new CopyOnWriteArrayList<>();
+    // 按聊天订阅 (chatKey -> 订阅者)，多聊天面板的每个标签页只订阅自己的聊天
+    private final Map<String, List<Consumer<String>>> chatSubscribers = new ConcurrentHashMap<>();
+    // 消息被挤出历史记录时的回调
+    private final List<EvictionCallback> evictionCallbacks = new CopyOnWriteArrayList<>();
+    // 每个聊天内存中最早一条消息的序号: 每挤出一条加 1，合并的外部历史插在前面时减去插入的条数
+    // 历史记录和序号都在对应的 deque 上加锁修改，保证 getHistoryWindow 读到一致的快照
+    private final Map<String, Long> firstSequences = new ConcurrentHashMap<>();
 
-    public GroupMemoryService(MessageSanitizer sanitizer, ApplicationEventPublisher eventPublisher) {
+    public GroupMemoryService(MessageSanitizer sanitizer, ApplicationEventPublisher eventPublisher,
+                              BotRegistry botRegistry, Tracer tracer) {
         this.sanitizer = sanitizer;
         this.eventPublisher = eventPublisher;
+        this.botRegistry = botRegistry;
+        this.tracer = tracer;
     }
     
     // ============ 静态工具方法 - 生成聊天 Key ============
@@ -56,13 +69,7 @@ public class GroupMemoryService {
      * @param formattedMessage 已格式化的消息，如 "[我]: 消息内容"
      */
     public void addSentMessage(String chatKey, String formattedMessage) {
-        LinkedBlockingDeque<String> history = chatHistory.computeIfAbsent(chatKey, k -> new LinkedBlockingDeque<>());
-        history.add(formattedMessage);
-        
-        // 限制大小
-        while (history.size() > MAX_HISTORY_SIZE) {
-            history.poll();
-        }
+        append(chatKey, formattedMessage);
         
         log.info("已记录发送消息到 {}: {}", chatKey, formattedMessage);
     }
@@ -82,11 +89,73 @@ public class GroupMemoryService {
         messageCallbacks.remove(callback);
     }
 
+    /**
+     * 订阅单个聊天的新消息，只在该聊天有消息时调用 (在收消息的线程调用)
+     * 适合同时关注很多聊天的场景，不需要每个订阅者都过滤全部消息
+     */
+    public void subscribe(String chatKey, Consumer<String> subscriber) {
+        chatSubscribers.computeIfAbsent(chatKey, k -> new CopyOnWriteArrayList<>()).add(subscriber);
+    }
+
+    /**
+     * 取消订阅
+     */
+    public void unsubscribe(String chatKey, Consumer<String> subscriber) {
+        chatSubscribers.computeIfPresent(chatKey, (k, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    /**
+     * 注册淘汰回调 - 历史记录超过上限、最早的消息被移除时通知 (持有该聊天的历史记录锁时调用，不要做耗时操作)
+     */
+    public void registerEvictionCallback(EvictionCallback callback) {
+        evictionCallbacks.add(callback);
+    }
+
+    /**
+     * 追加一条消息并限制大小
+     */
+    private void append(String chatKey, String formattedMessage) {
+        LinkedBlockingDeque<String> history = chatHistory.computeIfAbsent(chatKey, k -> new LinkedBlockingDeque<>());
+        synchronized (history) {
+            history.add(formattedMessage);
+            trimHistory(chatKey, history);
+        }
+    }
+
+    /**
+     * 调用方需持有 history 的锁
+     */
+    private void trimHistory(String chatKey, LinkedBlockingDeque<String> history) {
+        while (history.size() > MAX_HISTORY_SIZE) {
+            String evicted = history.poll();
+            if (evicted == null) {
+                break;
+            }
+            long sequence = firstSequences.merge(chatKey, 1L, Long::sum) - 1;
+            for (EvictionCallback callback : evictionCallbacks) {
+                try {
+                    callback.onEvicted(chatKey, sequence, evicted);
+                } catch (Exception e) {
+                    log.debug("淘汰回调执行失败", e);
+                }
+            }
+        }
+    }
+
     @Listener
     public void onGroupMessage(OneBotNormalGroupMessageEvent event) {
         // 1. 获取群ID
         String groupId = event.getGroupId().toString();
         String chatKey = groupKey(groupId);
+
+        // 多个账号在同一个群时只记录负责该群的账号收到的消息
+        if (!botRegistry.claimGroup(chatKey, event.getBot())) {
+            return;
+        }
+        Tracer.Trace trace = tracer.start(Tracer.MESSAGE, chatKey);
         
         // 2. 获取群名称 (尝试从事件获取，如果没有则用ID代替)
         String groupName = "群 " + groupId;
@@ -112,28 +181,21 @@ public class GroupMemoryService {
         } catch (Exception e) {
             log.debug("获取发送者昵称失败", e);
         }
+        trace.mark("监听器");
 
         // 4. 清洗内容
         String content = sanitizer.sanitize(event.getMessageContent().getPlainText());
         String formattedMessage = String.format("[%s]: %s", senderName, content);
+        trace.mark("清洗");
         
         log.info("收到群消息: {} - {}", groupName, formattedMessage);
 
         // 5. 更新历史记录 (使用 chatKey)
-        chatHistory.computeIfAbsent(chatKey, k -> new LinkedBlockingDeque<>()).add(formattedMessage);
-        LinkedBlockingDeque<String> history = chatHistory.get(chatKey);
-        while (history.size() > MAX_HISTORY_SIZE) {
-            history.poll();
-        }
+        append(chatKey, formattedMessage);
+        trace.mark("存储");
 
-        // 6. 通知所有回调 (用于 UI 自动更新, 使用 chatKey)
-        for (BiConsumer<String, String> callback : messageCallbacks) {
-            try {
-                callback.accept(chatKey, formattedMessage);
-            } catch (Exception e) {
-                log.debug("消息回调执行失败", e);
-            }
-        }
+        // 6. 通知回调 (用于 UI 自动更新, 使用 chatKey)
+        notifyMessage(chatKey, formattedMessage, trace);
 
         // 7. 更新活跃列表
         updateActiveGroups(groupId, groupName);
@@ -147,6 +209,8 @@ public class GroupMemoryService {
         // 1. 获取好友ID - 通过 sourceEvent 获取
         String friendId = event.getSourceEvent().getUserId().toString();
         String chatKey = friendKey(friendId);
+        botRegistry.recordFriend(chatKey, event.getBot());
+        Tracer.Trace trace = tracer.start(Tracer.MESSAGE, chatKey);
         
         // 2. 获取好友昵称
         String friendName = friendId;
@@ -161,21 +225,32 @@ public class GroupMemoryService {
         } catch (Exception e) {
             log.debug("获取好友昵称失败", e);
         }
+        trace.mark("监听器");
 
         // 3. 清洗内容
         String content = sanitizer.sanitize(event.getMessageContent().getPlainText());
         String formattedMessage = String.format("[%s]: %s", friendName, content);
+        trace.mark("清洗");
         
         log.info("收到好友消息: {} - {}", friendName, formattedMessage);
 
         // 4. 更新历史记录 (使用 chatKey)
-        chatHistory.computeIfAbsent(chatKey, k -> new LinkedBlockingDeque<>()).add(formattedMessage);
-        LinkedBlockingDeque<String> history = chatHistory.get(chatKey);
-        while (history.size() > MAX_HISTORY_SIZE) {
-            history.poll();
-        }
+        append(chatKey, formattedMessage);
+        trace.mark("存储");
+
+        // 5. 通知回调 (用于 UI 自动更新, 使用 chatKey)
+        notifyMessage(chatKey, formattedMessage, trace);
+    }
+
+    /**
+     * 通知全局回调和订阅了该聊天的订阅者
+     * 回调执行期间 {@link Tracer#current()} 返回该消息的 Trace，界面渲染等后续阶段可以接着记录
+     */
+    private void notifyMessage(String chatKey, String formattedMessage, Tracer.Trace trace) {
+        tracer.runInTrace(trace, () -> dispatchMessage(chatKey, formattedMessage));
+    }
 
-        // 5. 通知所有回调 (用于 UI 自动更新, 使用 chatKey)
+    private void dispatchMessage(String chatKey, String formattedMessage) {
         for (BiConsumer<String, String> callback : messageCallbacks) {
             try {
                 callback.accept(chatKey, formattedMessage);
@@ -183,6 +258,16 @@ public class GroupMemoryService {
                 log.debug("消息回调执行失败", e);
             }
         }
+        List<Consumer<String>> subscribers = chatSubscribers.get(chatKey);
+        if (subscribers != null) {
+            for (Consumer<String> subscriber : subscribers) {
+                try {
+                    subscriber.accept(formattedMessage);
+                } catch (Exception e) {
+                    log.debug("聊天订阅回调执行失败", e);
+                }
+            }
+        }
     }
 
     private synchronized void updateActiveGroups(String groupId, String groupName) {
@@ -211,6 +296,20 @@ public class GroupMemoryService {
         }
         return new ArrayList<>(history);
     }
+
+    /**
+     * 获取历史记录及其中第一条消息的序号 (一致的快照)
+     * 序号在聊天内单调递增，用来按位置记录哪些消息已经处理过，不受内容重复影响
+     */
+    public HistoryWindow getHistoryWindow(String chatKey) {
+        LinkedBlockingDeque<String> history = chatHistory.get(chatKey);
+        if (history == null) {
+            return new HistoryWindow(Collections.emptyList(), firstSequences.getOrDefault(chatKey, 0L));
+        }
+        synchronized (history) {
+            return new HistoryWindow(new ArrayList<>(history), firstSequences.getOrDefault(chatKey, 0L));
+        }
+    }
     
     /**
      * 获取群历史记录 (便捷方法)
@@ -237,31 +336,82 @@ public class GroupMemoryService {
         }
         
         LinkedBlockingDeque<String> history = chatHistory.computeIfAbsent(chatKey, k -> new LinkedBlockingDeque<>());
-        
-        // 获取现有消息用于去重
-        Set<String> existingMessages = new HashSet<>(history);
-        
-        // 将外部消息添加到队头 (历史消息在前)
-        LinkedBlockingDeque<String> newHistory = new LinkedBlockingDeque<>();
-        for (String msg : externalMessages) {
-            if (!existingMessages.contains(msg)) {
-                newHistory.addLast(msg);
+        int size;
+        synchronized (history) {
+            // 获取现有消息用于去重
+            Set<String> existingMessages = new HashSet<>(history);
+
+            // 将外部消息添加到队头 (历史消息在前)
+            List<String> merged = new ArrayList<>();
+            for (String msg : externalMessages) {
+                if (!existingMessages.contains(msg)) {
+                    merged.add(msg);
+                }
             }
-        }
-        // 添加现有消息
-        newHistory.addAll(history);
-        
-        // 替换历史记录
-        chatHistory.put(chatKey, newHistory);
-        
-        // 限制大小
-        while (newHistory.size() > MAX_HISTORY_SIZE) {
-            newHistory.poll();
+            // 插到前面的消息占用更早的序号
+            firstSequences.merge(chatKey, (long) -merged.size(), Long::sum);
+            // 添加现有消息，原地替换 (保持同一个 deque，锁才有效)
+            merged.addAll(history);
+            history.clear();
+            history.addAll(merged);
+
+            // 限制大小
+            trimHistory(chatKey, history);
+            size = history.size();
         }
         
-        log.info("合并 {} 历史消息，当前共 {} 条", chatKey, newHistory.size());
+        log.info("合并 {} 历史消息，当前共 {} 条", chatKey, size);
     }
     
+    /**
+     * 消息被挤出历史记录
+     */
+    @FunctionalInterface
+    public interface EvictionCallback {
+        /**
+         * @param sequence 被挤出消息的序号
+         */
+        void onEvicted(String chatKey, long sequence, String message);
+    }
+
+    /**
+     * 历史记录快照
+     */
+    public static class HistoryWindow {
+        public static final long NOT_FOUND = Long.MIN_VALUE;
+
+        private final List<String> messages;
+        private final long firstSequence;
+
+        HistoryWindow(List<String> messages, long firstSequence) {
+            this.messages = messages;
+            this.firstSequence = firstSequence;
+        }
+
+        public List<String> getMessages() {
+            return messages;
+        }
+
+        /**
+         * 第一条消息的序号，第 i 条消息的序号为 firstSequence + i
+         */
+        public long getFirstSequence() {
+            return firstSequence;
+        }
+
+        /**
+         * 之前读到的聊天记录在当前窗口中的起始序号
+         * 之后只追加了新消息时仍能对上；期间有消息被挤出或合并进了更早的历史则无法确定位置
+         * @return 对不上时返回 {@link #NOT_FOUND}
+         */
+        public long locate(List<String> earlier) {
+            if (earlier.size() > messages.size() || !messages.subList(0, earlier.size()).equals(earlier)) {
+                return NOT_FOUND;
+            }
+            return firstSequence;
+        }
+    }
+
     public static class ActiveGroupsUpdatedEvent extends org.springframework.context.ApplicationEvent {
         private final List<GroupInfo> activeGroups;
 
@@ -0,0 +1,43 @@
+package com.example.qqcopilot.service;
+
+import java.util.Arrays;
+
+/**
+ * 最近 N 次请求耗时的滑动窗口，用于计算分位数
+ */
+class LatencyTracker {
+
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    LatencyTracker(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    synchronized void record(long latencyMs) {
+        samples[next] = latencyMs;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @param percentile 0~100
+     * @return 没有样本时返回 -1
+     */
+    synchronized long percentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.qqcopilot.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 模型延迟测试
+ * 用固定的小提示词以流式请求并行测试多个模型，每个模型跑若干次，
+ * 统计首 token 延迟、总耗时、输出速度的 p50/p95，以及返回内容是否是合法的 JSON 数组
+ * 推荐: 所有成功请求都返回合法 JSON 数组的模型中，总耗时 p50 最低的
+ */
+@Lazy
+@Service
+public class ModelBenchmarkService {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelBenchmarkService.class);
+
+    // 同时在途的测试请求上限，避免把中转站打到限流
+    private static final int MAX_PARALLEL = 6;
+
+    private static final String SYSTEM_PROMPT =
+            "你是聊天回复助手。只输出一个 JSON 字符串数组，包含 3 条简短的中文回复建议，不要输出其他内容。";
+    private static final String USER_PROMPT =
+            "[小明]: 周末有人去爬山吗\n[小红]: 天气预报说周六下雨\n[小明]: 那改周日？";
+
+    private final OkHttpClient client;
+    private final TokenEstimator tokenEstimator;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "model-benchmark");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ModelBenchmarkService(OkHttpClient httpClient, TokenEstimator tokenEstimator) {
+        this.client = httpClient.newBuilder()
+                .readTimeout(60, TimeUnit.SECONDS)
+                .callTimeout(90, TimeUnit.SECONDS)
+                .build();
+        this.tokenEstimator = tokenEstimator;
+    }
+
+    /**
+     * 测试多个模型 (阻塞直到全部完成，应在后台线程调用)
+     * @param runs 每个模型的请求次数
+     * @param onProgress 每完成一次请求回调一次，参数为该模型当前的统计 (在后台线程调用)
+     * @return 每个模型的统计，按输入顺序
+     */
+    public List<ModelStats> benchmark(String baseUrl, String apiKey, List<String> models, int runs,
+                                      Consumer<ModelStats> onProgress) throws InterruptedException {
+        String url = AiClient.buildChatCompletionsUrl(baseUrl);
+        Map<String, ModelStats> stats = new ConcurrentHashMap<>();
+        List<ModelStats> ordered = new ArrayList<>();
+        for (String model : models) {
+            ModelStats modelStats = new ModelStats(model);
+            stats.put(model, modelStats);
+            ordered.add(modelStats);
+        }
+
+        // 轮流排列各模型的请求，避免一个模型的请求集中在前面占满并发
+        List<String> queue = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            queue.addAll(models);
+        }
+
+        Semaphore permits = new Semaphore(MAX_PARALLEL);
+        CountDownLatch done = new CountDownLatch(queue.size());
+        List<Call> calls = new CopyOnWriteArrayList<>();
+        try {
+            for (String model : queue) {
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        ModelStats modelStats = stats.get(model);
+                        modelStats.add(runOnce(url, apiKey, model, calls));
+                        if (onProgress != null) {
+                            onProgress.accept(modelStats);
+                        }
+                    } finally {
+                        permits.release();
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            // 取消测试: 断开所有进行中的请求
+            calls.forEach(Call::cancel);
+            throw e;
+        }
+        return ordered;
+    }
+
+    /**
+     * 推荐模型: 所有成功请求都返回合法 JSON 数组的模型中总耗时 p50 最低的
+     * @return 没有合适的模型时返回 null
+     */
+    public static ModelStats recommend(List<ModelStats> results) {
+        return results.stream()
+                .filter(ModelStats::isReliable)
+                .min(Comparator.comparingLong(ModelStats::getTotalP50))
+                .orElse(null);
+    }
+
+    private Sample runOnce(String url, String apiKey, String model, List<Call> calls) {
+        JsonObject body = new JsonObject();
+        body.addProperty("model", model);
+        body.addProperty("stream", true);
+        JsonArray messages = new JsonArray();
+        messages.add(message("system", SYSTEM_PROMPT));
+        messages.add(message("user", USER_PROMPT));
+        body.add("messages", messages);
+
+        Request request = new Request.Builder()
+                .url(url)
+                .addHeader("Authorization", "Bearer " + apiKey)
+                .addHeader("Accept", "text/event-stream")
+                .post(RequestBody.create(body.toString(), MediaType.get("application/json")))
+                .build();
+
+        Call call = client.newCall(request);
+        calls.add(call);
+        long start = System.nanoTime();
+        long firstTokenNanos = -1;
+        int completionTokens = -1;
+        StringBuilder content = new StringBuilder();
+        try (Response response = call.execute()) {
+            if (!response.isSuccessful()) {
+                return Sample.failed("HTTP " + response.code());
+            }
+            BufferedSource source = response.body().source();
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String data = line.substring(5).trim();
+                if (data.equals("[DONE]")) {
+                    break;
+                }
+                JsonObject chunk = JsonParser.parseString(data).getAsJsonObject();
+                String delta = deltaContent(chunk);
+                if (!delta.isEmpty()) {
+                    if (firstTokenNanos < 0) {
+                        firstTokenNanos = System.nanoTime();
+                    }
+                    content.append(delta);
+                }
+                if (chunk.has("usage") && chunk.get("usage").isJsonObject()) {
+                    JsonObject usage = chunk.getAsJsonObject("usage");
+                    if (usage.has("completion_tokens")) {
+                        completionTokens = usage.get("completion_tokens").getAsInt();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("模型测试请求失败 {}: {}", model, e.getMessage());
+            return Sample.failed(e.getMessage());
+        } finally {
+            calls.remove(call);
+        }
+
+        long end = System.nanoTime();
+        if (firstTokenNanos < 0) {
+            return Sample.failed("响应为空");
+        }
+        // 中转站不一定在流里返回 usage，没有时按内容估算
+        if (completionTokens < 0) {
+            completionTokens = tokenEstimator.estimateUncached(content.toString());
+        }
+        long ttftMs = TimeUnit.NANOSECONDS.toMillis(firstTokenNanos - start);
+        long totalMs = TimeUnit.NANOSECONDS.toMillis(end - start);
+        long generationNanos = end - firstTokenNanos;
+        double tokensPerSecond = generationNanos > 0 ? completionTokens * 1e9 / generationNanos : 0;
+        boolean validJson = AiAnalysisService.parseJsonArray(content.toString()) != null;
+        return new Sample(true, ttftMs, totalMs, tokensPerSecond, validJson, null);
+    }
+
+    private static String deltaContent(JsonObject chunk) {
+        if (!chunk.has("choices") || !chunk.get("choices").isJsonArray()) {
+            return "";
+        }
+        JsonArray choices = chunk.getAsJsonArray("choices");
+        if (choices.isEmpty()) {
+            return "";
+        }
+        JsonObject choice = choices.get(0).getAsJsonObject();
+        JsonElement delta = choice.get("delta");
+        if (delta == null || !delta.isJsonObject()) {
+            return "";
+        }
+        JsonElement text = delta.getAsJsonObject().get("content");
+        return text == null || text.isJsonNull() ? "" : text.getAsString();
+    }
+
+    private static JsonObject message(String role, String content) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", role);
+        message.addProperty("content", content);
+        return message;
+    }
+
+    /**
+     * 单次请求的结果
+     */
+    private static class Sample {
+        final boolean success;
+        final long ttftMs;
+        final long totalMs;
+        final double tokensPerSecond;
+        final boolean validJson;
+        final String error;
+
+        Sample(boolean success, long ttftMs, long totalMs, double tokensPerSecond, boolean validJson, String error) {
+            this.success = success;
+            this.ttftMs = ttftMs;
+            this.totalMs = totalMs;
+            this.tokensPerSecond = tokensPerSecond;
+            this.validJson = validJson;
+            this.error = error;
+        }
+
+        static Sample failed(String error) {
+            return new Sample(false, 0, 0, 0, false, error);
+        }
+    }
+
+    /**
+     * 一个模型的测试统计 (线程安全)
+     */
+    public static class ModelStats {
+        private final String model;
+        private final List<Sample> samples = new ArrayList<>();
+
+        ModelStats(String model) {
+            this.model = model;
+        }
+
+        synchronized void add(Sample sample) {
+            samples.add(sample);
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public synchronized int getRuns() {
+            return samples.size();
+        }
+
+        public synchronized int getSuccesses() {
+            return (int) samples.stream().filter(s -> s.success).count();
+        }
+
+        public synchronized int getValidJson() {
+            return (int) samples.stream().filter(s -> s.validJson).count();
+        }
+
+        /**
+         * 至少成功一次，且每次成功都返回了合法的 JSON 数组
+         */
+        public synchronized boolean isReliable() {
+            int successes = getSuccesses();
+            return successes > 0 && getValidJson() == successes;
+        }
+
+        public synchronized String getLastError() {
+            for (int i = samples.size() - 1; i >= 0; i--) {
+                if (samples.get(i).error != null) {
+                    return samples.get(i).error;
+                }
+            }
+            return null;
+        }
+
+        public synchronized long getTtftP50() {
+            return percentile(values(s -> (double) s.ttftMs), 50).longValue();
+        }
+
+        public synchronized long getTtftP95() {
+            return percentile(values(s -> (double) s.ttftMs), 95).longValue();
+        }
+
+        public synchronized long getTotalP50() {
+            return percentile(values(s -> (double) s.totalMs), 50).longValue();
+        }
+
+        public synchronized long getTotalP95() {
+            return percentile(values(s -> (double) s.totalMs), 95).longValue();
+        }
+
+        public synchronized double getTokensPerSecondP50() {
+            return percentile(values(s -> s.tokensPerSecond), 50);
+        }
+
+        private List<Double> values(Function<Sample, Double> field) {
+            List<Double> values = new ArrayList<>();
+            for (Sample sample : samples) {
+                if (sample.success) {
+                    values.add(field.apply(sample));
+                }
+            }
+            Collections.sort(values);
+            return values;
+        }
+
+        private static Double percentile(List<Double> sorted, int percentile) {
+            if (sorted.isEmpty()) {
+                return 0.0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s: 成功 %d/%d, JSON %d, 首 token p50 %d ms, 总耗时 p50 %d ms, %.1f token/s",
+                    model, getSuccesses(), getRuns(), getValidJson(), getTtftP50(), getTotalP50(),
+                    getTokensPerSecondP50());
+        }
+    }
+}
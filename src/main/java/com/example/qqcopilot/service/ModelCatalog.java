@@ -0,0 +1,210 @@
+package com.example.qqcopilot.service;
+
+import com.example.qqcopilot.config.AiConfig;
+import com.example.qqcopilot.config.AiEndpoint;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模型列表缓存
+ * 按接口 (地址 + Key 指纹) 缓存 /models 的结果，写入 ~/.qqcopilot/model-catalog.json
+ * 设置窗口直接用缓存填充下拉框，打开时发现过期才在后台刷新；拉取失败时保留旧列表
+ * 文件里只存 Key 的 SHA-256 前缀，不存 Key 本身
+ */
+@Component
+public class ModelCatalog {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelCatalog.class);
+    private static final String CATALOG_FILE = AiConfig.CONFIG_DIR + "/model-catalog.json";
+    private static final long TTL_MS = TimeUnit.HOURS.toMillis(6);
+
+    private final AiConfig aiConfig;
+    private final ModelFetchService modelFetchService;
+    private final Gson gson = new Gson();
+    // 接口指纹 -> 模型列表，只在 this 锁内读写
+    private final Map<String, CatalogEntry> entries = new HashMap<>();
+    // 同一接口同时只刷新一次
+    private final Map<String, CompletableFuture<List<String>>> refreshing = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "model-catalog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 模型拉取服务延迟创建，不占用启动时间
+    public ModelCatalog(AiConfig aiConfig, @Lazy ModelFetchService modelFetchService) {
+        this.aiConfig = aiConfig;
+        this.modelFetchService = modelFetchService;
+    }
+
+    @PostConstruct
+    public void load() {
+        Path path = Paths.get(CATALOG_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            Map<String, CatalogEntry> loaded = gson.fromJson(Files.readString(path),
+                    new TypeToken<HashMap<String, CatalogEntry>>() {}.getType());
+            if (loaded != null) {
+                synchronized (this) {
+                    loaded.forEach((key, entry) -> {
+                        if (entry != null && entry.models != null) {
+                            entries.put(key, entry);
+                        }
+                    });
+                }
+            }
+            log.info("已加载 {} 个接口的模型列表缓存", entries.size());
+        } catch (Exception e) {
+            log.warn("加载模型列表缓存失败: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 启动时不刷新 (会创建模型拉取服务并联网)，第一次打开设置窗口时再刷新；配置改动后接口可能变了，顺便刷新
+     */
+    @EventListener(AiConfig.AiConfigChangedEvent.class)
+    public void onConfigChanged() {
+        refreshConfiguredIfStale();
+    }
+
+    /**
+     * 获取缓存的模型列表 (可能已过期)
+     * @return 没有缓存时返回空列表
+     */
+    public synchronized List<String> getCached(String baseUrl, String apiKey) {
+        CatalogEntry entry = entries.get(key(baseUrl, apiKey));
+        return entry == null ? List.of() : List.copyOf(entry.models);
+    }
+
+    public synchronized boolean isFresh(String baseUrl, String apiKey) {
+        CatalogEntry entry = entries.get(key(baseUrl, apiKey));
+        return entry != null && System.currentTimeMillis() - entry.fetchedAt < TTL_MS;
+    }
+
+    /**
+     * 后台刷新，同一接口正在刷新时返回同一个 future
+     * @return 最新的模型列表；拉取失败时返回空列表，原有缓存保留
+     */
+    public CompletableFuture<List<String>> refreshAsync(String baseUrl, String apiKey) {
+        String key = key(baseUrl, apiKey);
+        CompletableFuture<List<String>> future = new CompletableFuture<>();
+        CompletableFuture<List<String>> existing = refreshing.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        executor.execute(() -> {
+            List<String> models;
+            try {
+                models = fetch(key, baseUrl, apiKey);
+            } catch (Exception e) {
+                refreshing.remove(key, future);
+                future.completeExceptionally(e);
+                return;
+            }
+            refreshing.remove(key, future);
+            future.complete(models);
+        });
+        return future;
+    }
+
+    /**
+     * 缓存过期时才在后台刷新
+     * @return 缓存仍有效时直接返回缓存
+     */
+    public CompletableFuture<List<String>> refreshIfStale(String baseUrl, String apiKey) {
+        if (isFresh(baseUrl, apiKey)) {
+            return CompletableFuture.completedFuture(getCached(baseUrl, apiKey));
+        }
+        return refreshAsync(baseUrl, apiKey);
+    }
+
+    private void refreshConfiguredIfStale() {
+        for (AiEndpoint endpoint : aiConfig.getEndpoints()) {
+            if (endpoint.isConfigured()) {
+                refreshIfStale(endpoint.getApiUrl(), endpoint.getApiKey());
+            }
+        }
+    }
+
+    private List<String> fetch(String key, String baseUrl, String apiKey) {
+        List<String> models = modelFetchService.fetchModels(baseUrl, apiKey);
+        if (models.isEmpty()) {
+            // 拉取失败或接口返回空列表，保留旧缓存
+            return models;
+        }
+        synchronized (this) {
+            entries.put(key, new CatalogEntry(new ArrayList<>(models), System.currentTimeMillis()));
+        }
+        save();
+        return models;
+    }
+
+    private void save() {
+        try {
+            String json;
+            synchronized (this) {
+                json = gson.toJson(entries);
+            }
+            Path path = Paths.get(CATALOG_FILE);
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, json);
+        } catch (Exception e) {
+            log.warn("保存模型列表缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private static String key(String baseUrl, String apiKey) {
+        String url = baseUrl == null ? "" : baseUrl.trim();
+        while (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((apiKey == null ? "" : apiKey.trim()).getBytes(StandardCharsets.UTF_8));
+            return url + "|" + HexFormat.of().formatHex(hash, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class CatalogEntry {
+        List<String> models;
+        long fetchedAt;
+
+        CatalogEntry(List<String> models, long fetchedAt) {
+            this.models = models;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
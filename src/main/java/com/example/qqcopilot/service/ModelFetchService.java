@@ -7,6 +7,7 @@ import com.google.gson.JsonObject;
 import okhttp3.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
@@ -18,19 +19,26 @@ import java.util.concurrent.TimeUnit;
 /**
  * 从 AI API 拉取可用模型列表
  */
+@Lazy
 @Service
 public class ModelFetchService {
 
     private static final Logger log = LoggerFactory.getLogger(ModelFetchService.class);
 
     private final OkHttpClient client;
+    // 连接测试用短超时，测试应在一个往返内给出结果
+    private final OkHttpClient probeClient;
     private final Gson gson;
 
-    public ModelFetchService() {
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(15, TimeUnit.SECONDS)
+    public ModelFetchService(OkHttpClient httpClient) {
+        this.client = httpClient.newBuilder()
                 .readTimeout(15, TimeUnit.SECONDS)
                 .build();
+        this.probeClient = httpClient.newBuilder()
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(5, TimeUnit.SECONDS)
+                .callTimeout(8, TimeUnit.SECONDS)
+                .build();
         this.gson = new Gson();
     }
 
@@ -142,13 +150,80 @@ public class ModelFetchService {
 
     /**
      * 测试 API 连接
+     * 只发一个 HEAD /models (不支持 HEAD 时退回 GET 但不读取响应体)，短超时，只看状态码
      */
-    public boolean testConnection(String baseUrl, String apiKey) {
+    public ProbeResult testConnection(String baseUrl, String apiKey) {
+        String modelsUrl = buildModelsUrl(baseUrl);
+        if (modelsUrl.isEmpty()) {
+            return new ProbeResult(false, 0, 0, "API 地址为空");
+        }
+        long start = System.nanoTime();
         try {
-            List<String> models = fetchModels(baseUrl, apiKey);
-            return !models.isEmpty();
+            int code = probe(modelsUrl, apiKey, true);
+            // 部分服务端不支持 HEAD
+            if (code == 404 || code == 405 || code == 501) {
+                code = probe(modelsUrl, apiKey, false);
+            }
+            long rttMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (code >= 200 && code < 300) {
+                return new ProbeResult(true, code, rttMs, "连接成功");
+            }
+            if (code == 401 || code == 403) {
+                return new ProbeResult(false, code, rttMs, "API Key 无效 (HTTP " + code + ")");
+            }
+            return new ProbeResult(false, code, rttMs, "HTTP " + code);
         } catch (Exception e) {
-            return false;
+            long rttMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            log.debug("连接测试失败 {}: {}", modelsUrl, e.getMessage());
+            return new ProbeResult(false, 0, rttMs, e.getMessage());
+        }
+    }
+
+    private int probe(String url, String apiKey, boolean head) throws IOException {
+        Request.Builder builder = new Request.Builder()
+                .url(url)
+                .addHeader("Authorization", "Bearer " + apiKey);
+        Request request = head ? builder.head().build() : builder.get().build();
+        try (Response response = probeClient.newCall(request).execute()) {
+            return response.code();
+        }
+    }
+
+    /**
+     * 连接测试结果
+     */
+    public static class ProbeResult {
+        private final boolean success;
+        private final int statusCode;
+        private final long rttMs;
+        private final String message;
+
+        public ProbeResult(boolean success, int statusCode, long rttMs, String message) {
+            this.success = success;
+            this.statusCode = statusCode;
+            this.rttMs = rttMs;
+            this.message = message;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public long getRttMs() {
+            return rttMs;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%d ms)", message, rttMs);
         }
     }
 }
@@ -0,0 +1,362 @@
+package com.example.qqcopilot.service;
+
+import jakarta.annotation.PreDestroy;
+import love.forte.simbot.common.id.StringID;
+import love.forte.simbot.component.onebot.v11.core.actor.OneBotFriend;
+import love.forte.simbot.component.onebot.v11.core.actor.OneBotGroup;
+import love.forte.simbot.component.onebot.v11.core.bot.OneBotBot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 消息发送队列
+ * - 每个聊天一个队列，按提交顺序逐条发送，发送在后台线程进行，不阻塞界面
+ * - 令牌桶限流: 每个聊天最多连发 3 条、之后每 2 秒 1 条；每个账号最多连发 5 条、之后每秒 1 条，
+ *   避免触发 QQ 的发言频率风控；被限流的消息等待令牌后自动发送
+ * - 确定没发出去的失败 (连不上 NapCat、账号离线) 按 1s/2s/4s 退避重试，最多 3 次；
+ *   超时等可能已经发出的失败不重试，报告为结果未知，避免同一条消息在群里发两三遍；找不到群或好友时不重试
+ * - 确认发送成功后才写入聊天记录 (GroupMemoryService.addSentMessage)
+ * 状态变化通过回调通知 (在发送线程调用)
+ */
+@Service
+public class OutboundMessageService {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboundMessageService.class);
+
+    private static final int CHAT_BURST = 3;
+    private static final long CHAT_INTERVAL_MS = 2000;
+    private static final int ACCOUNT_BURST = 5;
+    private static final long ACCOUNT_INTERVAL_MS = 1000;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_BACKOFF_MS = 1000;
+    // 单个聊天排队的消息上限，超出直接失败
+    private static final int MAX_PENDING_PER_CHAT = 20;
+
+    private final BotRegistry botRegistry;
+    private final GroupMemoryService groupMemoryService;
+    private final ScheduledExecutorService executor;
+    // 以下 Map 只在 this 锁内读写
+    private final Map<String, ChatQueue> chats = new HashMap<>();
+    private final Map<String, TokenBucketRateLimiter> accountBuckets = new ConcurrentHashMap<>();
+
+    public OutboundMessageService(BotRegistry botRegistry, GroupMemoryService groupMemoryService) {
+        this.botRegistry = botRegistry;
+        this.groupMemoryService = groupMemoryService;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "message-sender-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交一条消息，立即返回
+     * @param chatKey 目标聊天 ("group_xxx" 或 "friend_xxx")
+     * @param listener 状态变化回调 (在发送线程调用)，可以为 null
+     */
+    public void send(String chatKey, String content, Consumer<SendStatus> listener) {
+        Outgoing message = new Outgoing(chatKey, content, listener);
+        boolean accepted;
+        synchronized (this) {
+            ChatQueue queue = chats.computeIfAbsent(chatKey, ChatQueue::new);
+            accepted = queue.pending.size() < MAX_PENDING_PER_CHAT;
+            if (accepted) {
+                queue.pending.add(message);
+                if (!queue.busy) {
+                    queue.busy = true;
+                    executor.execute(() -> process(queue));
+                }
+            }
+        }
+        if (accepted) {
+            notify(message, SendStatus.State.QUEUED, null);
+        } else {
+            notify(message, SendStatus.State.FAILED, "排队的消息过多，请稍后再发");
+        }
+    }
+
+    /**
+     * 处理某个聊天队列的队首消息；同一个聊天同时只有一个 process 在执行或等待
+     */
+    private void process(ChatQueue queue) {
+        Outgoing message;
+        synchronized (this) {
+            message = queue.pending.peek();
+            if (message == null) {
+                queue.busy = false;
+                return;
+            }
+        }
+        // 意外的异常不能漏出去，否则 busy 一直为 true，这个聊天之后的消息都发不出去
+        try {
+            processHead(queue, message);
+        } catch (RuntimeException e) {
+            log.error("处理发送队列 {} 时出错", queue.chatKey, e);
+            complete(queue, message, SendStatus.State.FAILED, e.getMessage());
+        }
+    }
+
+    private void processHead(ChatQueue queue, Outgoing message) {
+        OneBotBot bot = botRegistry.route(queue.chatKey);
+        if (bot == null) {
+            if (!botRegistry.hasBots()) {
+                complete(queue, message, SendStatus.State.FAILED, "未连接到任何 QQ 账号 (Bot)，请检查 NapCat 连接");
+                return;
+            }
+            // 账号都暂时离线 (重连中)，按发送失败的退避重试，等它重新上线
+            message.attempts++;
+            if (message.attempts < MAX_ATTEMPTS) {
+                long backoff = BASE_BACKOFF_MS << (message.attempts - 1);
+                notify(message, SendStatus.State.RETRYING, "QQ 账号离线");
+                executor.schedule(() -> process(queue), backoff, TimeUnit.MILLISECONDS);
+            } else {
+                complete(queue, message, SendStatus.State.FAILED, "QQ 账号离线，请检查 NapCat 连接");
+            }
+            return;
+        }
+
+        // 先取聊天的令牌，再取账号的令牌；账号没有令牌时把聊天的令牌还回去
+        long wait = queue.bucket.tryAcquire();
+        if (wait == 0) {
+            TokenBucketRateLimiter account = accountBuckets.computeIfAbsent(bot.getId().toString(),
+                    id -> new TokenBucketRateLimiter(() -> ACCOUNT_INTERVAL_MS, () -> ACCOUNT_BURST));
+            wait = account.tryAcquire();
+            if (wait > 0) {
+                queue.bucket.refund();
+            }
+        }
+        if (wait > 0) {
+            notify(message, SendStatus.State.THROTTLED, String.format("发送过快，%.1f 秒后发送", wait / 1000.0));
+            executor.schedule(() -> process(queue), wait, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        message.attempts++;
+        notify(message, SendStatus.State.SENDING, null);
+        try {
+            deliver(bot, queue.chatKey, message.content);
+        } catch (UndeliverableException e) {
+            complete(queue, message, SendStatus.State.FAILED, e.getMessage());
+            return;
+        } catch (Exception e) {
+            if (!isNotSent(e)) {
+                // 请求可能已经到了 NapCat，重试会重复发送
+                log.warn("发送到 {} 结果未知，不再重试: {}", queue.chatKey, e.toString());
+                complete(queue, message, SendStatus.State.UNKNOWN,
+                        "可能已经发出，请在 QQ 中确认 (" + e.getMessage() + ")");
+                return;
+            }
+            if (message.attempts < MAX_ATTEMPTS) {
+                long backoff = BASE_BACKOFF_MS << (message.attempts - 1);
+                log.warn("发送到 {} 失败 (第 {} 次)，{} ms 后重试: {}", queue.chatKey, message.attempts, backoff,
+                        e.getMessage());
+                notify(message, SendStatus.State.RETRYING, e.getMessage());
+                executor.schedule(() -> process(queue), backoff, TimeUnit.MILLISECONDS);
+            } else {
+                log.error("发送到 {} 失败，已重试 {} 次", queue.chatKey, message.attempts, e);
+                complete(queue, message, SendStatus.State.FAILED, e.getMessage());
+            }
+            return;
+        }
+
+        log.info("消息已发送到 {}", queue.chatKey);
+        groupMemoryService.addSentMessage(queue.chatKey, formatSent(message.content));
+        complete(queue, message, SendStatus.State.SENT, null);
+    }
+
+    /**
+     * 是否确定消息没有发出: 只有连接阶段就失败的才算，超时等其他错误都可能已经发出
+     */
+    private static boolean isNotSent(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException
+                    || cause instanceof NoRouteToHostException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 发送记录在聊天记录中的格式
+     */
+    public static String formatSent(String content) {
+        return String.format("[我]: %s", content);
+    }
+
+    private void deliver(OneBotBot bot, String chatKey, String content) throws UndeliverableException {
+        if (chatKey.startsWith("group_")) {
+            String groupId = chatKey.substring("group_".length());
+            OneBotGroup group = bot.getGroupRelation().getGroup(StringID.valueOf(groupId));
+            if (group == null) {
+                throw new UndeliverableException("Bot 找不到群: " + groupId + " (可能 Bot 不在群里)");
+            }
+            group.sendBlocking(content);
+        } else if (chatKey.startsWith("friend_")) {
+            String friendId = chatKey.substring("friend_".length());
+            OneBotFriend friend = bot.getContactRelation().getContact(StringID.valueOf(friendId));
+            if (friend == null) {
+                throw new UndeliverableException("Bot 找不到好友: " + friendId + " (可能不是好友关系)");
+            }
+            friend.sendBlocking(content);
+        } else {
+            throw new UndeliverableException("无法识别的聊天: " + chatKey);
+        }
+    }
+
+    /**
+     * 队首消息结束 (成功或最终失败)，继续发送下一条
+     */
+    private void complete(ChatQueue queue, Outgoing message, SendStatus.State state, String detail) {
+        synchronized (this) {
+            queue.pending.remove(message);
+        }
+        notify(message, state, detail);
+        executor.execute(() -> process(queue));
+    }
+
+    private void notify(Outgoing message, SendStatus.State state, String detail) {
+        if (message.listener == null) {
+            return;
+        }
+        try {
+            message.listener.accept(new SendStatus(message.chatKey, message.content, state, message.attempts, detail));
+        } catch (Exception e) {
+            log.debug("发送状态回调执行失败", e);
+        }
+    }
+
+    private static class ChatQueue {
+        final String chatKey;
+        final Queue<Outgoing> pending = new ArrayDeque<>();
+        final TokenBucketRateLimiter bucket = new TokenBucketRateLimiter(() -> CHAT_INTERVAL_MS, () -> CHAT_BURST);
+        boolean busy;
+
+        ChatQueue(String chatKey) {
+            this.chatKey = chatKey;
+        }
+    }
+
+    private static class Outgoing {
+        final String chatKey;
+        final String content;
+        final Consumer<SendStatus> listener;
+        int attempts;
+
+        Outgoing(String chatKey, String content, Consumer<SendStatus> listener) {
+            this.chatKey = chatKey;
+            this.content = content;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * 找不到目标，重试也没有用
+     */
+    private static class UndeliverableException extends Exception {
+        UndeliverableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 一条消息的发送状态
+     */
+    public static class SendStatus {
+
+        public enum State {
+            QUEUED("排队中"),
+            THROTTLED("限流等待"),
+            SENDING("发送中"),
+            RETRYING("重试中"),
+            SENT("已发送"),
+            FAILED("发送失败"),
+            // 请求发出后出错 (如超时)，不知道对方是否收到，不会自动重试
+            UNKNOWN("结果未知");
+
+            private final String label;
+
+            State(String label) {
+                this.label = label;
+            }
+
+            public String getLabel() {
+                return label;
+            }
+        }
+
+        private final String chatKey;
+        private final String content;
+        private final State state;
+        private final int attempts;
+        private final String detail;
+
+        SendStatus(String chatKey, String content, State state, int attempts, String detail) {
+            this.chatKey = chatKey;
+            this.content = content;
+            this.state = state;
+            this.attempts = attempts;
+            this.detail = detail;
+        }
+
+        public String getChatKey() {
+            return chatKey;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        public boolean isFinal() {
+            return state == State.SENT || state == State.FAILED || state == State.UNKNOWN;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(state.label);
+            if (state == State.RETRYING || (state == State.SENDING && attempts > 1)) {
+                sb.append(" (第 ").append(attempts).append(" 次)");
+            }
+            if (detail != null && !detail.isBlank()) {
+                sb.append(": ").append(detail);
+            }
+            return sb.toString();
+        }
+    }
+}
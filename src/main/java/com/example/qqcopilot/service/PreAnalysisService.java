@@ -0,0 +1,190 @@
+package com.example.qqcopilot.service;
+
+import com.example.qqcopilot.config.AiConfig;
+import com.example.qqcopilot.model.AnalysisResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 预分析 (可选开启)
+ * 监听中的聊天收到新消息后防抖一段时间，在后台以低优先级提前分析，结果暂存；
+ * 用户点击分析时如果聊天记录没变，直接展示暂存结果，无需等待
+ * 防抖期间再来新消息会取消上一次的预分析重新计时
+ */
+@Service
+public class PreAnalysisService {
+
+    private static final Logger log = LoggerFactory.getLogger(PreAnalysisService.class);
+
+    private final AiConfig aiConfig;
+    private final AiAnalysisService aiAnalysisService;
+    private final GroupMemoryService groupMemoryService;
+    private final UsageStore usageStore;
+    private final ScheduledExecutorService debouncer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "pre-analysis");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 以下状态只在 this 锁内读写
+    private String watchedChatKey;
+    private ScheduledFuture<?> pendingTrigger;
+    private Speculation current;
+    // 每次取消都加一，提交预分析前后对比，期间切换了聊天或来了新消息就丢弃这次结果
+    private long generation;
+
+    private volatile Consumer<String> onStaged;
+
+    public PreAnalysisService(AiConfig aiConfig, AiAnalysisService aiAnalysisService,
+                              GroupMemoryService groupMemoryService, UsageStore usageStore) {
+        this.aiConfig = aiConfig;
+        this.aiAnalysisService = aiAnalysisService;
+        this.groupMemoryService = groupMemoryService;
+        this.usageStore = usageStore;
+    }
+
+    @PostConstruct
+    public void init() {
+        groupMemoryService.registerMessageCallback((chatKey, message) -> onMessage(chatKey));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        debouncer.shutdownNow();
+    }
+
+    /**
+     * 切换监听的聊天，旧聊天的预分析全部丢弃
+     * @param chatKey 为 null 时停止预分析
+     */
+    public synchronized void watch(String chatKey) {
+        if (chatKey != null && chatKey.equals(watchedChatKey)) {
+            return;
+        }
+        cancelPending();
+        watchedChatKey = chatKey;
+    }
+
+    /**
+     * 预分析结果就绪时的通知 (在后台线程调用)
+     */
+    public void setOnStaged(Consumer<String> onStaged) {
+        this.onStaged = onStaged;
+    }
+
+    /**
+     * 查找可复用的预分析
+     * @param history 用户点击分析时的聊天记录，必须与预分析时完全一致
+     * @return 已完成或进行中的预分析；没有可用的返回 null
+     */
+    public synchronized CompletableFuture<AnalysisResult> findReusable(String chatKey, List<String> history) {
+        if (current == null || !current.chatKey.equals(chatKey)) {
+            return null;
+        }
+        if (!current.history.equals(history)) {
+            // 用户要分析的已经是另一份聊天记录，这次预分析不会再被用到
+            if (!current.claimed) {
+                current.future.cancel(true);
+                current = null;
+            }
+            return null;
+        }
+        if (current.future.isCompletedExceptionally() || current.future.isCancelled()) {
+            return null;
+        }
+        // 用户已在等待这次预分析，之后的新消息不能再取消它
+        current.claimed = true;
+        return current.future;
+    }
+
+    private void onMessage(String chatKey) {
+        if (!aiConfig.isSpeculativeEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            if (chatKey == null || !chatKey.equals(watchedChatKey)) {
+                return;
+            }
+            // 防抖: 新消息到来时取消之前的预分析并重新计时
+            cancelPending();
+            long triggerGeneration = generation;
+            pendingTrigger = debouncer.schedule(() -> trigger(chatKey, triggerGeneration),
+                    aiConfig.getSpeculativeDebounceMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void trigger(String chatKey, long triggerGeneration) {
+        // 超过每日用量上限后不再做推测性的请求
+        if (usageStore.isOverBudget()) {
+            return;
+        }
+        synchronized (this) {
+            if (triggerGeneration != generation) {
+                return;
+            }
+        }
+        List<String> history = groupMemoryService.getHistory(chatKey);
+        if (history.isEmpty()) {
+            return;
+        }
+        // 构建上下文比较耗时，不能占着锁，否则收到消息和切换聊天都要等它
+        CompletableFuture<AnalysisResult> future = aiAnalysisService.submitSpeculative(chatKey, history);
+        synchronized (this) {
+            if (triggerGeneration != generation) {
+                future.cancel(true);
+                return;
+            }
+            current = new Speculation(chatKey, history, future);
+        }
+        log.debug("已提交预分析: {} ({} 条消息)", chatKey, history.size());
+
+        future.whenComplete((result, ex) -> {
+            if (ex != null) {
+                log.debug("预分析未完成 {}: {}", chatKey, ex.getMessage());
+                return;
+            }
+            Consumer<String> callback = onStaged;
+            if (callback != null) {
+                callback.accept(chatKey);
+            }
+        });
+    }
+
+    private void cancelPending() {
+        generation++;
+        if (pendingTrigger != null) {
+            pendingTrigger.cancel(false);
+            pendingTrigger = null;
+        }
+        if (current != null) {
+            if (!current.claimed) {
+                current.future.cancel(true);
+            }
+            current = null;
+        }
+    }
+
+    private static class Speculation {
+        final String chatKey;
+        final List<String> history;
+        final CompletableFuture<AnalysisResult> future;
+        boolean claimed;
+
+        Speculation(String chatKey, List<String> history, CompletableFuture<AnalysisResult> future) {
+            this.chatKey = chatKey;
+            this.history = history;
+            this.future = future;
+        }
+    }
+}
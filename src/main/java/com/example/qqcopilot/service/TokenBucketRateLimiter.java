@@ -0,0 +1,86 @@
+package com.example.qqcopilot.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * 令牌桶限流器
+ * 容量和补充间隔每次都从 supplier 读取，修改配置后立即生效
+ */
+public class TokenBucketRateLimiter {
+
+    private final LongSupplier intervalMsSupplier;
+    private final IntSupplier capacitySupplier;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param intervalMsSupplier 每补充一个令牌的间隔 (毫秒)
+     * @param capacitySupplier 桶容量 (允许的突发请求数)
+     */
+    public TokenBucketRateLimiter(LongSupplier intervalMsSupplier, IntSupplier capacitySupplier) {
+        this.intervalMsSupplier = intervalMsSupplier;
+        this.capacitySupplier = capacitySupplier;
+        this.tokens = Math.max(1, capacitySupplier.getAsInt());
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 阻塞直到拿到一个令牌
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                waitNanos = (long) ((1 - tokens) * intervalNanos());
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+    }
+
+    /**
+     * 非阻塞尝试获取令牌
+     * @return 获取成功返回 0，否则返回还需等待的毫秒数
+     */
+    public synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis((long) ((1 - tokens) * intervalNanos())));
+    }
+
+    /**
+     * 归还一个未使用的令牌 (拿到令牌后发现没有请求可发时调用)
+     */
+    public synchronized void refund() {
+        tokens = Math.min(capacity(), tokens + 1);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long interval = intervalNanos();
+        if (interval <= 0) {
+            tokens = capacity();
+        } else {
+            tokens = Math.min(capacity(), tokens + (double) (now - lastRefillNanos) / interval);
+        }
+        lastRefillNanos = now;
+    }
+
+    private long intervalNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, intervalMsSupplier.getAsLong()));
+    }
+
+    private int capacity() {
+        return Math.max(1, capacitySupplier.getAsInt());
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.qqcopilot.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token 数估算
+ * 近似 BPE (cl100k 一类) 分词结果，不追求精确，只保证中英文都不会严重低估:
+ * - 汉字/假名/谚文: 每字约 1 token
+ * - 英文单词: 每 4 个字母约 1 token (前导空格并入单词)
+ * - 数字: 每 3 位约 1 token
+ * - 标点/符号: 每个 1 token，emoji 等增补平面字符 2 token
+ * 单条消息的估算结果带 LRU 缓存，同一条消息在多次分析间只计算一次
+ */
+@Component
+public class TokenEstimator {
+
+    private static final int CACHE_SIZE = 4096;
+
+    private final Map<String, Integer> cache = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * 估算单条消息的 token 数 (带缓存)
+     */
+    public int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        synchronized (cache) {
+            Integer cached = cache.get(text);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        int tokens = count(text);
+        synchronized (cache) {
+            cache.put(text, tokens);
+        }
+        return tokens;
+    }
+
+    /**
+     * 估算不需要缓存的长文本 (如系统提示词)
+     */
+    public int estimateUncached(String text) {
+        return text == null || text.isEmpty() ? 0 : count(text);
+    }
+
+    private int count(String text) {
+        int tokens = 0;
+        int letterRun = 0;
+        int digitRun = 0;
+        int otherRun = 0;
+
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+
+            if (cp < 128 && Character.isLetter(cp)) {
+                letterRun++;
+                continue;
+            }
+            if (Character.isDigit(cp)) {
+                digitRun++;
+                continue;
+            }
+            if (Character.isLetter(cp) && !isCjk(cp)) {
+                // 其他拼音文字 (西里尔、带重音的拉丁字母等)，约 2 字 1 token
+                otherRun++;
+                continue;
+            }
+
+            tokens += flush(letterRun, 4) + flush(digitRun, 3) + flush(otherRun, 2);
+            letterRun = digitRun = otherRun = 0;
+
+            if (Character.isWhitespace(cp)) {
+                // 空格通常并入下一个词
+                continue;
+            }
+            if (isCjk(cp)) {
+                tokens += 1;
+            } else if (Character.isSupplementaryCodePoint(cp)) {
+                tokens += 2;
+            } else {
+                tokens += 1;
+            }
+        }
+        tokens += flush(letterRun, 4) + flush(digitRun, 3) + flush(otherRun, 2);
+        return tokens;
+    }
+
+    private static int flush(int run, int charsPerToken) {
+        return run == 0 ? 0 : (run + charsPerToken - 1) / charsPerToken;
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL
+                || (cp >= 0x3000 && cp <= 0x303F)   // 中文标点
+                || (cp >= 0xFF00 && cp <= 0xFFEF);  // 全角字符
+    }
+}
@@ -0,0 +1,334 @@
+package com.example.qqcopilot.service;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内链路追踪
+ * 一次交互 (收到消息、加载历史、AI 分析) 记为一条 Trace，经过的每个阶段调用 mark 记录耗时 (距上一个阶段)
+ * 最近的 Trace 按类型分别保存在环形缓冲区里，供追踪面板查看和导出；记录只是几次 nanoTime 和一个小列表，可以常开
+ * 每种类型各自保留 CAPACITY 条，消息刷屏时不会把加载历史、AI 分析的记录挤掉
+ */
+@Service
+public class Tracer {
+
+    private static final Logger log = LoggerFactory.getLogger(Tracer.class);
+
+    public static final String MESSAGE = "收到消息";
+    public static final String HISTORY = "加载历史";
+    public static final String ANALYSIS = "AI 分析";
+
+    // 每种类型保留的条数
+    public static final int CAPACITY = 200;
+
+    // 类型 -> 环形缓冲区
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    // 每个聊天最近一条消息的 Trace，之后该聊天的分析、加载记录关联到它
+    // 消息 Trace 移出缓冲区时一起移除，条数不超过 CAPACITY
+    private final Map<String, Trace> latestMessages = new ConcurrentHashMap<>();
+    // 当前线程正在处理的 Trace，让同步回调 (如消息回调) 能接上同一条链路
+    private final ThreadLocal<Trace> current = new ThreadLocal<>();
+
+    /**
+     * 开始一条 Trace 并放入环形缓冲区
+     * 名称为 {@link #MESSAGE} 时记为该聊天的最新消息；其他 Trace 会关联该聊天最近一条消息，记录距它收到的时间
+     */
+    public Trace start(String name, String chatKey) {
+        Trace related = chatKey != null ? latestMessages.get(chatKey) : null;
+        Trace trace = new Trace(ids.incrementAndGet(), name, chatKey, related);
+        boolean message = MESSAGE.equals(name);
+        if (message && chatKey != null) {
+            latestMessages.put(chatKey, trace);
+        }
+        Trace evicted = rings.computeIfAbsent(name, k -> new Ring()).add(trace);
+        if (message && evicted != null && evicted.chatKey != null) {
+            latestMessages.remove(evicted.chatKey, evicted);
+        }
+        return trace;
+    }
+
+    /**
+     * 在当前线程上以 trace 为当前 Trace 执行 action，期间 {@link #current()} 返回它
+     */
+    public void runInTrace(Trace trace, Runnable action) {
+        Trace previous = current.get();
+        current.set(trace);
+        try {
+            action.run();
+        } finally {
+            if (previous != null) {
+                current.set(previous);
+            } else {
+                current.remove();
+            }
+        }
+    }
+
+    /**
+     * 当前线程正在处理的 Trace，没有时返回 null
+     */
+    public Trace current() {
+        return current.get();
+    }
+
+    /**
+     * 所有类型最近的 Trace，最新的在前
+     */
+    public List<Trace> getRecent() {
+        List<Trace> result = new ArrayList<>();
+        for (Ring ring : rings.values()) {
+            ring.addTo(result);
+        }
+        result.sort(Comparator.comparingLong(Trace::getId).reversed());
+        return result;
+    }
+
+    public void clear() {
+        rings.values().forEach(Ring::clear);
+        latestMessages.clear();
+    }
+
+    /**
+     * 导出为 JSON (时间单位毫秒)
+     */
+    public void export(List<Trace> traces, Path file) throws IOException {
+        JsonArray array = new JsonArray();
+        for (Trace trace : traces) {
+            array.add(trace.toJson());
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(file, new GsonBuilder().setPrettyPrinting().create().toJson(array), StandardCharsets.UTF_8);
+        log.info("已导出 {} 条追踪记录到 {}", traces.size(), file);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * 一种类型的环形缓冲区
+     */
+    private static class Ring {
+        private final Trace[] slots = new Trace[CAPACITY];
+        private long written;
+
+        /**
+         * @return 被覆盖掉的最旧的 Trace，缓冲区未满时返回 null
+         */
+        synchronized Trace add(Trace trace) {
+            int index = (int) (written % CAPACITY);
+            Trace evicted = slots[index];
+            slots[index] = trace;
+            written++;
+            return evicted;
+        }
+
+        synchronized void addTo(List<Trace> result) {
+            int count = (int) Math.min(written, CAPACITY);
+            for (int i = 1; i <= count; i++) {
+                result.add(slots[(int) ((written - i) % CAPACITY)]);
+            }
+        }
+
+        synchronized void clear() {
+            Arrays.fill(slots, null);
+            written = 0;
+        }
+    }
+
+    /**
+     * 一次交互的追踪记录
+     * mark 可以在不同线程调用 (监听线程 -> 调度线程 -> HTTP 回调 -> FX 线程)，按调用先后排列
+     */
+    public static class Trace {
+        private final long id;
+        private final String name;
+        private final String chatKey;
+        private final long startedAt = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final long relatedId;
+        private final double sinceRelatedMs;
+        private final List<Span> spans = new ArrayList<>();
+        private long lastNanos = startNanos;
+        private String error;
+
+        Trace(long id, String name, String chatKey, Trace related) {
+            this.id = id;
+            this.name = name;
+            this.chatKey = chatKey;
+            this.relatedId = related != null ? related.id : 0;
+            this.sinceRelatedMs = related != null ? toMillis(startNanos - related.startNanos) : 0;
+        }
+
+        /**
+         * 记录一个阶段结束，耗时为距上一个阶段 (或开始) 的时间
+         */
+        public void mark(String stage) {
+            mark(stage, null);
+        }
+
+        public synchronized void mark(String stage, String detail) {
+            long now = System.nanoTime();
+            spans.add(new Span(stage, toMillis(lastNanos - startNanos), toMillis(now - lastNanos), detail));
+            lastNanos = now;
+        }
+
+        /**
+         * 记录失败的阶段
+         */
+        public synchronized void fail(String stage, String error) {
+            mark(stage, error);
+            this.error = error != null ? error : stage;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getChatKey() {
+            return chatKey;
+        }
+
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        /**
+         * 关联的消息 Trace 编号，没有时为 0
+         */
+        public long getRelatedId() {
+            return relatedId;
+        }
+
+        /**
+         * 关联的消息收到后多久开始这条 Trace
+         */
+        public double getSinceRelatedMs() {
+            return sinceRelatedMs;
+        }
+
+        public synchronized List<Span> getSpans() {
+            return Collections.unmodifiableList(new ArrayList<>(spans));
+        }
+
+        /**
+         * 开始到最后一个阶段的总耗时
+         */
+        public synchronized double getTotalMs() {
+            return toMillis(lastNanos - startNanos);
+        }
+
+        public synchronized Span getSlowestSpan() {
+            Span slowest = null;
+            for (Span span : spans) {
+                if (slowest == null || span.getDurationMs() > slowest.getDurationMs()) {
+                    slowest = span;
+                }
+            }
+            return slowest;
+        }
+
+        public synchronized String getError() {
+            return error;
+        }
+
+        synchronized JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("id", id);
+            json.addProperty("name", name);
+            json.addProperty("chatKey", chatKey);
+            json.addProperty("startedAt", Instant.ofEpochMilli(startedAt).toString());
+            json.addProperty("totalMs", getTotalMs());
+            if (relatedId != 0) {
+                json.addProperty("relatedId", relatedId);
+                json.addProperty("sinceRelatedMs", sinceRelatedMs);
+            }
+            if (error != null) {
+                json.addProperty("error", error);
+            }
+            JsonArray spanArray = new JsonArray();
+            for (Span span : spans) {
+                JsonObject spanJson = new JsonObject();
+                spanJson.addProperty("stage", span.getStage());
+                spanJson.addProperty("offsetMs", span.getOffsetMs());
+                spanJson.addProperty("durationMs", span.getDurationMs());
+                if (span.getDetail() != null) {
+                    spanJson.addProperty("detail", span.getDetail());
+                }
+                spanArray.add(spanJson);
+            }
+            json.add("spans", spanArray);
+            return json;
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder(String.format("#%d %s %s 总计 %.2f ms", id, name,
+                    chatKey != null ? chatKey : "", getTotalMs()));
+            for (Span span : spans) {
+                sb.append(String.format(", %s %.2f ms", span.getStage(), span.getDurationMs()));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 一个阶段: 开始时间 (距 Trace 开始) 和耗时
+     */
+    public static class Span {
+        private final String stage;
+        private final double offsetMs;
+        private final double durationMs;
+        private final String detail;
+
+        Span(String stage, double offsetMs, double durationMs, String detail) {
+            this.stage = stage;
+            this.offsetMs = offsetMs;
+            this.durationMs = durationMs;
+            this.detail = detail;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        public double getOffsetMs() {
+            return offsetMs;
+        }
+
+        public double getDurationMs() {
+            return durationMs;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+    }
+}
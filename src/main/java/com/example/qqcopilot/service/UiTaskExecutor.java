@@ -0,0 +1,278 @@
+package com.example.qqcopilot.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 界面发起的后台任务的共享线程池 (加载历史、分析、拉取模型、测试连接、模型测速)
+ * - 线程有名字 (ui-task-N)，都是守护线程，空闲 60 秒后回收
+ * - 每类任务有并发上限，超出的在该类的队列里排队，不会一类任务占满线程池
+ * - 记录每类的运行数、排队数、完成数和排队等待时间，见 getStats()
+ * - 退出时 JavaFxApplication.stop 调用 shutdown()，排队的任务丢弃，运行中的被中断
+ */
+@Service
+public class UiTaskExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(UiTaskExecutor.class);
+
+    // 排队超过这个时间打印日志，说明该类的并发上限可能偏小
+    private static final long SLOW_QUEUE_MS = 1000;
+
+    /**
+     * 任务类别及其并发上限
+     */
+    public enum Category {
+        HISTORY("加载历史", 2),
+        ANALYSIS("分析", 2),
+        SETTINGS("设置", 2),
+        BENCHMARK("模型测速", 1);
+
+        private final String label;
+        private final int maxConcurrency;
+
+        Category(String label, int maxConcurrency) {
+            this.label = label;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+    }
+
+    private final ExecutorService pool;
+    // 以下状态只在 this 锁内读写
+    private final Map<Category, Lane> lanes = new EnumMap<>(Category.class);
+    private boolean shutdown;
+
+    public UiTaskExecutor() {
+        int maxThreads = 0;
+        for (Category category : Category.values()) {
+            lanes.put(category, new Lane());
+            maxThreads += category.maxConcurrency;
+        }
+        // 各类上限之和就是同时运行的最大任务数，线程池不需要再排队
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "ui-task-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.pool = executor;
+    }
+
+    /**
+     * 提交任务 (javafx.concurrent.Task 也是 Runnable，取消时会被中断)
+     * @throws RejectedExecutionException 已关闭时
+     */
+    public void execute(Category category, Runnable task) {
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("后台任务线程池已关闭");
+            }
+            Lane lane = lanes.get(category);
+            lane.queue.add(new Queued(task, System.nanoTime()));
+            dispatch(category, lane);
+        }
+    }
+
+    /**
+     * 各类任务的当前统计
+     */
+    public synchronized List<CategoryStats> getStats() {
+        List<CategoryStats> stats = new ArrayList<>();
+        lanes.forEach((category, lane) -> stats.add(new CategoryStats(category, lane.running, lane.queue.size(),
+                lane.completed, lane.failed, lane.completed + lane.failed > 0
+                        ? lane.totalWaitMs / (lane.completed + lane.failed) : 0, lane.maxWaitMs)));
+        return stats;
+    }
+
+    /**
+     * 丢弃排队的任务并中断运行中的任务，最多等待 timeoutMs 让它们结束
+     */
+    public void shutdown(long timeoutMs) {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            lanes.values().forEach(lane -> lane.queue.clear());
+        }
+        log.info("关闭后台任务线程池: {}", getStats());
+        pool.shutdownNow();
+        try {
+            if (!pool.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                log.warn("部分后台任务在 {} ms 内没有结束", timeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        shutdown(2000);
+    }
+
+    /**
+     * 在 this 锁内调用: 该类还有空位时把排队的任务交给线程池
+     */
+    private void dispatch(Category category, Lane lane) {
+        while (lane.running < category.maxConcurrency && !lane.queue.isEmpty()) {
+            Queued queued = lane.queue.poll();
+            lane.running++;
+            pool.execute(() -> run(category, lane, queued));
+        }
+    }
+
+    private void run(Category category, Lane lane, Queued queued) {
+        long waitMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued.submittedAt);
+        if (waitMs > SLOW_QUEUE_MS) {
+            log.info("{}任务排队 {} ms 才开始执行", category.label, waitMs);
+        }
+        boolean failed = false;
+        try {
+            queued.task.run();
+            failed = failedInside(queued.task);
+        } catch (RuntimeException e) {
+            failed = true;
+            log.warn("{}任务执行失败", category.label, e);
+        } finally {
+            synchronized (this) {
+                lane.running--;
+                if (failed) {
+                    lane.failed++;
+                } else {
+                    lane.completed++;
+                }
+                lane.totalWaitMs += waitMs;
+                lane.maxWaitMs = Math.max(lane.maxWaitMs, waitMs);
+                if (!shutdown) {
+                    dispatch(category, lane);
+                }
+            }
+        }
+    }
+
+    /**
+     * javafx.concurrent.Task 是 FutureTask，run() 把异常存进结果而不抛出，只能从结果里看是否失败；
+     * 被取消的不算失败
+     */
+    private static boolean failedInside(Runnable task) {
+        if (!(task instanceof Future<?> future) || !future.isDone() || future.isCancelled()) {
+            return false;
+        }
+        try {
+            future.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (CancellationException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static class Lane {
+        final Queue<Queued> queue = new ArrayDeque<>();
+        int running;
+        long completed;
+        long failed;
+        long totalWaitMs;
+        long maxWaitMs;
+    }
+
+    private static class Queued {
+        final Runnable task;
+        final long submittedAt;
+
+        Queued(Runnable task, long submittedAt) {
+            this.task = task;
+            this.submittedAt = submittedAt;
+        }
+    }
+
+    /**
+     * 一类任务的统计快照
+     */
+    public static class CategoryStats {
+        private final Category category;
+        private final int running;
+        private final int queued;
+        private final long completed;
+        private final long failed;
+        private final long avgWaitMs;
+        private final long maxWaitMs;
+
+        CategoryStats(Category category, int running, int queued, long completed, long failed,
+                      long avgWaitMs, long maxWaitMs) {
+            this.category = category;
+            this.running = running;
+            this.queued = queued;
+            this.completed = completed;
+            this.failed = failed;
+            this.avgWaitMs = avgWaitMs;
+            this.maxWaitMs = maxWaitMs;
+        }
+
+        public Category getCategory() {
+            return category;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getAvgWaitMs() {
+            return avgWaitMs;
+        }
+
+        public long getMaxWaitMs() {
+            return maxWaitMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: 运行 %d, 排队 %d, 完成 %d, 失败 %d, 平均等待 %d ms",
+                    category.label, running, queued, completed, failed, avgWaitMs);
+        }
+    }
+}
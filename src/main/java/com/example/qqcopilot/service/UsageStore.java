@@ -0,0 +1,229 @@
+package com.example.qqcopilot.service;
+
+import com.example.qqcopilot.config.AiConfig;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI 用量统计
+ * 按天汇总请求数、prompt/completion token 和耗时，并按模型、按聊天细分
+ * 写入 ~/.qqcopilot/usage.json，只保留最近 30 天
+ * 配置了每日上限 (dailyTokenLimit / dailyRequestLimit) 时用于判断是否超额
+ */
+@Component
+public class UsageStore {
+
+    private static final Logger log = LoggerFactory.getLogger(UsageStore.class);
+    private static final String USAGE_FILE = AiConfig.CONFIG_DIR + "/usage.json";
+    private static final int KEEP_DAYS = 30;
+    // 合并短时间内的多次写盘
+    private static final long SAVE_DELAY_SECONDS = 10;
+
+    private final AiConfig aiConfig;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    // 日期 (yyyy-MM-dd) -> 当天用量，只在 this 锁内读写
+    private final TreeMap<String, DayUsage> days = new TreeMap<>();
+    private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "usage-persist");
+        t.setDaemon(true);
+        return t;
+    });
+    private boolean saveScheduled;
+
+    public UsageStore(AiConfig aiConfig) {
+        this.aiConfig = aiConfig;
+    }
+
+    @PostConstruct
+    public void load() {
+        Path path = Paths.get(USAGE_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            Map<String, DayUsage> loaded = gson.fromJson(Files.readString(path),
+                    new TypeToken<TreeMap<String, DayUsage>>() {}.getType());
+            if (loaded != null) {
+                synchronized (this) {
+                    days.putAll(loaded);
+                }
+            }
+            log.info("已加载 AI 用量记录 ({} 天)", days.size());
+        } catch (Exception e) {
+            log.warn("加载 AI 用量记录失败: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        saver.shutdownNow();
+        save();
+    }
+
+    /**
+     * 记录一次成功的 AI 请求
+     * @param chatKey 发起请求的聊天，没有时为 null
+     */
+    public void record(String chatKey, String model, long promptTokens, long completionTokens, long latencyMs) {
+        synchronized (this) {
+            DayUsage day = days.computeIfAbsent(today(), k -> new DayUsage());
+            day.total.add(promptTokens, completionTokens, latencyMs);
+            day.byModel.computeIfAbsent(model != null ? model : "-", k -> new Totals())
+                    .add(promptTokens, completionTokens, latencyMs);
+            day.byChat.computeIfAbsent(chatKey != null ? chatKey : "-", k -> new Totals())
+                    .add(promptTokens, completionTokens, latencyMs);
+            while (days.size() > KEEP_DAYS) {
+                days.pollFirstEntry();
+            }
+            if (saveScheduled) {
+                return;
+            }
+            saveScheduled = true;
+        }
+        saver.schedule(this::save, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 今天的用量 (副本)
+     */
+    public synchronized DayUsage getToday() {
+        DayUsage day = days.get(today());
+        return day != null ? day.copy() : new DayUsage();
+    }
+
+    /**
+     * 今天是否已超过配置的每日上限
+     */
+    public boolean isOverBudget() {
+        long tokenLimit = aiConfig.getDailyTokenLimit();
+        long requestLimit = aiConfig.getDailyRequestLimit();
+        if (tokenLimit <= 0 && requestLimit <= 0) {
+            return false;
+        }
+        synchronized (this) {
+            DayUsage day = days.get(today());
+            if (day == null) {
+                return false;
+            }
+            Totals total = day.total;
+            return (tokenLimit > 0 && total.getTotalTokens() >= tokenLimit)
+                    || (requestLimit > 0 && total.requests >= requestLimit);
+        }
+    }
+
+    private void save() {
+        try {
+            String json;
+            synchronized (this) {
+                saveScheduled = false;
+                json = gson.toJson(days);
+            }
+            Path path = Paths.get(USAGE_FILE);
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, json);
+        } catch (Exception e) {
+            log.warn("保存 AI 用量记录失败: {}", e.getMessage());
+        }
+    }
+
+    private static String today() {
+        return LocalDate.now().toString();
+    }
+
+    /**
+     * 一天的用量
+     */
+    public static class DayUsage {
+        Totals total = new Totals();
+        Map<String, Totals> byModel = new TreeMap<>();
+        Map<String, Totals> byChat = new TreeMap<>();
+
+        public Totals getTotal() {
+            return total;
+        }
+
+        public Map<String, Totals> getByModel() {
+            return byModel;
+        }
+
+        public Map<String, Totals> getByChat() {
+            return byChat;
+        }
+
+        DayUsage copy() {
+            DayUsage copy = new DayUsage();
+            copy.total = total.copy();
+            byModel.forEach((k, v) -> copy.byModel.put(k, v.copy()));
+            byChat.forEach((k, v) -> copy.byChat.put(k, v.copy()));
+            return copy;
+        }
+    }
+
+    /**
+     * 累计值
+     */
+    public static class Totals {
+        long requests;
+        long promptTokens;
+        long completionTokens;
+        long latencyMs;
+
+        void add(long promptTokens, long completionTokens, long latencyMs) {
+            this.requests++;
+            this.promptTokens += promptTokens;
+            this.completionTokens += completionTokens;
+            this.latencyMs += latencyMs;
+        }
+
+        Totals copy() {
+            Totals copy = new Totals();
+            copy.requests = requests;
+            copy.promptTokens = promptTokens;
+            copy.completionTokens = completionTokens;
+            copy.latencyMs = latencyMs;
+            return copy;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getPromptTokens() {
+            return promptTokens;
+        }
+
+        public long getCompletionTokens() {
+            return completionTokens;
+        }
+
+        public long getTotalTokens() {
+            return promptTokens + completionTokens;
+        }
+
+        public long getAvgLatencyMs() {
+            return requests == 0 ? 0 : latencyMs / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d 次, %d tokens (输入 %d / 输出 %d), 平均 %d ms",
+                    requests, getTotalTokens(), promptTokens, completionTokens, getAvgLatencyMs());
+        }
+    }
+}
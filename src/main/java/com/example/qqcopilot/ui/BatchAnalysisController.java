@@ -0,0 +1,191 @@
+package com.example.qqcopilot.ui;
+
+import com.example.qqcopilot.model.AnalysisResult;
+import com.example.qqcopilot.model.GroupInfo;
+import com.example.qqcopilot.service.AiAnalysisService;
+import com.example.qqcopilot.service.BatchAnalysis;
+import com.example.qqcopilot.service.GroupMemoryService;
+import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.fxml.FXML;
+import javafx.scene.control.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 批量分析窗口控制器
+ * 同时分析多个聊天，每个聊天完成后立即显示结果
+ */
+@Lazy
+@Component
+public class BatchAnalysisController {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchAnalysisController.class);
+
+    private final AiAnalysisService aiAnalysisService;
+    private final GroupMemoryService groupMemoryService;
+
+    @FXML private TextArea chatKeysArea;
+    @FXML private Button startButton;
+    @FXML private Button cancelButton;
+    @FXML private ProgressBar progressBar;
+    @FXML private Label statsLabel;
+    @FXML private TableView<BatchRow> resultTable;
+    @FXML private TableColumn<BatchRow, String> chatColumn;
+    @FXML private TableColumn<BatchRow, String> statusColumn;
+    @FXML private TableColumn<BatchRow, String> timeColumn;
+    @FXML private TableColumn<BatchRow, String> suggestionColumn;
+    @FXML private TextArea detailArea;
+
+    private final ObservableList<BatchRow> rows = FXCollections.observableArrayList();
+    private BatchAnalysis currentBatch;
+
+    public BatchAnalysisController(AiAnalysisService aiAnalysisService, GroupMemoryService groupMemoryService) {
+        this.aiAnalysisService = aiAnalysisService;
+        this.groupMemoryService = groupMemoryService;
+    }
+
+    @FXML
+    public void initialize() {
+        rows.clear();
+        resultTable.setItems(rows);
+        chatColumn.setCellValueFactory(cell -> cell.getValue().chat);
+        statusColumn.setCellValueFactory(cell -> cell.getValue().status);
+        timeColumn.setCellValueFactory(cell -> cell.getValue().time);
+        suggestionColumn.setCellValueFactory(cell -> cell.getValue().suggestion);
+
+        // 选中一行时显示完整建议
+        resultTable.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) ->
+                detailArea.setText(newVal != null ? newVal.detail : ""));
+
+        // 默认填入最近活跃的群
+        StringBuilder sb = new StringBuilder();
+        for (GroupInfo group : groupMemoryService.getRecentGroupsSnapshot()) {
+            sb.append(GroupMemoryService.groupKey(group.getGroupId())).append("\n");
+        }
+        chatKeysArea.setText(sb.toString());
+
+        cancelButton.setDisable(true);
+        progressBar.setProgress(0);
+        statsLabel.setText("");
+    }
+
+    @FXML
+    public void onStart() {
+        List<String> chatKeys = parseChatKeys(chatKeysArea.getText());
+        if (chatKeys.isEmpty()) {
+            statsLabel.setText("请输入要分析的聊天");
+            return;
+        }
+
+        rows.clear();
+        detailArea.clear();
+        Map<String, BatchRow> rowsByKey = new HashMap<>();
+        for (String chatKey : chatKeys) {
+            BatchRow row = new BatchRow(chatKey);
+            rowsByKey.put(chatKey, row);
+            rows.add(row);
+        }
+
+        startButton.setDisable(true);
+        cancelButton.setDisable(false);
+        progressBar.setProgress(0);
+
+        BatchAnalysis batch = aiAnalysisService.analyzeBatch(chatKeys, (chatKey, result, error) ->
+                Platform.runLater(() -> onResult(rowsByKey.get(chatKey), result, error)));
+        currentBatch = batch;
+        statsLabel.setText("分析中...");
+
+        batch.getCompletion().thenRun(() -> Platform.runLater(() -> {
+            if (currentBatch == batch) {
+                startButton.setDisable(false);
+                cancelButton.setDisable(true);
+                statsLabel.setText(batch.toString());
+                currentBatch = null;
+            }
+        }));
+    }
+
+    @FXML
+    public void onCancel() {
+        if (currentBatch != null) {
+            currentBatch.cancel();
+            log.info("用户取消了批量分析");
+        }
+    }
+
+    private void onResult(BatchRow row, AnalysisResult result, Throwable error) {
+        if (row == null) {
+            return;
+        }
+        if (error == null) {
+            row.status.set(result.isCached() ? "缓存" : "完成");
+            row.time.set(result.isCached() ? "-" : result.getLatencyMs() + " ms");
+            row.suggestion.set(result.getSuggestions().isEmpty() ? "" : result.getSuggestions().get(0));
+            row.detail = String.join("\n\n", result.getSuggestions());
+        } else if (error instanceof CancellationException) {
+            row.status.set("已取消");
+        } else {
+            row.status.set("失败");
+            row.detail = error.getMessage();
+            row.suggestion.set(error.getMessage());
+        }
+        if (resultTable.getSelectionModel().getSelectedItem() == row) {
+            detailArea.setText(row.detail);
+        }
+
+        BatchAnalysis batch = currentBatch;
+        if (batch != null) {
+            progressBar.setProgress((double) batch.getFinishedCount() / batch.size());
+            statsLabel.setText(batch.toString());
+        }
+    }
+
+    /**
+     * 每行一个聊天: group_xxx / friend_xxx，纯数字按群号处理
+     * 去重后保持输入顺序 ("123" 和 "group_123" 是同一个群)，表格每个聊天只有一行
+     */
+    private List<String> parseChatKeys(String text) {
+        Set<String> chatKeys = new LinkedHashSet<>();
+        for (String line : text.split("[\\r\\n,，\\s]+")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (trimmed.matches("\\d+")) {
+                chatKeys.add(GroupMemoryService.groupKey(trimmed));
+            } else if (trimmed.matches("(group|friend)_\\d+")) {
+                chatKeys.add(trimmed);
+            }
+        }
+        return new ArrayList<>(chatKeys);
+    }
+
+    /**
+     * 结果表格的一行
+     */
+    private static class BatchRow {
+        final StringProperty chat;
+        final StringProperty status = new SimpleStringProperty("排队中");
+        final StringProperty time = new SimpleStringProperty("");
+        final StringProperty suggestion = new SimpleStringProperty("");
+        String detail = "";
+
+        BatchRow(String chatKey) {
+            this.chat = new SimpleStringProperty(chatKey);
+        }
+    }
+}
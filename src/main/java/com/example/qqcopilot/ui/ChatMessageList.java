@@ -0,0 +1,140 @@
+package com.example.qqcopilot.ui;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.Region;
+
+import java.util.List;
+
+/**
+ * 聊天记录列表 (替代 TextArea)
+ * 基于 ListView，只渲染可见的几行，追加一条消息的开销与历史长度无关；
+ * 列表最多保留 capacity 条，超出时丢弃最早的
+ * 提示文字 (加载中、暂无记录等) 用列表的占位标签显示，不混入消息
+ * 支持多选后 Ctrl+C 或右键复制
+ */
+public class ChatMessageList extends ListView<String> {
+
+    private static final int DEFAULT_CAPACITY = 500;
+
+    private final ObservableList<String> messages = FXCollections.observableArrayList();
+    private final Label placeholder = new Label();
+    private int capacity = DEFAULT_CAPACITY;
+
+    public ChatMessageList() {
+        setItems(messages);
+        setPlaceholder(placeholder);
+        placeholder.setWrapText(true);
+        placeholder.getStyleClass().add("text-muted");
+        getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        setCellFactory(list -> new MessageCell());
+
+        MenuItem copyItem = new MenuItem("复制");
+        copyItem.setOnAction(e -> copySelection());
+        setContextMenu(new ContextMenu(copyItem));
+        setOnKeyPressed(e -> {
+            if (e.isShortcutDown() && e.getCode() == KeyCode.C) {
+                copySelection();
+                e.consume();
+            }
+        });
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        trim();
+    }
+
+    /**
+     * 清空消息并显示提示文字
+     */
+    public void showStatus(String text) {
+        messages.clear();
+        placeholder.setText(text);
+    }
+
+    /**
+     * 替换全部消息并滚动到底部
+     */
+    public void setMessages(List<String> history) {
+        int from = Math.max(0, history.size() - capacity);
+        messages.setAll(history.subList(from, history.size()));
+        scrollToBottom();
+    }
+
+    /**
+     * 追加一条消息并滚动到底部
+     */
+    public void append(String message) {
+        messages.add(message);
+        trim();
+        scrollToBottom();
+    }
+
+    /**
+     * 一次追加多条消息，只触发一次列表更新和滚动
+     */
+    public void appendAll(List<String> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        messages.addAll(batch);
+        trim();
+        scrollToBottom();
+    }
+
+    private void trim() {
+        int overflow = messages.size() - capacity;
+        if (overflow > 0) {
+            messages.remove(0, overflow);
+        }
+    }
+
+    private void scrollToBottom() {
+        if (!messages.isEmpty()) {
+            scrollTo(messages.size() - 1);
+        }
+    }
+
+    private void copySelection() {
+        List<String> selected = getSelectionModel().getSelectedItems();
+        if (selected.isEmpty()) {
+            return;
+        }
+        ClipboardContent content = new ClipboardContent();
+        content.putString(String.join("\n", selected));
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+
+    /**
+     * 自动换行的消息行，宽度跟随列表 (留出滚动条的位置)
+     */
+    private class MessageCell extends ListCell<String> {
+
+        MessageCell() {
+            setWrapText(true);
+            setMinWidth(0);
+            setMaxWidth(Region.USE_PREF_SIZE);
+            prefWidthProperty().bind(ChatMessageList.this.widthProperty().subtract(24));
+        }
+
+        @Override
+        protected void updateItem(String item, boolean empty) {
+            super.updateItem(item, empty);
+            setText(empty || item == null ? null : item);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.example.qqcopilot.ui;
+
+import com.example.qqcopilot.config.AiConfig;
+import com.example.qqcopilot.model.AnalysisResult;
+import com.example.qqcopilot.model.GroupInfo;
+import com.example.qqcopilot.service.AiAnalysisService;
+import com.example.qqcopilot.service.AiRequestScheduler;
+import com.example.qqcopilot.service.ChatHistoryService;
+import com.example.qqcopilot.service.GroupMemoryService;
+import com.example.qqcopilot.service.OutboundMessageService;
+import com.example.qqcopilot.service.UiTaskExecutor;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
+import javafx.fxml.FXML;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TabPane;
+import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 多聊天面板控制器
+ * 每个聊天一个标签页，各自订阅自己的聊天 (GroupMemoryService.subscribe)，各自保留分析状态
+ * - 当前显示的标签页按帧合并刷新 (FxUpdateBatcher)
+ * - 后台标签页只把消息放进无锁队列并计数，不做任何界面刷新；标题上的未读数每秒更新一次，
+ *   切换过去时一次性追加
+ * 打开很多个繁忙的群时，界面开销只与当前显示的那一个有关
+ */
+@Lazy
+@Component
+public class DashboardController {
+
+    private static final Logger log = LoggerFactory.getLogger(DashboardController.class);
+
+    private static final String CHAT_TYPE_GROUP = "群聊";
+    private static final String CHAT_TYPE_FRIEND = "好友";
+
+    private final GroupMemoryService groupMemoryService;
+    private final ChatHistoryService chatHistoryService;
+    private final AiAnalysisService aiAnalysisService;
+    private final OutboundMessageService outboundMessageService;
+    private final UiTaskExecutor uiTaskExecutor;
+    private final AiConfig aiConfig;
+
+    @FXML private ComboBox<String> chatTypeCombo;
+    @FXML private TextField targetIdInput;
+    @FXML private Label hintLabel;
+    @FXML private TabPane tabPane;
+
+    // 只在 FX 线程读写
+    private final Map<String, ChatPane> panes = new LinkedHashMap<>();
+    private Timeline housekeeping;
+
+    public DashboardController(GroupMemoryService groupMemoryService, ChatHistoryService chatHistoryService,
+                               AiAnalysisService aiAnalysisService, OutboundMessageService outboundMessageService,
+                               UiTaskExecutor uiTaskExecutor, AiConfig aiConfig) {
+        this.groupMemoryService = groupMemoryService;
+        this.chatHistoryService = chatHistoryService;
+        this.aiAnalysisService = aiAnalysisService;
+        this.outboundMessageService = outboundMessageService;
+        this.uiTaskExecutor = uiTaskExecutor;
+        this.aiConfig = aiConfig;
+    }
+
+    @FXML
+    public void initialize() {
+        panes.clear();
+        chatTypeCombo.setItems(FXCollections.observableArrayList(CHAT_TYPE_GROUP, CHAT_TYPE_FRIEND));
+        chatTypeCombo.getSelectionModel().selectFirst();
+
+        // 只有当前显示的标签页渲染新消息
+        tabPane.getSelectionModel().selectedItemProperty().addListener((obs, oldTab, newTab) -> {
+            if (oldTab != null && oldTab.getUserData() instanceof ChatPane pane) {
+                pane.setShown(false);
+            }
+            if (newTab != null && newTab.getUserData() instanceof ChatPane pane) {
+                pane.setShown(true);
+            }
+        });
+
+        // 每秒: 后台标签页更新未读数，当前标签页补上切换瞬间漏进队列的消息
+        housekeeping = new Timeline(new KeyFrame(Duration.seconds(1), e -> panes.values().forEach(ChatPane::tick)));
+        housekeeping.setCycleCount(Animation.INDEFINITE);
+        housekeeping.play();
+    }
+
+    @FXML
+    public void onOpenChat() {
+        String targetId = targetIdInput.getText().trim();
+        if (!targetId.matches("\\d+")) {
+            hintLabel.setText("请输入纯数字的群号或 QQ 号");
+            return;
+        }
+        ChatPane pane = CHAT_TYPE_FRIEND.equals(chatTypeCombo.getValue())
+                ? open(GroupMemoryService.friendKey(targetId), "好友 " + targetId)
+                : open(GroupMemoryService.groupKey(targetId), "群 " + targetId);
+        tabPane.getSelectionModel().select(pane.tab);
+        targetIdInput.clear();
+    }
+
+    /**
+     * 打开所有最近活跃的群
+     */
+    @FXML
+    public void onOpenRecent() {
+        List<GroupInfo> groups = groupMemoryService.getRecentGroupsSnapshot();
+        if (groups.isEmpty()) {
+            hintLabel.setText("还没有收到过群消息");
+            return;
+        }
+        for (GroupInfo group : groups) {
+            open(GroupMemoryService.groupKey(group.getGroupId()), group.getGroupName());
+        }
+    }
+
+    /**
+     * 窗口关闭时调用: 取消所有订阅和进行中的分析
+     */
+    public void closeAll() {
+        if (housekeeping != null) {
+            housekeeping.stop();
+        }
+        new ArrayList<>(panes.values()).forEach(ChatPane::dispose);
+        panes.clear();
+        tabPane.getTabs().clear();
+    }
+
+    /**
+     * 打开聊天的标签页，已打开时直接返回 (第一个标签页会被 TabPane 自动选中)
+     */
+    private ChatPane open(String chatKey, String title) {
+        ChatPane pane = panes.get(chatKey);
+        if (pane == null) {
+            pane = new ChatPane(chatKey, title);
+            panes.put(chatKey, pane);
+            tabPane.getTabs().add(pane.tab);
+            hintLabel.setText("已打开 " + panes.size() + " 个聊天");
+        }
+        return pane;
+    }
+
+    /**
+     * 一个聊天的标签页
+     */
+    private class ChatPane {
+        final String chatKey;
+        final String title;
+        final Tab tab = new Tab();
+        final ChatMessageList messageList = new ChatMessageList();
+        final Button analyzeButton = new Button("分析");
+        final Button regenerateButton = new Button("重新生成");
+        final Button cancelButton = new Button("取消");
+        final ProgressIndicator loadingIndicator = new ProgressIndicator();
+        final Label statsLabel = new Label();
+        final Label sendStatusLabel = new Label();
+        final VBox optionsContainer = new VBox(6);
+
+        // 显示中: 新消息按帧合并追加；后台: 放进 inbox，只计数
+        final FxUpdateBatcher<String> batcher;
+        final Queue<String> inbox = new ConcurrentLinkedQueue<>();
+        final AtomicInteger inboxSize = new AtomicInteger();
+        final AtomicInteger unread = new AtomicInteger();
+        final Consumer<String> subscriber = this::onMessage;
+        volatile boolean shown;
+
+        // 以下只在 FX 线程读写
+        CompletableFuture<AnalysisResult> analyzeFuture;
+        int displayedUnread = -1;
+
+        ChatPane(String chatKey, String title) {
+            this.chatKey = chatKey;
+            this.title = title;
+            this.batcher = new FxUpdateBatcher<>(messageList::appendAll, aiConfig::getUiMaxUpdatesPerSecond);
+
+            tab.setText(title);
+            tab.setTooltip(new Tooltip(chatKey));
+            tab.setUserData(this);
+            tab.setContent(buildContent());
+            tab.setOnClosed(e -> {
+                dispose();
+                panes.remove(chatKey);
+                hintLabel.setText("已打开 " + panes.size() + " 个聊天");
+            });
+
+            groupMemoryService.subscribe(chatKey, subscriber);
+            loadHistory();
+        }
+
+        private VBox buildContent() {
+            analyzeButton.getStyleClass().add("accent");
+            analyzeButton.setOnAction(e -> analyze(false));
+            regenerateButton.getStyleClass().add("flat");
+            regenerateButton.setOnAction(e -> analyze(true));
+            cancelButton.getStyleClass().add("flat");
+            cancelButton.setOnAction(e -> cancelAnalyze());
+            cancelButton.setVisible(false);
+            loadingIndicator.setPrefSize(20, 20);
+            loadingIndicator.setVisible(false);
+            statsLabel.getStyleClass().addAll("text-muted", "text-small");
+            sendStatusLabel.getStyleClass().add("text-small");
+
+            Region spacer = new Region();
+            HBox.setHgrow(spacer, Priority.ALWAYS);
+            HBox actions = new HBox(8, analyzeButton, regenerateButton, cancelButton, loadingIndicator,
+                    spacer, sendStatusLabel, statsLabel);
+            actions.setAlignment(Pos.CENTER_LEFT);
+
+            ScrollPane optionsScroll = new ScrollPane(optionsContainer);
+            optionsScroll.setFitToWidth(true);
+            optionsScroll.setHbarPolicy(ScrollPane.ScrollBarPolicy.NEVER);
+            optionsScroll.setPrefHeight(120);
+
+            VBox.setVgrow(messageList, Priority.ALWAYS);
+            VBox content = new VBox(8, messageList, actions, optionsScroll);
+            content.setPadding(new Insets(8, 0, 0, 0));
+            return content;
+        }
+
+        /**
+         * 收到该聊天的新消息 (在收消息的线程调用)
+         */
+        private void onMessage(String message) {
+            if (shown) {
+                batcher.submit(message);
+                return;
+            }
+            inbox.add(message);
+            // 后台积压最多保留列表容量那么多条
+            if (inboxSize.incrementAndGet() > messageList.getCapacity()) {
+                inbox.poll();
+                inboxSize.decrementAndGet();
+            }
+            unread.incrementAndGet();
+        }
+
+        void setShown(boolean shown) {
+            this.shown = shown;
+            if (shown) {
+                drainInbox();
+                unread.set(0);
+                updateTitle();
+            }
+        }
+
+        void tick() {
+            if (shown) {
+                if (inboxSize.get() > 0) {
+                    drainInbox();
+                }
+            } else {
+                updateTitle();
+            }
+        }
+
+        private void drainInbox() {
+            List<String> batch = new ArrayList<>();
+            String message;
+            while ((message = inbox.poll()) != null) {
+                inboxSize.decrementAndGet();
+                batch.add(message);
+            }
+            messageList.appendAll(batch);
+        }
+
+        private void updateTitle() {
+            int count = unread.get();
+            if (count == displayedUnread) {
+                return;
+            }
+            displayedUnread = count;
+            tab.setText(count > 0 ? String.format("%s (%s)", title, count > 99 ? "99+" : count) : title);
+        }
+
+        private void loadHistory() {
+            showHistory();
+            boolean isFriend = chatKey.startsWith("friend_");
+            String targetId = chatKey.substring(chatKey.indexOf('_') + 1);
+            Task<List<String>> task = new Task<>() {
+                @Override
+                protected List<String> call() {
+                    List<String> apiHistory = isFriend
+                            ? chatHistoryService.fetchFriendHistory(targetId, 30)
+                            : chatHistoryService.fetchGroupHistory(targetId, 30);
+                    groupMemoryService.mergeExternalHistory(chatKey, apiHistory);
+                    return apiHistory;
+                }
+            };
+            task.setOnSucceeded(e -> showHistory());
+            task.setOnFailed(e -> log.warn("加载 {} 的历史消息失败", chatKey, task.getException()));
+            uiTaskExecutor.execute(UiTaskExecutor.Category.HISTORY, task);
+        }
+
+        /**
+         * 用内存中的完整历史替换列表
+         * 先清空待显示的消息再读取历史，宁可重复一条也不丢消息
+         */
+        private void showHistory() {
+            batcher.clear();
+            inbox.clear();
+            inboxSize.set(0);
+            List<String> history = groupMemoryService.getHistory(chatKey);
+            if (history.isEmpty()) {
+                messageList.showStatus("暂无聊天记录，新消息会自动显示");
+            } else {
+                messageList.setMessages(history);
+            }
+        }
+
+        private void analyze(boolean bypassCache) {
+            List<String> history = groupMemoryService.getHistory(chatKey);
+            if (history.isEmpty()) {
+                statsLabel.setText("暂无聊天记录");
+                return;
+            }
+            cancelAnalyze();
+            setAnalyzing(true);
+            optionsContainer.getChildren().clear();
+            statsLabel.setText("");
+
+            // 不占用线程等待结果，20 个标签页同时分析也只有 AI 调度器里的请求
+            CompletableFuture<AnalysisResult> future = aiAnalysisService.submitAnalysis(chatKey, history,
+                    AiRequestScheduler.Priority.USER, bypassCache);
+            analyzeFuture = future;
+            future.whenComplete((result, ex) -> Platform.runLater(() -> {
+                if (analyzeFuture != future) {
+                    return;
+                }
+                analyzeFuture = null;
+                setAnalyzing(false);
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                if (cause == null) {
+                    renderOptions(result.getSuggestions());
+                    statsLabel.setText(result.toString());
+                } else if (!(cause instanceof CancellationException)) {
+                    statsLabel.setText("分析失败: " + cause.getMessage());
+                }
+            }));
+        }
+
+        private void cancelAnalyze() {
+            if (analyzeFuture != null) {
+                CompletableFuture<AnalysisResult> future = analyzeFuture;
+                analyzeFuture = null;
+                future.cancel(true);
+            }
+            setAnalyzing(false);
+        }
+
+        private void setAnalyzing(boolean analyzing) {
+            analyzeButton.setDisable(analyzing);
+            regenerateButton.setDisable(analyzing);
+            cancelButton.setVisible(analyzing);
+            loadingIndicator.setVisible(analyzing);
+        }
+
+        private void renderOptions(List<String> options) {
+            optionsContainer.getChildren().clear();
+            for (String optionText : options) {
+                Button btn = new Button(optionText);
+                btn.setMaxWidth(Double.MAX_VALUE);
+                btn.setWrapText(true);
+                btn.getStyleClass().add("flat");
+                btn.setOnAction(event -> {
+                    outboundMessageService.send(chatKey, optionText,
+                            status -> Platform.runLater(() -> onSendStatus(status)));
+                    optionsContainer.getChildren().clear();
+                });
+                optionsContainer.getChildren().add(btn);
+            }
+        }
+
+        private void onSendStatus(OutboundMessageService.SendStatus status) {
+            sendStatusLabel.setText(status.toString());
+            sendStatusLabel.getStyleClass().removeAll("success", "warning", "danger");
+            switch (status.getState()) {
+                case SENT -> {
+                    sendStatusLabel.getStyleClass().add("success");
+                    onMessage(OutboundMessageService.formatSent(status.getContent()));
+                }
+                case THROTTLED, RETRYING, UNKNOWN -> sendStatusLabel.getStyleClass().add("warning");
+                case FAILED -> sendStatusLabel.getStyleClass().add("danger");
+                default -> { }
+            }
+        }
+
+        void dispose() {
+            groupMemoryService.unsubscribe(chatKey, subscriber);
+            cancelAnalyze();
+            batcher.clear();
+            inbox.clear();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.qqcopilot.ui;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * 合并界面更新
+ * 任意线程提交的条目先放进无锁队列，在 FX 线程按帧一次性取出交给 sink，
+ * 一批消息只触发一次界面刷新；刷新频率不超过 maxPerSecond，界面开销与帧率相关而不是与消息速度相关
+ * 队列为空时停止 AnimationTimer，不占用空闲帧
+ */
+public class FxUpdateBatcher<T> {
+
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    // 已经请求启动 timer 且尚未取走队列时为 true，避免每条消息都 runLater
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Consumer<List<T>> sink;
+    private final IntSupplier maxPerSecond;
+    private final AnimationTimer timer;
+
+    /**
+     * @param sink 在 FX 线程接收一批条目 (按提交顺序)
+     * @param maxPerSecond 每秒最多调用 sink 几次，每次刷新时读取，可随配置变化
+     */
+    public FxUpdateBatcher(Consumer<List<T>> sink, IntSupplier maxPerSecond) {
+        this.sink = sink;
+        this.maxPerSecond = maxPerSecond;
+        this.timer = new AnimationTimer() {
+            private long lastFlush;
+
+            @Override
+            public void handle(long now) {
+                long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, maxPerSecond.getAsInt());
+                if (lastFlush != 0 && now - lastFlush < interval) {
+                    return;
+                }
+                lastFlush = now;
+                flush();
+                // flush 之后才提交的条目会重新 runLater(start)，在 stop 之后执行，不会丢
+                stop();
+            }
+        };
+    }
+
+    /**
+     * 提交一个条目 (线程安全)
+     */
+    public void submit(T item) {
+        queue.add(item);
+        if (scheduled.compareAndSet(false, true)) {
+            Platform.runLater(timer::start);
+        }
+    }
+
+    /**
+     * 丢弃尚未显示的条目 (例如切换聊天时)
+     */
+    public void clear() {
+        queue.clear();
+    }
+
+    private void flush() {
+        scheduled.set(false);
+        List<T> batch = new ArrayList<>();
+        T item;
+        while ((item = queue.poll()) != null) {
+            batch.add(item);
+        }
+        if (!batch.isEmpty()) {
+            sink.accept(batch);
+        }
+    }
+}
@@ -1,8 +1,17 @@
 package com.example.qqcopilot.ui;
 
+import com.example.qqcopilot.config.AiConfig;
+import com.example.qqcopilot.model.AnalysisResult;
+import com.example.qqcopilot.model.BotHealth;
 import com.example.qqcopilot.service.AiAnalysisService;
+import com.example.qqcopilot.service.AiRequestScheduler;
+import com.example.qqcopilot.service.BotConnectionMonitor;
 import com.example.qqcopilot.service.ChatHistoryService;
 import com.example.qqcopilot.service.GroupMemoryService;
+import com.example.qqcopilot.service.OutboundMessageService;
+import com.example.qqcopilot.service.PreAnalysisService;
+import com.example.qqcopilot.service.Tracer;
+import com.example.qqcopilot.service.UiTaskExecutor;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.concurrent.Task;
@@ -14,19 +23,17 @@ import javafx.scene.control.*;
 import javafx.scene.layout.VBox;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
-import love.forte.simbot.application.Application;
-import love.forte.simbot.bot.Bot;
-import love.forte.simbot.common.id.ID;
-import love.forte.simbot.common.id.StringID;
-import love.forte.simbot.component.onebot.v11.core.actor.OneBotFriend;
-import love.forte.simbot.component.onebot.v11.core.actor.OneBotGroup;
-import love.forte.simbot.component.onebot.v11.core.bot.OneBotBot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.function.BiConsumer;
 
 @Component
@@ -37,47 +44,78 @@ public class MainController {
     private final GroupMemoryService groupMemoryService;
     private final AiAnalysisService aiAnalysisService;
     private final ChatHistoryService chatHistoryService;
-    private final Application application; // Simbot Application
+    private final PreAnalysisService preAnalysisService;
+    private final AiConfig aiConfig;
+    private final UiTaskExecutor uiTaskExecutor;
+    private final OutboundMessageService outboundMessageService;
+    private final Tracer tracer;
     private final ApplicationContext springContext;
 
     @FXML private ComboBox<String> chatTypeCombo;
     @FXML private TextField targetIdInput;
     @FXML private Label chatHistoryLabel;
     @FXML private Button analyzeButton;
+    @FXML private Button regenerateButton;
     @FXML private Button cancelAnalyzeButton;
+    @FXML private CheckBox speculativeCheckBox;
     @FXML private Button refreshButton;
     @FXML private Button settingsButton;
+    @FXML private Button batchButton;
+    @FXML private Button dashboardButton;
+    @FXML private Button traceButton;
+    @FXML private Label botStatusLabel;
     @FXML private ProgressIndicator loadingIndicator;
     @FXML private VBox optionsContainer;
-    @FXML private TextArea chatHistoryArea;
+    @FXML private Label analysisStatsLabel;
+    @FXML private Label sendStatusLabel;
+    @FXML private ChatMessageList chatHistoryList;
 
     // 当前监听的聊天 Key (格式: "group_xxx" 或 "friend_xxx")
     private String currentChatKey = null;
     // 消息回调
     private BiConsumer<String, String> messageCallback;
+    // 批量分析窗口 (同时只开一个，控制器是单例)
+    private Stage batchStage;
+    // 多聊天面板窗口 (同时只开一个)
+    private Stage dashboardStage;
+    // 追踪面板窗口 (同时只开一个)
+    private Stage traceStage;
+    // 新消息先进入批处理队列，每帧合并刷新一次
+    private final FxUpdateBatcher<PendingMessage> messageBatcher;
     // 当前分析任务
-    private Task<List<String>> currentAnalyzeTask = null;
+    private Task<AnalysisResult> currentAnalyzeTask = null;
+    // 当前分析任务等待的 AI 请求，取消时直接中止 HTTP 请求
+    private CompletableFuture<AnalysisResult> currentAnalyzeFuture = null;
     
     // 聊天类型常量
     private static final String CHAT_TYPE_GROUP = "群聊";
     private static final String CHAT_TYPE_FRIEND = "好友";
 
     public MainController(GroupMemoryService groupMemoryService, 
-                          AiAnalysisService aiAnalysisService, 
+                          AiAnalysisService aiAnalysisService,
                           ChatHistoryService chatHistoryService,
-                          Application application,
+                          PreAnalysisService preAnalysisService,
+                          AiConfig aiConfig,
+                          UiTaskExecutor uiTaskExecutor,
+                          OutboundMessageService outboundMessageService,
+                          Tracer tracer,
                           ApplicationContext springContext) {
         this.groupMemoryService = groupMemoryService;
         this.aiAnalysisService = aiAnalysisService;
         this.chatHistoryService = chatHistoryService;
-        this.application = application;
+        this.preAnalysisService = preAnalysisService;
+        this.aiConfig = aiConfig;
+        this.uiTaskExecutor = uiTaskExecutor;
+        this.outboundMessageService = outboundMessageService;
+        this.tracer = tracer;
         this.springContext = springContext;
+        this.messageBatcher = new FxUpdateBatcher<>(this::appendMessages, aiConfig::getUiMaxUpdatesPerSecond);
     }
 
     @FXML
     public void initialize() {
         loadingIndicator.setVisible(false);
-        chatHistoryArea.setText("选择聊天类型，输入目标ID后点击[加载历史]查看聊天记录...\n新消息会自动更新显示。");
+        chatHistoryList.showStatus("选择聊天类型，输入目标ID后点击[加载历史]查看聊天记录...\n新消息会自动更新显示。");
 
         // 初始化聊天类型下拉框
         chatTypeCombo.setItems(FXCollections.observableArrayList(CHAT_TYPE_GROUP, CHAT_TYPE_FRIEND));
@@ -88,32 +126,51 @@ public class MainController {
         chatTypeCombo.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> {
             updateChatTypeUI();
             // 清空当前聊天
-            currentChatKey = null;
-            chatHistoryArea.setText("请输入目标ID并加载历史...");
+            setCurrentChatKey(null);
+            chatHistoryList.showStatus("请输入目标ID并加载历史...");
         });
 
         // 注册消息回调 - 实现自动更新
         messageCallback = (chatKey, message) -> {
-            // 只有当前监听的聊天才更新
+            // 只有当前监听的聊天才更新；回调在收消息的线程执行，带上该消息的 Trace 记录渲染耗时
             if (chatKey != null && chatKey.equals(currentChatKey)) {
-                Platform.runLater(() -> {
-                    appendMessage(message);
-                });
+                messageBatcher.submit(new PendingMessage(chatKey, message, tracer.current()));
             }
         };
         groupMemoryService.registerMessageCallback(messageCallback);
 
+        // 预分析开关 (持久化到配置)
+        speculativeCheckBox.setSelected(aiConfig.isSpeculativeEnabled());
+        speculativeCheckBox.selectedProperty().addListener((obs, oldVal, newVal) -> {
+            aiConfig.update(b -> b.speculativeEnabled(newVal));
+            aiConfig.save();
+        });
+        preAnalysisService.setOnStaged(chatKey -> Platform.runLater(() -> {
+            if (chatKey.equals(currentChatKey) && currentAnalyzeTask == null) {
+                analysisStatsLabel.setText("预分析已就绪，点击分析立即查看");
+            }
+        }));
+
         // 监听目标ID输入变化
         targetIdInput.textProperty().addListener((obs, oldVal, newVal) -> {
             String trimmed = newVal != null ? newVal.trim() : "";
             if (!trimmed.isEmpty() && trimmed.matches("\\d+")) {
-                currentChatKey = buildChatKey(trimmed);
+                setCurrentChatKey(buildChatKey(trimmed));
                 // 显示该聊天的现有消息
                 refreshChatHistory(currentChatKey);
             }
         });
     }
     
+    /**
+     * 切换当前监听的聊天，预分析跟随切换
+     */
+    private void setCurrentChatKey(String chatKey) {
+        currentChatKey = chatKey;
+        messageBatcher.clear();
+        preAnalysisService.watch(chatKey);
+    }
+
     /**
      * 更新 UI 根据聊天类型
      */
@@ -185,17 +242,133 @@ public class MainController {
     }
 
     /**
-     * 追加一条消息到聊天区域
+     * Bot 健康检查结果 (在 bot-monitor 线程发布)
      */
-    private void appendMessage(String message) {
-        String current = chatHistoryArea.getText();
-        if (current.startsWith("输入群号") || current.startsWith("该群暂无") || current.startsWith("正在加载")) {
-            chatHistoryArea.setText(message + "\n");
-        } else {
-            chatHistoryArea.appendText(message + "\n");
+    @EventListener(BotConnectionMonitor.BotHealthEvent.class)
+    public void onBotHealth(BotConnectionMonitor.BotHealthEvent event) {
+        BotHealth health = event.getHealth();
+        Platform.runLater(() -> {
+            // 界面还没加载完
+            if (botStatusLabel == null) {
+                return;
+            }
+            botStatusLabel.setText(health.toShortString());
+            botStatusLabel.setTooltip(new Tooltip(health.toString()));
+            botStatusLabel.getStyleClass().removeAll("success", "warning", "danger");
+            switch (health.getState()) {
+                case CONNECTED -> botStatusLabel.getStyleClass().add("success");
+                case DEGRADED, CONNECTING, RECONNECTING -> botStatusLabel.getStyleClass().add("warning");
+                default -> botStatusLabel.getStyleClass().add("danger");
+            }
+        });
+    }
+
+    /**
+     * 打开批量分析窗口 (非模态，分析期间主窗口可继续使用)，已打开时切到前面
+     */
+    @FXML
+    public void onOpenBatch() {
+        if (batchStage != null && batchStage.isShowing()) {
+            batchStage.toFront();
+            return;
+        }
+        try {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/batch-view.fxml"));
+            loader.setControllerFactory(springContext::getBean);
+            Parent root = loader.load();
+            BatchAnalysisController controller = loader.getController();
+
+            batchStage = new Stage();
+            batchStage.setTitle("批量分析");
+            batchStage.initOwner(batchButton.getScene().getWindow());
+            batchStage.setScene(new Scene(root));
+            // 关闭窗口时取消还没完成的批量分析，看不到结果就不再消耗用量
+            batchStage.setOnHidden(e -> controller.onCancel());
+            batchStage.show();
+        } catch (Exception e) {
+            log.error("打开批量分析窗口失败", e);
+            showAlert("打开批量分析窗口失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 打开多聊天面板，已打开时切到前面
+     */
+    @FXML
+    public void onOpenDashboard() {
+        if (dashboardStage != null && dashboardStage.isShowing()) {
+            dashboardStage.toFront();
+            return;
+        }
+        try {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/dashboard-view.fxml"));
+            loader.setControllerFactory(springContext::getBean);
+            Parent root = loader.load();
+            DashboardController controller = loader.getController();
+
+            dashboardStage = new Stage();
+            dashboardStage.setTitle("多聊天面板");
+            dashboardStage.initOwner(dashboardButton.getScene().getWindow());
+            dashboardStage.setScene(new Scene(root));
+            // 关闭窗口时取消所有订阅和进行中的分析
+            dashboardStage.setOnHidden(e -> controller.closeAll());
+            dashboardStage.show();
+        } catch (Exception e) {
+            log.error("打开多聊天面板失败", e);
+            showAlert("打开多聊天面板失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 打开追踪面板，已打开时切到前面
+     */
+    @FXML
+    public void onOpenTraces() {
+        if (traceStage != null && traceStage.isShowing()) {
+            traceStage.toFront();
+            return;
+        }
+        try {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/trace-view.fxml"));
+            loader.setControllerFactory(springContext::getBean);
+            Parent root = loader.load();
+            TraceViewerController controller = loader.getController();
+
+            traceStage = new Stage();
+            traceStage.setTitle("链路追踪");
+            traceStage.initOwner(traceButton.getScene().getWindow());
+            traceStage.setScene(new Scene(root));
+            // 关闭窗口时停止自动刷新
+            traceStage.setOnHidden(e -> controller.close());
+            traceStage.show();
+        } catch (Exception e) {
+            log.error("打开追踪面板失败", e);
+            showAlert("打开追踪面板失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 把一批新消息追加到聊天区域 (FX 线程，每帧最多一次)
+     * 切换聊天前提交、切换后才取出的消息在这里丢弃
+     */
+    private void appendMessages(List<PendingMessage> batch) {
+        List<String> messages = new ArrayList<>(batch.size());
+        List<Tracer.Trace> traces = new ArrayList<>();
+        for (PendingMessage pending : batch) {
+            if (pending.chatKey.equals(currentChatKey)) {
+                messages.add(pending.message);
+                if (pending.trace != null) {
+                    pending.trace.mark("等待渲染");
+                    traces.add(pending.trace);
+                }
+            } else if (pending.trace != null) {
+                pending.trace.mark("已丢弃", "已切换聊天");
+            }
+        }
+        chatHistoryList.appendAll(messages);
+        for (Tracer.Trace trace : traces) {
+            trace.mark("界面渲染", "本批 " + messages.size() + " 条");
         }
-        // 滚动到底部
-        chatHistoryArea.setScrollTop(Double.MAX_VALUE);
     }
 
     @FXML
@@ -211,30 +384,34 @@ public class MainController {
         }
         
         String chatKey = buildChatKey(targetId);
-        currentChatKey = chatKey;
+        setCurrentChatKey(chatKey);
         
         // 显示加载状态
-        chatHistoryArea.setText("正在加载历史消息...");
+        chatHistoryList.showStatus("正在加载历史消息...");
         refreshButton.setDisable(true);
         
         boolean isFriend = isFriendMode();
+        Tracer.Trace trace = tracer.start(Tracer.HISTORY, chatKey);
         
         // 在后台线程加载历史消息
         Task<List<String>> task = new Task<>() {
             @Override
             protected List<String> call() throws Exception {
+                trace.mark("等待线程");
                 if (isFriend) {
                     // 好友私聊 - 使用 NapCat 的 get_friend_msg_history API
-                    List<String> apiHistory = chatHistoryService.fetchFriendHistory(targetId, 30);
+                    List<String> apiHistory = chatHistoryService.fetchFriendHistory(targetId, 30, trace);
                     // 合并到内存
                     groupMemoryService.mergeExternalHistory(chatKey, apiHistory);
+                    trace.mark("合并");
                     // 返回合并后的历史
                     return groupMemoryService.getHistory(chatKey);
                 } else {
                     // 群聊 - 从 OneBot API 获取历史消息
-                    List<String> apiHistory = chatHistoryService.fetchGroupHistory(targetId, 30);
+                    List<String> apiHistory = chatHistoryService.fetchGroupHistory(targetId, 30, trace);
                     // 合并到内存
                     groupMemoryService.mergeExternalHistory(chatKey, apiHistory);
+                    trace.mark("合并");
                     // 返回合并后的历史
                     return groupMemoryService.getHistory(chatKey);
                 }
@@ -243,21 +420,24 @@ public class MainController {
         
         task.setOnSucceeded(e -> {
             Platform.runLater(() -> {
+                trace.mark("切回界面线程");
                 List<String> history = task.getValue();
                 displayHistory(history, isFriend);
+                trace.mark("界面渲染", history.size() + " 条");
                 refreshButton.setDisable(false);
             });
         });
         
         task.setOnFailed(e -> {
             Platform.runLater(() -> {
+                trace.fail("加载失败", task.getException().getMessage());
                 log.error("加载历史消息失败", task.getException());
-                chatHistoryArea.setText("加载失败: " + task.getException().getMessage());
+                chatHistoryList.showStatus("加载失败: " + task.getException().getMessage());
                 refreshButton.setDisable(false);
             });
         });
         
-        new Thread(task).start();
+        uiTaskExecutor.execute(UiTaskExecutor.Category.HISTORY, task);
     }
 
     /**
@@ -266,18 +446,12 @@ public class MainController {
     private void displayHistory(List<String> history, boolean isFriend) {
         if (history.isEmpty()) {
             if (isFriend) {
-                chatHistoryArea.setText("暂无与该好友的聊天记录\n(请确保 Bot 已连接并是该用户的好友)");
+                chatHistoryList.showStatus("暂无与该好友的聊天记录\n(请确保 Bot 已连接并是该用户的好友)");
             } else {
-                chatHistoryArea.setText("该群暂无聊天记录\n(请确保 Bot 已连接并加入该群)");
+                chatHistoryList.showStatus("该群暂无聊天记录\n(请确保 Bot 已连接并加入该群)");
             }
         } else {
-            StringBuilder sb = new StringBuilder();
-            for (String msg : history) {
-                sb.append(msg).append("\n");
-            }
-            chatHistoryArea.setText(sb.toString());
-            // 滚动到底部
-            chatHistoryArea.setScrollTop(Double.MAX_VALUE);
+            chatHistoryList.setMessages(history);
         }
     }
 
@@ -288,6 +462,18 @@ public class MainController {
 
     @FXML
     public void onAnalyze() {
+        startAnalyze(false);
+    }
+
+    /**
+     * 忽略缓存重新生成建议
+     */
+    @FXML
+    public void onRegenerate() {
+        startAnalyze(true);
+    }
+
+    private void startAnalyze(boolean bypassCache) {
         String targetId = targetIdInput.getText().trim();
         if (targetId.isEmpty()) {
             showAlert("请输入目标ID！");
@@ -313,43 +499,75 @@ public class MainController {
             return;
         }
 
+        Tracer.Trace trace = tracer.start(Tracer.ANALYSIS, chatKey);
+
+        // 预分析已经算好 (或正在算) 同样的聊天记录时直接复用
+        CompletableFuture<AnalysisResult> staged =
+                bypassCache ? null : preAnalysisService.findReusable(chatKey, history);
+        if (staged != null && staged.isDone()) {
+            trace.mark("复用预分析");
+            AnalysisResult result = staged.join();
+            renderOptions(targetId, isFriend, result.getSuggestions());
+            trace.mark("按钮渲染");
+            analysisStatsLabel.setText("预分析 · " + result);
+            return;
+        }
+
         analyzeButton.setDisable(true);
+        regenerateButton.setDisable(true);
         cancelAnalyzeButton.setVisible(true);
         loadingIndicator.setVisible(true);
         optionsContainer.getChildren().clear();
+        analysisStatsLabel.setText("");
+
+        // 用户主动发起的请求优先于后台请求
+        if (staged != null) {
+            trace.mark("复用进行中的预分析");
+        }
+        CompletableFuture<AnalysisResult> future = staged != null ? staged
+                : aiAnalysisService.submitAnalysis(chatKey, history, AiRequestScheduler.Priority.USER, bypassCache, trace);
+        currentAnalyzeFuture = future;
 
-        currentAnalyzeTask = new Task<>() {
+        Task<AnalysisResult> task = new Task<>() {
             @Override
-            protected List<String> call() throws Exception {
-                return aiAnalysisService.analyze(history);
+            protected AnalysisResult call() throws Exception {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    future.cancel(true);
+                    throw e;
+                } catch (CancellationException e) {
+                    // AI 请求被取消时任务也按取消结束，而不是失败
+                    cancel(false);
+                    throw e;
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
             }
         };
+        currentAnalyzeTask = task;
 
-        currentAnalyzeTask.setOnSucceeded(e -> {
-            Platform.runLater(() -> {
-                renderOptions(targetId, isFriend, currentAnalyzeTask.getValue());
-                resetAnalyzeState();
-            });
+        // 以下回调本身就在界面线程执行
+        task.setOnSucceeded(e -> {
+            trace.mark("切回界面线程");
+            AnalysisResult result = task.getValue();
+            renderOptions(targetId, isFriend, result.getSuggestions());
+            trace.mark("按钮渲染");
+            analysisStatsLabel.setText(result.toString());
+            resetAnalyzeState();
         });
 
-        currentAnalyzeTask.setOnFailed(e -> {
-            Throwable ex = currentAnalyzeTask.getException();
-            Platform.runLater(() -> {
-                if (!currentAnalyzeTask.isCancelled()) {
-                    showAlert("分析失败: " + ex.getMessage());
-                }
-                resetAnalyzeState();
-            });
+        task.setOnFailed(e -> {
+            showAlert("分析失败: " + task.getException().getMessage());
+            resetAnalyzeState();
         });
 
-        currentAnalyzeTask.setOnCancelled(e -> {
-            Platform.runLater(() -> {
-                optionsContainer.getChildren().clear();
-                resetAnalyzeState();
-            });
+        task.setOnCancelled(e -> {
+            optionsContainer.getChildren().clear();
+            resetAnalyzeState();
         });
 
-        new Thread(currentAnalyzeTask).start();
+        uiTaskExecutor.execute(UiTaskExecutor.Category.ANALYSIS, task);
     }
 
     /**
@@ -358,7 +576,11 @@ public class MainController {
     @FXML
     public void onCancelAnalyze() {
         if (currentAnalyzeTask != null && currentAnalyzeTask.isRunning()) {
+            // 先结束后台任务 (保证按取消而不是失败处理)，再取消 AI 请求 (断开 HTTP 连接)
             currentAnalyzeTask.cancel(true);
+            if (currentAnalyzeFuture != null) {
+                currentAnalyzeFuture.cancel(true);
+            }
             log.info("用户取消了 AI 分析");
         }
     }
@@ -368,9 +590,11 @@ public class MainController {
      */
     private void resetAnalyzeState() {
         analyzeButton.setDisable(false);
+        regenerateButton.setDisable(false);
         cancelAnalyzeButton.setVisible(false);
         loadingIndicator.setVisible(false);
         currentAnalyzeTask = null;
+        currentAnalyzeFuture = null;
     }
 
     private void renderOptions(String targetId, boolean isFriend, List<String> options) {
@@ -383,11 +607,8 @@ public class MainController {
             btn.getStyleClass().add("flat");
             
             btn.setOnAction(event -> {
-                if (isFriend) {
-                    sendToFriend(targetId, optionText);
-                } else {
-                    sendToGroup(targetId, optionText);
-                }
+                send(isFriend ? GroupMemoryService.friendKey(targetId) : GroupMemoryService.groupKey(targetId),
+                        optionText);
                 optionsContainer.getChildren().clear(); 
             });
             
@@ -395,88 +616,36 @@ public class MainController {
         }
     }
 
-    private void sendToGroup(String groupId, String content) {
-        try {
-            log.info("Sending to group {}: {}", groupId, content);
-            
-            OneBotBot bot = getOneBotBot();
-            if (bot == null) {
-                showAlert("未连接到任何 QQ 账号 (Bot)，请检查 NapCat 连接！");
-                return;
-            }
+    /**
+     * 提交到发送队列，不阻塞界面；发送成功后才写入聊天记录并显示
+     */
+    private void send(String chatKey, String content) {
+        log.info("Sending to {}: {}", chatKey, content);
+        outboundMessageService.send(chatKey, content, status -> Platform.runLater(() -> onSendStatus(status)));
+    }
 
-            // 获取群对象并发送消息 - 使用 StringID.valueOf() 创建ID
-            ID gid = StringID.valueOf(groupId);
-            // 使用 bot.getGroupRelation().getGroup(id) 获取群
-            OneBotGroup group = bot.getGroupRelation().getGroup(gid);
-            if (group != null) {
-                group.sendBlocking(content);
-                log.info("消息已发送到群 {}", groupId);
-                
-                // 将Bot发送的消息也记录到历史中
-                String chatKey = GroupMemoryService.groupKey(groupId);
-                String formattedMessage = String.format("[我]: %s", content);
-                groupMemoryService.addSentMessage(chatKey, formattedMessage);
-                // 更新UI显示
-                Platform.runLater(() -> appendMessage(formattedMessage));
-            } else {
-                showAlert("Bot 找不到群: " + groupId + " (可能 Bot 不在群里)");
+    private void onSendStatus(OutboundMessageService.SendStatus status) {
+        sendStatusLabel.setText(status.toString());
+        sendStatusLabel.getStyleClass().removeAll("success", "warning", "danger");
+        switch (status.getState()) {
+            case SENT -> {
+                sendStatusLabel.getStyleClass().add("success");
+                messageBatcher.submit(new PendingMessage(status.getChatKey(),
+                        OutboundMessageService.formatSent(status.getContent()), null));
             }
-
-        } catch (Exception e) {
-            log.error("发送消息失败", e);
-            showAlert("发送失败: " + e.getMessage());
-        }
-    }
-    
-    private void sendToFriend(String friendId, String content) {
-        try {
-            log.info("Sending to friend {}: {}", friendId, content);
-            
-            OneBotBot bot = getOneBotBot();
-            if (bot == null) {
-                showAlert("未连接到任何 QQ 账号 (Bot)，请检查 NapCat 连接！");
-                return;
+            case THROTTLED, RETRYING -> sendStatusLabel.getStyleClass().add("warning");
+            case FAILED -> {
+                sendStatusLabel.getStyleClass().add("danger");
+                showAlert("发送失败: " + status.getDetail());
             }
-
-            // 获取好友对象并发送消息
-            ID fid = StringID.valueOf(friendId);
-            // 使用 bot.getContactRelation().getContact(id) 获取好友
-            OneBotFriend friend = bot.getContactRelation().getContact(fid);
-            if (friend != null) {
-                friend.sendBlocking(content);
-                log.info("消息已发送给好友 {}", friendId);
-                
-                // 将Bot发送的消息也记录到历史中
-                String chatKey = GroupMemoryService.friendKey(friendId);
-                String formattedMessage = String.format("[我]: %s", content);
-                groupMemoryService.addSentMessage(chatKey, formattedMessage);
-                // 更新UI显示
-                Platform.runLater(() -> appendMessage(formattedMessage));
-            } else {
-                showAlert("Bot 找不到好友: " + friendId + " (可能不是好友关系)");
+            case UNKNOWN -> {
+                sendStatusLabel.getStyleClass().add("warning");
+                showAlert("发送结果未知: " + status.getDetail());
             }
-
-        } catch (Exception e) {
-            log.error("发送消息失败", e);
-            showAlert("发送失败: " + e.getMessage());
+            default -> { }
         }
     }
     
-    /**
-     * 获取已连接的 OneBotBot
-     */
-    private OneBotBot getOneBotBot() {
-        for (var botManager : application.getBotManagers()) {
-            for (Bot b : botManager.allToList()) {
-                if (b instanceof OneBotBot oneBotBot) {
-                    return oneBotBot;
-                }
-            }
-        }
-        return null;
-    }
-
     private void showAlert(String message) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle("提示");
@@ -488,4 +657,20 @@ public class MainController {
         }
         alert.showAndWait();
     }
+
+    /**
+     * 等待显示的消息，带上所属聊天以便切换聊天后丢弃
+     * trace 为收到该消息时的 Trace，自己发送的消息为 null
+     */
+    private static class PendingMessage {
+        final String chatKey;
+        final String message;
+        final Tracer.Trace trace;
+
+        PendingMessage(String chatKey, String message, Tracer.Trace trace) {
+            this.chatKey = chatKey;
+            this.message = message;
+            this.trace = trace;
+        }
+    }
 }
@@ -0,0 +1,234 @@
+package com.example.qqcopilot.ui;
+
+import com.example.qqcopilot.service.ModelBenchmarkService;
+import com.example.qqcopilot.service.ModelBenchmarkService.ModelStats;
+import com.example.qqcopilot.service.UiTaskExecutor;
+import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.fxml.FXML;
+import javafx.scene.control.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 模型测速窗口控制器
+ * 从设置窗口打开，对选中的模型并行发送固定的小请求，表格实时显示每个模型的延迟分位数，
+ * 完成后推荐最快且能稳定返回 JSON 数组的模型
+ */
+@Lazy
+@Component
+public class ModelBenchmarkController {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelBenchmarkController.class);
+    private static final int DEFAULT_RUNS = 3;
+    private static final int MAX_RUNS = 20;
+    // 默认勾选的模型数量上限，避免一次测太多
+    private static final int DEFAULT_SELECTED = 5;
+
+    private final ModelBenchmarkService modelBenchmarkService;
+    private final UiTaskExecutor uiTaskExecutor;
+
+    @FXML private ListView<String> modelList;
+    @FXML private TextField runsField;
+    @FXML private Button startButton;
+    @FXML private Button cancelButton;
+    @FXML private ProgressBar progressBar;
+    @FXML private Label statusLabel;
+    @FXML private TableView<ResultRow> resultTable;
+    @FXML private TableColumn<ResultRow, String> modelColumn;
+    @FXML private TableColumn<ResultRow, String> successColumn;
+    @FXML private TableColumn<ResultRow, String> ttftColumn;
+    @FXML private TableColumn<ResultRow, String> totalColumn;
+    @FXML private TableColumn<ResultRow, String> speedColumn;
+    @FXML private Label recommendLabel;
+    @FXML private Button applyButton;
+
+    private final ObservableList<ResultRow> rows = FXCollections.observableArrayList();
+    private String apiUrl;
+    private String apiKey;
+    private Consumer<String> onApply;
+    private String recommended;
+    private Task<List<ModelStats>> currentTask;
+
+    public ModelBenchmarkController(ModelBenchmarkService modelBenchmarkService, UiTaskExecutor uiTaskExecutor) {
+        this.modelBenchmarkService = modelBenchmarkService;
+        this.uiTaskExecutor = uiTaskExecutor;
+    }
+
+    @FXML
+    public void initialize() {
+        rows.clear();
+        resultTable.setItems(rows);
+        modelColumn.setCellValueFactory(cell -> cell.getValue().model);
+        successColumn.setCellValueFactory(cell -> cell.getValue().success);
+        ttftColumn.setCellValueFactory(cell -> cell.getValue().ttft);
+        totalColumn.setCellValueFactory(cell -> cell.getValue().total);
+        speedColumn.setCellValueFactory(cell -> cell.getValue().speed);
+
+        modelList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        runsField.setText(String.valueOf(DEFAULT_RUNS));
+        cancelButton.setDisable(true);
+        applyButton.setDisable(true);
+        progressBar.setProgress(0);
+        statusLabel.setText("");
+        recommendLabel.setText("");
+        recommended = null;
+    }
+
+    /**
+     * 打开窗口后由设置窗口调用
+     * @param models 可选的模型 (设置窗口下拉框中的列表)
+     * @param currentModel 当前选择的模型，默认勾选
+     * @param onApply 用户点击"使用此模型"时回调 (在 FX 线程调用)
+     */
+    public void setup(String apiUrl, String apiKey, List<String> models, String currentModel, Consumer<String> onApply) {
+        this.apiUrl = apiUrl;
+        this.apiKey = apiKey;
+        this.onApply = onApply;
+        modelList.getItems().setAll(models);
+        if (currentModel != null && models.contains(currentModel)) {
+            modelList.getSelectionModel().select(currentModel);
+        }
+        for (int i = 0; i < models.size() && modelList.getSelectionModel().getSelectedItems().size() < DEFAULT_SELECTED; i++) {
+            modelList.getSelectionModel().select(i);
+        }
+    }
+
+    @FXML
+    public void onStart() {
+        List<String> models = new ArrayList<>(modelList.getSelectionModel().getSelectedItems());
+        if (models.isEmpty()) {
+            statusLabel.setText("请选择要测试的模型");
+            return;
+        }
+        int runs;
+        try {
+            runs = Math.max(1, Math.min(MAX_RUNS, Integer.parseInt(runsField.getText().trim())));
+        } catch (NumberFormatException e) {
+            runs = DEFAULT_RUNS;
+        }
+        runsField.setText(String.valueOf(runs));
+
+        rows.clear();
+        Map<String, ResultRow> rowsByModel = new HashMap<>();
+        for (String model : models) {
+            ResultRow row = new ResultRow(model);
+            rowsByModel.put(model, row);
+            rows.add(row);
+        }
+        recommended = null;
+        recommendLabel.setText("");
+        applyButton.setDisable(true);
+        startButton.setDisable(true);
+        cancelButton.setDisable(false);
+        progressBar.setProgress(0);
+        statusLabel.setText("测试中...");
+
+        int total = models.size() * runs;
+        int[] finished = {0};
+        int runsPerModel = runs;
+        Task<List<ModelStats>> task = new Task<>() {
+            @Override
+            protected List<ModelStats> call() throws Exception {
+                return modelBenchmarkService.benchmark(apiUrl, apiKey, models, runsPerModel, stats ->
+                        Platform.runLater(() -> {
+                            finished[0]++;
+                            progressBar.setProgress((double) finished[0] / total);
+                            ResultRow row = rowsByModel.get(stats.getModel());
+                            if (row != null) {
+                                row.update(stats);
+                            }
+                        }));
+            }
+        };
+        currentTask = task;
+
+        task.setOnSucceeded(e -> {
+            List<ModelStats> results = task.getValue();
+            results.forEach(stats -> rowsByModel.get(stats.getModel()).update(stats));
+            ModelStats best = ModelBenchmarkService.recommend(results);
+            if (best == null) {
+                recommendLabel.setText("没有能稳定返回 JSON 数组的模型");
+            } else {
+                recommended = best.getModel();
+                recommendLabel.setText(String.format("推荐: %s (总耗时 p50 %d ms, 首 token p50 %d ms)",
+                        best.getModel(), best.getTotalP50(), best.getTtftP50()));
+                applyButton.setDisable(false);
+            }
+            log.info("模型测速完成: {}", results);
+            finish("测试完成");
+        });
+
+        task.setOnFailed(e -> {
+            log.warn("模型测速失败", task.getException());
+            finish("测试失败: " + task.getException().getMessage());
+        });
+
+        task.setOnCancelled(e -> finish("已取消"));
+
+        uiTaskExecutor.execute(UiTaskExecutor.Category.BENCHMARK, task);
+    }
+
+    @FXML
+    public void onCancel() {
+        if (currentTask != null) {
+            // 中断后台线程，进行中的请求会被断开
+            currentTask.cancel(true);
+        }
+    }
+
+    @FXML
+    public void onApply() {
+        if (recommended != null && onApply != null) {
+            onApply.accept(recommended);
+            statusLabel.setText("已选择 " + recommended + "，保存设置后生效");
+        }
+    }
+
+    private void finish(String message) {
+        currentTask = null;
+        startButton.setDisable(false);
+        cancelButton.setDisable(true);
+        statusLabel.setText(message);
+    }
+
+    /**
+     * 结果表格的一行
+     */
+    private static class ResultRow {
+        final StringProperty model;
+        final StringProperty success = new SimpleStringProperty("等待中");
+        final StringProperty ttft = new SimpleStringProperty("");
+        final StringProperty total = new SimpleStringProperty("");
+        final StringProperty speed = new SimpleStringProperty("");
+
+        ResultRow(String model) {
+            this.model = new SimpleStringProperty(model);
+        }
+
+        void update(ModelStats stats) {
+            String text = String.format("%d/%d (JSON %d)", stats.getSuccesses(), stats.getRuns(), stats.getValidJson());
+            if (stats.getSuccesses() == 0 && stats.getLastError() != null) {
+                text += " " + stats.getLastError();
+            }
+            success.set(text);
+            if (stats.getSuccesses() > 0) {
+                ttft.set(stats.getTtftP50() + " / " + stats.getTtftP95() + " ms");
+                total.set(stats.getTotalP50() + " / " + stats.getTotalP95() + " ms");
+                speed.set(String.format("%.1f", stats.getTokensPerSecondP50()));
+            }
+        }
+    }
+}
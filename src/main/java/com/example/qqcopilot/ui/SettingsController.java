@@ -1,21 +1,33 @@
 package com.example.qqcopilot.ui;
 
 import com.example.qqcopilot.config.AiConfig;
+import com.example.qqcopilot.service.ModelCatalog;
 import com.example.qqcopilot.service.ModelFetchService;
+import com.example.qqcopilot.service.UiTaskExecutor;
+import com.example.qqcopilot.service.UsageStore;
 import javafx.application.Platform;
 import javafx.concurrent.Task;
 import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.stage.Modality;
 import javafx.stage.Stage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 设置对话框控制器
  */
+@Lazy
 @Component
 public class SettingsController {
 
@@ -23,16 +35,26 @@ public class SettingsController {
 
     private final AiConfig aiConfig;
     private final ModelFetchService modelFetchService;
+    private final ModelCatalog modelCatalog;
+    private final ApplicationContext springContext;
+    private final UsageStore usageStore;
+    private final UiTaskExecutor uiTaskExecutor;
 
     @FXML private TextField apiUrlField;
     @FXML private PasswordField apiKeyField;
     @FXML private Button toggleKeyButton;
     @FXML private Button fetchModelsButton;
+    @FXML private Button benchmarkButton;
     @FXML private ProgressIndicator fetchingIndicator;
     @FXML private Label statusLabel;
     @FXML private ComboBox<String> modelComboBox;
     @FXML private TextField rateLimitField;
+    @FXML private TextField uiMaxUpdatesField;
     @FXML private TextArea systemPromptArea;
+    @FXML private Label usageLabel;
+    @FXML private TextField dailyTokenLimitField;
+    @FXML private TextField dailyRequestLimitField;
+    @FXML private TextField budgetFallbackModelField;
     @FXML private Button testButton;
     @FXML private Button saveButton;
     @FXML private Button cancelButton;
@@ -41,9 +63,15 @@ public class SettingsController {
     private TextField apiKeyTextField;
     private boolean isKeyVisible = false;
 
-    public SettingsController(AiConfig aiConfig, ModelFetchService modelFetchService) {
+    public SettingsController(AiConfig aiConfig, ModelFetchService modelFetchService, ModelCatalog modelCatalog,
+                              UsageStore usageStore, UiTaskExecutor uiTaskExecutor,
+                              ApplicationContext springContext) {
         this.aiConfig = aiConfig;
         this.modelFetchService = modelFetchService;
+        this.modelCatalog = modelCatalog;
+        this.usageStore = usageStore;
+        this.uiTaskExecutor = uiTaskExecutor;
+        this.springContext = springContext;
     }
 
     @FXML
@@ -52,6 +80,7 @@ public class SettingsController {
         apiUrlField.setText(aiConfig.getApiUrl());
         apiKeyField.setText(aiConfig.getApiKey());
         rateLimitField.setText(String.valueOf(aiConfig.getRateLimitMs()));
+        uiMaxUpdatesField.setText(String.valueOf(aiConfig.getUiMaxUpdatesPerSecond()));
 
         // 如果有保存的模型，添加到下拉框
         if (aiConfig.getModel() != null && !aiConfig.getModel().isBlank()) {
@@ -59,11 +88,34 @@ public class SettingsController {
             modelComboBox.setValue(aiConfig.getModel());
         }
 
+        // 用缓存的模型列表填充，过期时后台刷新
+        String url = aiConfig.getApiUrl();
+        String key = aiConfig.getApiKey();
+        if (url != null && !url.isBlank() && key != null && !key.isBlank()) {
+            List<String> cached = modelCatalog.getCached(url, key);
+            if (!cached.isEmpty()) {
+                updateModels(cached);
+            }
+            modelCatalog.refreshIfStale(url, key).thenAccept(models -> Platform.runLater(() -> {
+                // 用户已经改了地址或 Key 就不再覆盖
+                if (!models.isEmpty() && url.equals(apiUrlField.getText().trim())
+                        && key.equals(apiKeyField.getText().trim())) {
+                    updateModels(models);
+                }
+            }));
+        }
+
         // 加载系统提示词
         if (aiConfig.getSystemPrompt() != null && !aiConfig.getSystemPrompt().isBlank()) {
             systemPromptArea.setText(aiConfig.getSystemPrompt());
         }
 
+        // 用量与每日上限
+        usageLabel.setText(formatUsage(usageStore.getToday()));
+        dailyTokenLimitField.setText(aiConfig.getDailyTokenLimit() > 0 ? String.valueOf(aiConfig.getDailyTokenLimit()) : "");
+        dailyRequestLimitField.setText(aiConfig.getDailyRequestLimit() > 0 ? String.valueOf(aiConfig.getDailyRequestLimit()) : "");
+        budgetFallbackModelField.setText(aiConfig.getBudgetFallbackModel());
+
         // 创建一个隐藏的 TextField 用于显示 API Key
         apiKeyTextField = new TextField();
         apiKeyTextField.setVisible(false);
@@ -106,7 +158,7 @@ public class SettingsController {
         Task<List<String>> task = new Task<>() {
             @Override
             protected List<String> call() {
-                return modelFetchService.fetchModels(url, key);
+                return modelCatalog.refreshAsync(url, key).join();
             }
         };
 
@@ -119,21 +171,7 @@ public class SettingsController {
                 if (models.isEmpty()) {
                     showStatus("未获取到模型，请检查 API 地址和 Key", true);
                 } else {
-                    // 保留当前选择
-                    String currentSelection = modelComboBox.getValue();
-                    
-                    modelComboBox.getItems().clear();
-                    modelComboBox.getItems().addAll(models);
-                    
-                    // 恢复选择或选第一个
-                    if (currentSelection != null && models.contains(currentSelection)) {
-                        modelComboBox.setValue(currentSelection);
-                    } else if (!models.isEmpty()) {
-                        // 尝试选择一个常用模型
-                        String defaultModel = findPreferredModel(models);
-                        modelComboBox.setValue(defaultModel);
-                    }
-                    
+                    updateModels(models);
                     showStatus("成功获取 " + models.size() + " 个模型", false);
                 }
             });
@@ -147,7 +185,65 @@ public class SettingsController {
             });
         });
 
-        new Thread(task).start();
+        uiTaskExecutor.execute(UiTaskExecutor.Category.SETTINGS, task);
+    }
+
+    /**
+     * 打开模型测速窗口，测试下拉框中的模型
+     */
+    @FXML
+    public void onBenchmarkModels() {
+        String url = apiUrlField.getText().trim();
+        String key = apiKeyField.getText().trim();
+
+        if (url.isEmpty() || key.isEmpty()) {
+            showStatus("请先填写 API 地址和 Key", true);
+            return;
+        }
+        List<String> models = new ArrayList<>(modelComboBox.getItems());
+        if (models.isEmpty()) {
+            showStatus("请先拉取模型列表", true);
+            return;
+        }
+
+        try {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/model-benchmark-view.fxml"));
+            loader.setControllerFactory(springContext::getBean);
+            Parent root = loader.load();
+            ModelBenchmarkController controller = loader.getController();
+            controller.setup(url, key, models, modelComboBox.getValue(), model -> modelComboBox.setValue(model));
+
+            Stage benchmarkStage = new Stage();
+            benchmarkStage.setTitle("模型测速");
+            benchmarkStage.initModality(Modality.WINDOW_MODAL);
+            benchmarkStage.initOwner(benchmarkButton.getScene().getWindow());
+            benchmarkStage.setScene(new Scene(root));
+            // 关闭窗口时停止未完成的测试
+            benchmarkStage.setOnHidden(e -> controller.onCancel());
+            benchmarkStage.show();
+        } catch (Exception e) {
+            log.error("打开模型测速窗口失败", e);
+            showAlert("打开模型测速窗口失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 替换下拉框中的模型列表，保留当前选择，没有选择时选一个常用模型
+     */
+    private void updateModels(List<String> models) {
+        String currentSelection = modelComboBox.getValue();
+
+        modelComboBox.getItems().setAll(models);
+
+        if (currentSelection != null && !currentSelection.isBlank()) {
+            if (!models.contains(currentSelection)) {
+                // 保存的模型不在列表里也保留，可能是手动填写的
+                modelComboBox.getItems().add(0, currentSelection);
+            }
+            modelComboBox.setValue(currentSelection);
+        } else {
+            modelComboBox.setValue(findPreferredModel(models));
+        }
     }
 
     /**
@@ -182,9 +278,9 @@ public class SettingsController {
         testButton.setDisable(true);
         showStatus("正在测试连接...", false);
 
-        Task<Boolean> task = new Task<>() {
+        Task<ModelFetchService.ProbeResult> task = new Task<>() {
             @Override
-            protected Boolean call() {
+            protected ModelFetchService.ProbeResult call() {
                 return modelFetchService.testConnection(url, key);
             }
         };
@@ -192,10 +288,13 @@ public class SettingsController {
         task.setOnSucceeded(e -> {
             Platform.runLater(() -> {
                 testButton.setDisable(false);
-                if (task.getValue()) {
-                    showStatus("✓ 连接成功!", false);
+                ModelFetchService.ProbeResult result = task.getValue();
+                if (result.isSuccess()) {
+                    showStatus("✓ 连接成功! (" + result.getRttMs() + " ms)", false);
+                    // 顺便在后台更新模型列表缓存
+                    modelCatalog.refreshIfStale(url, key);
                 } else {
-                    showStatus("✗ 连接失败，请检查配置", true);
+                    showStatus("✗ 连接失败: " + result, true);
                 }
             });
         });
@@ -207,7 +306,7 @@ public class SettingsController {
             });
         });
 
-        new Thread(task).start();
+        uiTaskExecutor.execute(UiTaskExecutor.Category.SETTINGS, task);
     }
 
     /**
@@ -241,12 +340,29 @@ public class SettingsController {
             // 使用默认值
         }
 
-        // 保存到配置
-        aiConfig.setApiUrl(url);
-        aiConfig.setApiKey(key);
-        aiConfig.setModel(model);
-        aiConfig.setRateLimitMs(rateLimit);
-        aiConfig.setSystemPrompt(systemPrompt);
+        int uiMaxUpdates = aiConfig.getUiMaxUpdatesPerSecond();
+        try {
+            uiMaxUpdates = Math.max(1, Integer.parseInt(uiMaxUpdatesField.getText().trim()));
+        } catch (NumberFormatException e) {
+            // 保持原值
+        }
+
+        // 保存到配置 (一次性替换，分析线程不会读到改了一半的配置)
+        long rateLimitMs = rateLimit;
+        int uiMaxUpdatesPerSecond = uiMaxUpdates;
+        long dailyTokenLimit = parseLimit(dailyTokenLimitField.getText());
+        long dailyRequestLimit = parseLimit(dailyRequestLimitField.getText());
+        String budgetFallbackModel = budgetFallbackModelField.getText().trim();
+        aiConfig.update(b -> b
+                .apiUrl(url)
+                .apiKey(key)
+                .model(model)
+                .rateLimitMs(rateLimitMs)
+                .uiMaxUpdatesPerSecond(uiMaxUpdatesPerSecond)
+                .systemPrompt(systemPrompt)
+                .dailyTokenLimit(dailyTokenLimit)
+                .dailyRequestLimit(dailyRequestLimit)
+                .budgetFallbackModel(budgetFallbackModel));
         aiConfig.save();
 
         showStatus("配置已保存!", false);
@@ -255,6 +371,34 @@ public class SettingsController {
         closeWindow();
     }
 
+    /**
+     * 解析上限输入，留空或格式错误视为不限
+     */
+    private long parseLimit(String text) {
+        try {
+            return Math.max(0, Long.parseLong(text.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 今日总量 + 按模型细分
+     */
+    private String formatUsage(UsageStore.DayUsage today) {
+        if (today.getTotal().getRequests() == 0) {
+            return "今天还没有 AI 请求";
+        }
+        StringBuilder sb = new StringBuilder("合计: ").append(today.getTotal());
+        for (Map.Entry<String, UsageStore.Totals> entry : today.getByModel().entrySet()) {
+            sb.append("\n").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        if (usageStore.isOverBudget()) {
+            sb.append("\n已达到每日上限");
+        }
+        return sb.toString();
+    }
+
     /**
      * 取消
      */
@@ -0,0 +1,66 @@
+package com.example.qqcopilot.ui;
+
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.stage.StageStyle;
+
+/**
+ * 启动画面
+ * 不依赖 Spring，FX 启动后立即显示，后台初始化完成后关闭
+ * 只在 FX 线程调用
+ */
+public class SplashScreen {
+
+    private final Stage stage = new Stage(StageStyle.UNDECORATED);
+    private final Label statusLabel = new Label("正在启动...");
+    private final ProgressBar progressBar = new ProgressBar(ProgressBar.INDETERMINATE_PROGRESS);
+    private final Button exitButton = new Button("退出");
+
+    public SplashScreen() {
+        Label title = new Label("QQ Chat Copilot");
+        title.getStyleClass().add("title-3");
+        statusLabel.getStyleClass().addAll("text-muted", "text-small");
+        statusLabel.setWrapText(true);
+        progressBar.setPrefWidth(260);
+        exitButton.setOnAction(e -> Platform.exit());
+        exitButton.setVisible(false);
+        exitButton.setManaged(false);
+
+        VBox root = new VBox(12, title, progressBar, statusLabel, exitButton);
+        root.setAlignment(Pos.CENTER);
+        root.setPadding(new Insets(24));
+        root.setPrefSize(320, 160);
+        stage.setScene(new Scene(root));
+        stage.setAlwaysOnTop(true);
+    }
+
+    public void show() {
+        stage.show();
+    }
+
+    public void setStatus(String status) {
+        statusLabel.setText(status);
+    }
+
+    /**
+     * 启动失败: 停止进度条，显示错误和退出按钮
+     */
+    public void showError(String message) {
+        progressBar.setProgress(0);
+        statusLabel.setText("启动失败: " + message);
+        statusLabel.getStyleClass().add("danger");
+        exitButton.setVisible(true);
+        exitButton.setManaged(true);
+    }
+
+    public void close() {
+        stage.close();
+    }
+}
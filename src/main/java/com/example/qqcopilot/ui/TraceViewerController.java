@@ -0,0 +1,261 @@
+package com.example.qqcopilot.ui;
+
+import com.example.qqcopilot.config.AiConfig;
+import com.example.qqcopilot.service.Tracer;
+import com.example.qqcopilot.service.Tracer.Span;
+import com.example.qqcopilot.service.Tracer.Trace;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.fxml.FXML;
+import javafx.scene.control.*;
+import javafx.stage.FileChooser;
+import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 链路追踪面板控制器
+ * 列出最近的交互 (收到消息、加载历史、AI 分析)，选中后按阶段展开耗时，可以按类型和最低耗时筛选并导出为 JSON
+ */
+@Lazy
+@Component
+public class TraceViewerController {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceViewerController.class);
+    private static final String ALL_TYPES = "全部";
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    private static final DateTimeFormatter FILE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Tracer tracer;
+
+    @FXML private ComboBox<String> typeCombo;
+    @FXML private TextField minMsField;
+    @FXML private CheckBox autoRefreshCheckBox;
+    @FXML private Label statusLabel;
+    @FXML private TableView<Trace> traceTable;
+    @FXML private TableColumn<Trace, String> idColumn;
+    @FXML private TableColumn<Trace, String> timeColumn;
+    @FXML private TableColumn<Trace, String> typeColumn;
+    @FXML private TableColumn<Trace, String> chatColumn;
+    @FXML private TableColumn<Trace, String> totalColumn;
+    @FXML private TableColumn<Trace, String> slowestColumn;
+    @FXML private Label detailLabel;
+    @FXML private TableView<Span> spanTable;
+    @FXML private TableColumn<Span, String> stageColumn;
+    @FXML private TableColumn<Span, String> offsetColumn;
+    @FXML private TableColumn<Span, String> durationColumn;
+    @FXML private TableColumn<Span, Number> shareColumn;
+    @FXML private TableColumn<Span, String> spanDetailColumn;
+
+    private final ObservableList<Trace> traces = FXCollections.observableArrayList();
+    private final ObservableList<Span> spans = FXCollections.observableArrayList();
+    private Timeline autoRefresh;
+
+    public TraceViewerController(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @FXML
+    public void initialize() {
+        typeCombo.setItems(FXCollections.observableArrayList(ALL_TYPES, Tracer.MESSAGE, Tracer.HISTORY, Tracer.ANALYSIS));
+        typeCombo.getSelectionModel().selectFirst();
+        typeCombo.valueProperty().addListener((obs, oldVal, newVal) -> onRefresh());
+
+        traceTable.setItems(traces);
+        idColumn.setCellValueFactory(cell -> new SimpleStringProperty(String.valueOf(cell.getValue().getId())));
+        timeColumn.setCellValueFactory(cell -> new SimpleStringProperty(formatTime(cell.getValue().getStartedAt())));
+        typeColumn.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getName()));
+        chatColumn.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getChatKey()));
+        totalColumn.setCellValueFactory(cell -> new SimpleStringProperty(formatMs(cell.getValue().getTotalMs())));
+        slowestColumn.setCellValueFactory(cell -> new SimpleStringProperty(describeSlowest(cell.getValue())));
+        traceTable.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> showTrace(newVal));
+
+        spanTable.setItems(spans);
+        stageColumn.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getStage()));
+        offsetColumn.setCellValueFactory(cell -> new SimpleStringProperty("+" + formatMs(cell.getValue().getOffsetMs())));
+        durationColumn.setCellValueFactory(cell -> new SimpleStringProperty(formatMs(cell.getValue().getDurationMs())));
+        spanDetailColumn.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getDetail()));
+        shareColumn.setCellValueFactory(cell -> new SimpleDoubleProperty(shareOf(cell.getValue())));
+        shareColumn.setCellFactory(column -> new ShareCell());
+
+        autoRefresh = new Timeline(new KeyFrame(Duration.seconds(1), e -> onRefresh()));
+        autoRefresh.setCycleCount(Animation.INDEFINITE);
+        autoRefreshCheckBox.selectedProperty().addListener((obs, oldVal, newVal) -> {
+            if (newVal) {
+                autoRefresh.play();
+            } else {
+                autoRefresh.stop();
+            }
+        });
+        autoRefreshCheckBox.setSelected(true);
+        onRefresh();
+    }
+
+    /**
+     * 按筛选条件重新读取环形缓冲区，保留当前选中的交互
+     */
+    @FXML
+    public void onRefresh() {
+        Trace selected = traceTable.getSelectionModel().getSelectedItem();
+        List<Trace> filtered = filter(tracer.getRecent());
+        traces.setAll(filtered);
+        if (selected != null && filtered.contains(selected)) {
+            traceTable.getSelectionModel().select(selected);
+            showTrace(selected);
+        }
+        statusLabel.setText(String.format("共 %d 条 (每种类型最多保留最近 %d 条)", filtered.size(), Tracer.CAPACITY));
+    }
+
+    /**
+     * 导出当前筛选出的交互
+     */
+    @FXML
+    public void onExport() {
+        List<Trace> toExport = new ArrayList<>(traces);
+        if (toExport.isEmpty()) {
+            statusLabel.setText("没有可导出的记录");
+            return;
+        }
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("导出追踪记录");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON", "*.json"));
+        File configDir = new File(AiConfig.CONFIG_DIR);
+        if (configDir.isDirectory()) {
+            chooser.setInitialDirectory(configDir);
+        }
+        chooser.setInitialFileName("traces-" + LocalDateTime.now().format(FILE_TIME_FORMAT) + ".json");
+        File file = chooser.showSaveDialog(traceTable.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        try {
+            tracer.export(toExport, file.toPath());
+            statusLabel.setText("已导出 " + toExport.size() + " 条到 " + file);
+        } catch (Exception e) {
+            log.warn("导出追踪记录失败", e);
+            statusLabel.setText("导出失败: " + e.getMessage());
+        }
+    }
+
+    @FXML
+    public void onClear() {
+        tracer.clear();
+        spans.clear();
+        detailLabel.setText("");
+        onRefresh();
+    }
+
+    /**
+     * 窗口关闭时调用: 停止自动刷新
+     */
+    public void close() {
+        if (autoRefresh != null) {
+            autoRefresh.stop();
+        }
+    }
+
+    private List<Trace> filter(List<Trace> recent) {
+        String type = typeCombo.getValue();
+        double minMs = 0;
+        String minText = minMsField.getText() != null ? minMsField.getText().trim() : "";
+        if (!minText.isEmpty()) {
+            try {
+                minMs = Double.parseDouble(minText);
+            } catch (NumberFormatException e) {
+                minMsField.clear();
+            }
+        }
+        List<Trace> result = new ArrayList<>();
+        for (Trace trace : recent) {
+            if (type != null && !ALL_TYPES.equals(type) && !type.equals(trace.getName())) {
+                continue;
+            }
+            if (trace.getTotalMs() < minMs) {
+                continue;
+            }
+            result.add(trace);
+        }
+        return result;
+    }
+
+    private void showTrace(Trace trace) {
+        if (trace == null) {
+            spans.clear();
+            detailLabel.setText("");
+            return;
+        }
+        spans.setAll(trace.getSpans());
+        StringBuilder detail = new StringBuilder(String.format("#%d %s 总计 %s", trace.getId(), trace.getName(),
+                formatMs(trace.getTotalMs())));
+        if (trace.getRelatedId() != 0) {
+            detail.append(String.format("，在消息 #%d 收到后 %s 开始", trace.getRelatedId(),
+                    formatMs(trace.getSinceRelatedMs())));
+        }
+        if (trace.getError() != null) {
+            detail.append("，失败: ").append(trace.getError());
+        }
+        detailLabel.setText(detail.toString());
+    }
+
+    private double shareOf(Span span) {
+        Trace trace = traceTable.getSelectionModel().getSelectedItem();
+        double total = trace != null ? trace.getTotalMs() : 0;
+        return total > 0 ? span.getDurationMs() / total : 0;
+    }
+
+    private static String describeSlowest(Trace trace) {
+        Span slowest = trace.getSlowestSpan();
+        if (slowest == null) {
+            return "";
+        }
+        return slowest.getStage() + " " + formatMs(slowest.getDurationMs());
+    }
+
+    private static String formatTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault()).format(TIME_FORMAT);
+    }
+
+    private static String formatMs(double ms) {
+        return ms >= 100 ? String.format("%.0f ms", ms) : String.format("%.2f ms", ms);
+    }
+
+    /**
+     * 阶段耗时占整条链路的比例，用进度条显示
+     */
+    private static class ShareCell extends TableCell<Span, Number> {
+        private final ProgressBar bar = new ProgressBar();
+
+        ShareCell() {
+            bar.setMaxWidth(Double.MAX_VALUE);
+        }
+
+        @Override
+        protected void updateItem(Number share, boolean empty) {
+            super.updateItem(share, empty);
+            if (empty || share == null) {
+                setGraphic(null);
+                setText(null);
+                return;
+            }
+            bar.setProgress(share.doubleValue());
+            setGraphic(bar);
+            setText(null);
+            setTooltip(new Tooltip(String.format("%.1f%%", share.doubleValue() * 100)));
+        }
+    }
+}